@@ -24,6 +24,7 @@ import java.nio.file.StandardCopyOption;
 import java.util.regex.Matcher;
 import org.jboss.galleon.ProvisioningException;
 import org.jboss.galleon.universe.maven.MavenArtifact;
+import org.jboss.jandex.Index;
 import org.wildfly.galleon.plugin.WfInstallPlugin.ArtifactResolver;
 
 /**
@@ -41,20 +42,60 @@ abstract class AbstractArtifactInstaller {
 
     private final Path generatedMavenRepo;
     private final ArtifactResolver resolver;
+    private final boolean linkArtifacts;
+    private final ProvisioningMetrics metrics;
+    private final MemoizedTasks<Path, Path> sharedFiles = new MemoizedTasks<>();
+    // The same artifact is referenced by several modules and copy-artifact tasks, it is installed once per
+    // target and the installation result is shared
+    private final MemoizedTasks<String, String> fatInstallations = new MemoizedTasks<>();
+    private final MemoizedTasks<String, String> thinInstallations = new MemoizedTasks<>();
+    private final MemoizedTasks<String, Path> copiedInstallations = new MemoizedTasks<>();
+    private final MemoizedTasks<String, Path> poms = new MemoizedTasks<>();
 
-    AbstractArtifactInstaller(ArtifactResolver resolver, Path generatedMavenRepo) {
+    AbstractArtifactInstaller(ArtifactResolver resolver, Path generatedMavenRepo, boolean linkArtifacts, ProvisioningMetrics metrics) {
         this.resolver = resolver;
         this.generatedMavenRepo = generatedMavenRepo;
+        this.linkArtifacts = linkArtifacts;
+        this.metrics = metrics;
     }
 
-    abstract String installArtifactFat(MavenArtifact artifact, Path targetDir,
+    /**
+     * Installs the artifact of a fat server module, once per target directory.
+     *
+     * @return the name of the installed file
+     */
+    String installArtifactFat(MavenArtifact artifact, Path targetDir, Path localCache) throws IOException,
+            ProvisioningException {
+        return fatInstallations.get(getArtifactKey(artifact) + '|' + targetDir.toAbsolutePath() + '|' + localCache,
+                () -> doInstallArtifactFat(artifact, targetDir, localCache));
+    }
+
+    /**
+     * Installs the artifact of a thin server module, once per provisioning.
+     *
+     * @return the installed version
+     */
+    String installArtifactThin(MavenArtifact artifact) throws IOException, ProvisioningException {
+        return thinInstallations.get(getArtifactKey(artifact), () -> doInstallArtifactThin(artifact));
+    }
+
+    /**
+     * Installs the artifact of a copy-artifact task, once per provisioning.
+     *
+     * @return the file to copy
+     */
+    Path installCopiedArtifact(MavenArtifact artifact) throws IOException, ProvisioningException {
+        return copiedInstallations.get(getArtifactKey(artifact), () -> doInstallCopiedArtifact(artifact));
+    }
+
+    abstract String doInstallArtifactFat(MavenArtifact artifact, Path targetDir,
             Path localCache) throws IOException,
             ProvisioningException;
 
-    abstract String installArtifactThin(MavenArtifact artifact) throws IOException,
+    abstract String doInstallArtifactThin(MavenArtifact artifact) throws IOException,
             ProvisioningException;
 
-    abstract Path installCopiedArtifact(MavenArtifact artifact) throws IOException, ProvisioningException;
+    abstract Path doInstallCopiedArtifact(MavenArtifact artifact) throws IOException, ProvisioningException;
 
     Path getGeneratedMavenRepo() {
         return generatedMavenRepo;
@@ -64,14 +105,58 @@ abstract class AbstractArtifactInstaller {
         return resolver;
     }
 
-    static Path getPomArtifactPath(MavenArtifact artifact, ArtifactResolver resolver) throws ProvisioningException {
+    ProvisioningMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Whether installing the artifact requires its pom file to be resolved.
+     * Used to resolve pom files ahead of the installation.
+     *
+     * @param artifact  artifact to install
+     * @return true if the pom file of the artifact is required
+     */
+    boolean isPomRequired(MavenArtifact artifact) throws ProvisioningException {
+        return generatedMavenRepo != null;
+    }
+
+    /**
+     * Identifies the way this installer installs artifacts, including everything the installed content depends
+     * on besides the artifact coordinates. Part of the keys of the cached and reused modules.
+     *
+     * @return the key or null if the installed content can't be identified, the modules are then always installed
+     */
+    String getInstallationKey() throws IOException {
+        // the Jandex index of the module artifacts with the jandex option depends on the Jandex version
+        return getClass().getName() + ':' + JandexIndexer.getImplementationHash();
+    }
+
+    static MavenArtifact getPomArtifact(MavenArtifact artifact) {
         MavenArtifact pomArtifact = new MavenArtifact();
         pomArtifact.setGroupId(artifact.getGroupId());
         pomArtifact.setArtifactId(artifact.getArtifactId());
         pomArtifact.setVersion(artifact.getVersion());
         pomArtifact.setExtension("pom");
-        resolver.resolve(pomArtifact);
-        return pomArtifact.getPath();
+        return pomArtifact;
+    }
+
+    /**
+     * Resolves the pom file of an artifact, once per provisioning.
+     */
+    Path getPomArtifactPath(MavenArtifact artifact) throws IOException, ProvisioningException {
+        return poms.get(artifact.getGroupId() + ':' + artifact.getArtifactId() + ':' + artifact.getVersion(), () -> {
+            MavenArtifact pomArtifact = getPomArtifact(artifact);
+            resolver.resolve(pomArtifact);
+            return pomArtifact.getPath();
+        });
+    }
+
+    /**
+     * @return groupId:artifactId:version:classifier:extension
+     */
+    private static String getArtifactKey(MavenArtifact artifact) {
+        return artifact.getGroupId() + ':' + artifact.getArtifactId() + ':' + artifact.getVersion() + ':'
+                + (artifact.getClassifier() == null ? "" : artifact.getClassifier()) + ':' + artifact.getExtension();
     }
 
     static Path getLocalRepoPath(MavenArtifact artifact, String version, Path repo) throws IOException {
@@ -93,9 +178,68 @@ abstract class AbstractArtifactInstaller {
         if (getGeneratedMavenRepo() != null) {
             Path versionPath = getLocalRepoPath(artifact, version, getGeneratedMavenRepo());
             Path actualTarget = versionPath.resolve(path.getFileName().toString());
-            Files.copy(path, actualTarget, StandardCopyOption.REPLACE_EXISTING);
-            Path pomFile = getPomArtifactPath(artifact, getArtifactResolver());
-            Files.copy(pomFile, versionPath.resolve(pomFile.getFileName().toString()), StandardCopyOption.REPLACE_EXISTING);
+            copyShared(path, actualTarget);
+            Path pomFile = getPomArtifactPath(artifact);
+            copyShared(pomFile, versionPath.resolve(pomFile.getFileName().toString()));
+        }
+    }
+
+    /**
+     * Installs an artifact file in the provisioned server. If enabled, which it is not by default, the target is
+     * created as a hard link to the source, falling back to a copy when the file store does not support it (e.g.
+     * the source and the target are on different file stores). A linked target shares its content and attributes
+     * with the source in the local maven repository: the provisioning replaces the files it writes again and the
+     * staged directory tasks break the link of the files they update, so that the repository file is unchanged.
+     */
+    void installFile(Path src, Path target) throws IOException {
+        final long start = System.nanoTime();
+        if (linkArtifacts) {
+            Files.deleteIfExists(target);
+            try {
+                Files.createLink(target, src);
+                metrics.record(src, ProvisioningMetrics.Operation.LINK, start);
+                return;
+            } catch (UnsupportedOperationException | IOException e) {
+                // falling back to a copy
+            }
         }
+        Files.copy(src, target, StandardCopyOption.REPLACE_EXISTING);
+        metrics.record(src, ProvisioningMetrics.Operation.COPY, start);
+    }
+
+    /**
+     * Copies a file to a location shared by all the installed modules (e.g. a maven repository).
+     * Modules are installed concurrently, a target is copied once, other installations of the same
+     * artifact wait for the copy to complete.
+     */
+    void copyShared(Path src, Path target) throws IOException, ProvisioningException {
+        writeShared(target, () -> {
+            final long start = System.nanoTime();
+            Files.copy(src, target, StandardCopyOption.REPLACE_EXISTING);
+            metrics.record(src, ProvisioningMetrics.Operation.COPY, start);
+            return target;
+        });
+    }
+
+    /**
+     * Writes a file to a location shared by all the installed modules. A target is written once, other
+     * writes of the same target wait for the first one to complete.
+     *
+     * @param target  the written file
+     * @param write  writes the target and returns it
+     */
+    void writeShared(Path target, ProvisioningExecutor.Task<Path> write) throws IOException, ProvisioningException {
+        sharedFiles.get(target.toAbsolutePath(), write);
+    }
+
+    /**
+     * Returns the Jandex index of an installed artifact created while the artifact was written. The index is
+     * returned once.
+     *
+     * @param installed  the installed artifact
+     * @return the index or null if the artifact was not indexed while it was written
+     */
+    Index takeJandexIndex(Path installed) {
+        return null;
     }
 }
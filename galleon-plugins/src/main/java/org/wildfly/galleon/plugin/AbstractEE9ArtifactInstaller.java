@@ -19,13 +19,17 @@ package org.wildfly.galleon.plugin;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashSet;
+import java.security.MessageDigest;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import org.jboss.galleon.MessageWriter;
 import org.jboss.galleon.ProvisioningException;
 import org.jboss.galleon.runtime.ProvisioningRuntime;
 import org.jboss.galleon.universe.maven.MavenArtifact;
 import org.jboss.galleon.universe.maven.MavenUniverseException;
+import org.jboss.jandex.Index;
 import org.wildfly.galleon.plugin.WfInstallPlugin.ArtifactResolver;
 import org.wildfly.galleon.plugin.transformer.JakartaTransformer;
 import org.wildfly.galleon.plugin.transformer.TransformedArtifact;
@@ -37,7 +41,14 @@ import org.wildfly.galleon.plugin.transformer.TransformedArtifact;
  */
 abstract class AbstractEE9ArtifactInstaller extends AbstractArtifactInstaller {
 
-    private final Set<String> transformExcluded = new HashSet<>();
+    private final Set<String> transformExcluded = ConcurrentHashMap.newKeySet();
+    private final Set<String> configuredExclusions;
+    private String installationKey;
+    // Artifacts shared by several modules can be installed concurrently, they are transformed once per target
+    private final MemoizedTasks<Path, TransformedArtifact> transformations = new MemoizedTasks<>();
+    private final MemoizedTasks<String, Path> overriddenArtifacts = new MemoizedTasks<>();
+    // Jandex indexes of the transformed artifacts, created while they are transformed, per target
+    private final Map<Path, Index> jandexIndexes = new ConcurrentHashMap<>();
     private final MessageWriter log;
     private final String jakartaTransformSuffix;
     private final Path jakartaTransformConfigsDir;
@@ -45,9 +56,13 @@ abstract class AbstractEE9ArtifactInstaller extends AbstractArtifactInstaller {
     private final boolean jakartaTransformVerbose;
     private final ProvisioningRuntime runtime;
     private final WfInstallPlugin plugin;
+    private final TransformationCache transformationCache;
+    private final TransformationExecutor transformationExecutor;
 
     AbstractEE9ArtifactInstaller(ArtifactResolver resolver,
             Path generatedMavenRepo,
+            boolean linkArtifacts,
+            ProvisioningMetrics metrics,
             Set<String> transformExcluded,
             WfInstallPlugin plugin,
             String jakartaTransformSuffix,
@@ -55,20 +70,102 @@ abstract class AbstractEE9ArtifactInstaller extends AbstractArtifactInstaller {
             JakartaTransformer.LogHandler logHandler,
             boolean jakartaTransformVerbose,
             ProvisioningRuntime runtime) {
-        super(resolver, generatedMavenRepo);
+        super(resolver, generatedMavenRepo, linkArtifacts, metrics);
         this.plugin = plugin;
         this.transformExcluded.addAll(transformExcluded);
+        this.configuredExclusions = new TreeSet<>(transformExcluded);
         this.log = plugin.log;
         this.jakartaTransformSuffix = jakartaTransformSuffix;
         this.jakartaTransformConfigsDir = jakartaTransformConfigsDir;
         this.logHandler = logHandler;
         this.jakartaTransformVerbose = jakartaTransformVerbose;
         this.runtime = runtime;
+        this.transformationCache = plugin.getTransformationCache();
+        this.transformationExecutor = plugin.getTransformationExecutor();
     }
 
-    protected TransformedArtifact transform(MavenArtifact artifact, Path targetDir) throws IOException {
-        TransformedArtifact a = JakartaTransformer.transform(jakartaTransformConfigsDir, artifact.getPath(), targetDir, jakartaTransformVerbose, logHandler);
-        return a;
+    protected TransformedArtifact transform(MavenArtifact artifact, Path targetDir) throws IOException, ProvisioningException {
+        return transformations.get(targetDir.toAbsolutePath(), () -> doTransform(artifact, targetDir));
+    }
+
+    /**
+     * Transforms the artifact unless the target already exists.
+     *
+     * @return the transformed artifact or null if the target already existed
+     */
+    protected TransformedArtifact transformIfAbsent(MavenArtifact artifact, Path target) throws IOException, ProvisioningException {
+        return transformations.get(target.toAbsolutePath(), () -> Files.exists(target) ? null : doTransform(artifact, target));
+    }
+
+    /**
+     * Transforms the artifact to a file named transformedFileName in the provisioning tmp directory.
+     */
+    protected Path transformToTmp(MavenArtifact artifact, String transformedFileName) throws IOException, ProvisioningException {
+        final Path transformedFile = runtime.getTmpPath(transformedFileName);
+        final TransformedArtifact transformedArtifact = transformations.get(transformedFile.toAbsolutePath(), () -> {
+            Files.createDirectories(transformedFile);
+            Files.deleteIfExists(transformedFile);
+            return doTransform(artifact, transformedFile);
+        });
+        return transformedArtifact.isTransformed() ? transformedFile : null;
+    }
+
+    private TransformedArtifact doTransform(MavenArtifact artifact, Path target) throws IOException, ProvisioningException {
+        final ProvisioningExecutor.Task<TransformedArtifact> task = () -> {
+            final long start = System.nanoTime();
+            // the cache is looked up first, the artifact is only searched for references on a miss
+            final TransformationCache.Transformation transformation = () -> {
+                if (!JakartaTransformer.isTransformable(jakartaTransformConfigsDir, artifact.getPath())) {
+                    // nothing the rules apply to, the artifact is installed as is
+                    if (target.getParent() != null) {
+                        Files.createDirectories(target.getParent());
+                    }
+                    installFile(artifact.getPath(), target);
+                    return new TransformedArtifact(artifact.getPath(), target, false, JakartaTransformer.isSignedArchive(artifact.getPath()), false);
+                }
+                if (!plugin.isJandexArtifact(artifact)) {
+                    return JakartaTransformer.transform(jakartaTransformConfigsDir, artifact.getPath(), target,
+                            jakartaTransformVerbose, logHandler);
+                }
+                // the classes are indexed from the transformed content, the index is not read again
+                final JandexIndexer.Collector collector = new JandexIndexer.Collector(log);
+                final TransformedArtifact transformed = JakartaTransformer.transform(jakartaTransformConfigsDir,
+                        artifact.getPath(), target, jakartaTransformVerbose, logHandler, collector);
+                if (Files.isRegularFile(target)) {
+                    jandexIndexes.put(target.toAbsolutePath(), collector.complete());
+                }
+                return transformed;
+            };
+            final TransformedArtifact transformed = transformationCache == null ? transformation.transform()
+                    : transformationCache.transform(artifact.getPath(), target, transformation, this::installFile);
+            getMetrics().record(artifact.getPath(), ProvisioningMetrics.Operation.TRANSFORM, start);
+            return transformed;
+        };
+        return transformationExecutor == null ? task.execute() : transformationExecutor.execute(Files.size(artifact.getPath()), task);
+    }
+
+    @Override
+    Index takeJandexIndex(Path installed) {
+        return jandexIndexes.remove(installed.toAbsolutePath());
+    }
+
+    @Override
+    String getInstallationKey() throws IOException {
+        synchronized (this) {
+            if (installationKey == null) {
+                // the rules are identified by their content, the exclusions are the ones configured for the
+                // provisioning, the exclusions added while installing concern overridden artifacts, not cached
+                final MessageDigest digest = Digests.newSha256();
+                Digests.update(digest, super.getInstallationKey());
+                Digests.update(digest, jakartaTransformSuffix);
+                Digests.update(digest, TransformationCache.rulesHash(jakartaTransformConfigsDir));
+                for (String excluded : configuredExclusions) {
+                    Digests.update(digest, excluded);
+                }
+                installationKey = Digests.toHex(digest.digest());
+            }
+            return installationKey;
+        }
     }
 
     protected boolean isOverriddenArtifact(MavenArtifact artifact) throws ProvisioningException {
@@ -99,30 +196,21 @@ abstract class AbstractEE9ArtifactInstaller extends AbstractArtifactInstaller {
      }
 
     Path setupOverriddenArtifact(MavenArtifact mavenArtifact) throws IOException, MavenUniverseException, ProvisioningException {
-        String transformedFileName = getTransformedArtifactFileName(mavenArtifact.getVersion(),
-                mavenArtifact.getPath().getFileName().toString());
-        Path transformedFile = tryTransformation(mavenArtifact, transformedFileName);
         String gav = ArtifactCoords.newGav(mavenArtifact.getGroupId(), mavenArtifact.getArtifactId(), mavenArtifact.getVersion()).toString();
-        if (transformedFile == null) {
-            transformExcluded.add(gav);
-        }
-        return transformedFile;
+        return overriddenArtifacts.get(gav, () -> {
+            String transformedFileName = getTransformedArtifactFileName(mavenArtifact.getVersion(),
+                    mavenArtifact.getPath().getFileName().toString());
+            // We don't know the state of this artifact, we must transform it.
+            Path transformedFile = transformToTmp(mavenArtifact, transformedFileName);
+            if (transformedFile == null) {
+                transformExcluded.add(gav);
+            }
+            return transformedFile;
+        });
     }
 
     void excludeFromTransformation(MavenArtifact artifact) {
         String gav = ArtifactCoords.newGav(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion()).toString();
         transformExcluded.add(gav);
     }
-
-    private Path tryTransformation(MavenArtifact artifact, String transformedFileName) throws IOException {
-        // We don't know the state of this artifact, we must transform it.
-        Path transformedFile = runtime.getTmpPath(transformedFileName);
-        Files.createDirectories(transformedFile);
-        Files.deleteIfExists(transformedFile);
-        TransformedArtifact transformedArtifact = transform(artifact, transformedFile);
-        if (!transformedArtifact.isTransformed()) {
-            transformedFile = null;
-        }
-        return transformedFile;
-    }
 }
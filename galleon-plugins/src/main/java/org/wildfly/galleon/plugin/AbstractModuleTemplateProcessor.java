@@ -16,16 +16,15 @@
  */
 package org.wildfly.galleon.plugin;
 
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Map;
-import nu.xom.Attribute;
-import nu.xom.Element;
-import nu.xom.Elements;
 import org.jboss.galleon.MessageWriter;
 import org.jboss.galleon.ProvisioningException;
 import org.jboss.galleon.universe.maven.MavenArtifact;
 import org.jboss.galleon.universe.maven.MavenUniverseException;
+import org.jboss.jandex.Index;
 
 /**
  * Abstract template processor that implements logic common to fat and thin
@@ -37,26 +36,16 @@ abstract class AbstractModuleTemplateProcessor {
 
     class ModuleArtifact {
 
-        private final Element element;
+        private final ModuleTemplate.ArtifactElement element;
         boolean jandex;
         String coordsStr;
         private MavenArtifact artifact;
-        private final Attribute attribute;
 
-        ModuleArtifact(Element element) {
+        ModuleArtifact(ModuleTemplate.ArtifactElement element) {
             this.element = element;
-            assert element.getLocalName().equals("artifact");
-            attribute = element.getAttribute("name");
-            coordsStr = attribute.getValue();
-            if (coordsStr.startsWith("${") && coordsStr.endsWith("}")) {
-                coordsStr = coordsStr.substring(2, coordsStr.length() - 1);
-                final int optionsIndex = coordsStr.indexOf('?');
-                if (optionsIndex >= 0) {
-                    jandex = coordsStr.indexOf("jandex", optionsIndex) >= 0;
-                    coordsStr = coordsStr.substring(0, optionsIndex);
-                }
-                coordsStr = versionProps.get(coordsStr);
-            }
+            final String name = element.getName();
+            jandex = AbstractModuleTemplateProcessor.isJandex(name);
+            coordsStr = getArtifactCoords(name, versionProps);
         }
 
         MavenArtifact getMavenArtifact() throws IOException {
@@ -88,17 +77,50 @@ abstract class AbstractModuleTemplateProcessor {
         }
 
         void updateFatArtifact(String finalFileName) {
-            element.setLocalName("resource-root");
-            attribute.setLocalName("path");
-            attribute.setValue(finalFileName);
+            element.setResourceRoot(finalFileName);
         }
 
         void updateThinArtifact(String coords) {
-            attribute.setValue(coords);
+            element.setCoords(coords);
         }
 
     }
 
+    /**
+     * @param name  the value of the name attribute of an artifact element
+     * @return true if the name is an expression with the jandex option
+     */
+    static boolean isJandex(String name) {
+        if (!isExpression(name)) {
+            return false;
+        }
+        final int optionsIndex = name.indexOf('?');
+        return optionsIndex >= 0 && name.indexOf("jandex", optionsIndex) >= 0;
+    }
+
+    /**
+     * Returns the coordinates of the artifact referenced by the name of an artifact element.
+     *
+     * @param name  the value of the name attribute, either coordinates or an ${artifact?options} expression
+     * @param versionProps  the artifact versions of the feature-pack
+     * @return the artifact coordinates or null if the expression does not match a known artifact
+     */
+    static String getArtifactCoords(String name, Map<String, String> versionProps) {
+        if (!isExpression(name)) {
+            return name;
+        }
+        String coords = name.substring(2, name.length() - 1);
+        final int optionsIndex = coords.indexOf('?');
+        if (optionsIndex >= 0) {
+            coords = coords.substring(0, optionsIndex);
+        }
+        return versionProps.get(coords);
+    }
+
+    private static boolean isExpression(String name) {
+        return name.startsWith("${") && name.endsWith("}");
+    }
+
     private final ModuleTemplate template;
     private final Map<String, String> versionProps;
     private final WfInstallPlugin plugin;
@@ -129,48 +151,78 @@ abstract class AbstractModuleTemplateProcessor {
         return plugin.log;
     }
 
+    /**
+     * Writes the Jandex index jar of an artifact. The index created while the artifact was transformed is
+     * written if any, otherwise the index jar is restored from the Jandex cache if enabled.
+     *
+     * @param artifactPath  the indexed artifact
+     * @param target  the index jar
+     */
+    void createJandexIndex(Path artifactPath, Path target) throws IOException, ProvisioningException {
+        final long start = System.nanoTime();
+        final Index index = installer.takeJandexIndex(artifactPath);
+        if (index != null) {
+            // indexed while the artifact was transformed
+            JandexIndexer.writeIndex(index, new FileOutputStream(target.toFile()), getLog());
+            installer.getMetrics().record(artifactPath, ProvisioningMetrics.Operation.JANDEX, start);
+            return;
+        }
+        final JandexCache.Indexing indexing = indexJar -> JandexIndexer.createIndex(artifactPath.toFile(),
+                new FileOutputStream(indexJar.toFile()), getLog(), plugin.getJandexExecutor());
+        final JandexCache cache = plugin.getJandexCache();
+        if (cache == null) {
+            indexing.index(target);
+        } else {
+            cache.index(artifactPath, target, indexing);
+        }
+        installer.getMetrics().record(artifactPath, ProvisioningMetrics.Operation.JANDEX, start);
+    }
+
     void process() throws ProvisioningException, IOException {
         if (template.isModule()) {
-            processModuleVersion();
-            processArtifacts();
+            template.process(new ModuleTemplate.Processor() {
+                @Override
+                public String processVersion(String version) throws ProvisioningException {
+                    return processModuleVersion(version);
+                }
+
+                @Override
+                public void processArtifact(ModuleTemplate.ArtifactElement artifact) throws ProvisioningException, IOException {
+                    processArtifactElement(artifact);
+                }
+            });
         }
     }
 
-    void processModuleVersion() throws ProvisioningException {
+    /**
+     * @param versionExpr  value of the module version attribute
+     * @return the resolved version or null if the version is unchanged
+     */
+    String processModuleVersion(String versionExpr) throws ProvisioningException {
         // replace version, if any
-        final Attribute versionAttribute = template.getRootElement().getAttribute("version");
-        if (versionAttribute != null) {
-            final String versionExpr = versionAttribute.getValue();
-            if (versionExpr.startsWith("${") && versionExpr.endsWith("}")) {
-                final String exprBody = versionExpr.substring(2, versionExpr.length() - 1);
-                final int optionsIndex = exprBody.indexOf('?');
-                final String artifactName;
-                if (optionsIndex > 0) {
-                    artifactName = exprBody.substring(0, optionsIndex);
-                } else {
-                    artifactName = exprBody;
-                }
-                final MavenArtifact artifact = Utils.toArtifactCoords(versionProps, artifactName, false);
-                if (artifact != null) {
-                    versionAttribute.setValue(artifact.getVersion());
-                }
+        if (versionExpr.startsWith("${") && versionExpr.endsWith("}")) {
+            final String exprBody = versionExpr.substring(2, versionExpr.length() - 1);
+            final int optionsIndex = exprBody.indexOf('?');
+            final String artifactName;
+            if (optionsIndex > 0) {
+                artifactName = exprBody.substring(0, optionsIndex);
+            } else {
+                artifactName = exprBody;
+            }
+            final MavenArtifact artifact = Utils.toArtifactCoords(versionProps, artifactName, false);
+            if (artifact != null) {
+                return artifact.getVersion();
             }
         }
+        return null;
     }
 
-    void processArtifacts() throws IOException, MavenUniverseException, ProvisioningException {
-        Elements artifacts = template.getArtifacts();
-        if (artifacts == null) {
-            return;
-        }
-        final int artifactCount = artifacts.size();
-        for (int i = 0; i < artifactCount; i++) {
-            final ModuleArtifact moduleArtifact = new ModuleArtifact(artifacts.get(i));
-            if (moduleArtifact.hasMavenArtifact()) {
-                Path artifactPath = moduleArtifact.getMavenArtifact().getPath();
-                processArtifact(moduleArtifact);
-                plugin.processSchemas(moduleArtifact.getMavenArtifact().getGroupId(), artifactPath);
-            }
+    void processArtifactElement(ModuleTemplate.ArtifactElement element) throws IOException, MavenUniverseException, ProvisioningException {
+        final ModuleArtifact moduleArtifact = new ModuleArtifact(element);
+        if (moduleArtifact.hasMavenArtifact()) {
+            Path artifactPath = moduleArtifact.getMavenArtifact().getPath();
+            processArtifact(moduleArtifact);
+            plugin.processSchemas(moduleArtifact.getMavenArtifact(), artifactPath);
         }
     }
 
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import nu.xom.Attribute;
+import nu.xom.Builder;
+import nu.xom.Document;
+import nu.xom.Element;
+import nu.xom.Elements;
+import nu.xom.ParsingException;
+import nu.xom.Serializer;
+import org.jboss.galleon.ProvisioningDescriptionException;
+import org.jboss.galleon.ProvisioningException;
+import org.jboss.galleon.runtime.PackageRuntime;
+
+/**
+ * A module template, built from a module.xml template file.
+ * The template is loaded as a XOM document that is updated in place and serialized when stored.
+ *
+ * @author jdenise
+ */
+class DomModuleTemplate extends ModuleTemplate {
+
+    private final Element rootElement;
+    private final Document document;
+    private final Path targetPath;
+
+    DomModuleTemplate(PackageRuntime pkg, Path moduleTemplate, Path targetPath) throws IOException, ProvisioningDescriptionException {
+        final Builder builder = new Builder(false);
+        // the encoding is detected by the parser
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(moduleTemplate))) {
+            document = builder.build(in);
+        } catch (ParsingException e) {
+            throw new IOException("Failed to parse document", e);
+        }
+        rootElement = document.getRootElement();
+        this.targetPath = targetPath;
+    }
+
+    private Elements getArtifacts() {
+        Elements artifacts = null;
+        final Element resourcesElement = rootElement.getFirstChildElement(RESOURCES, rootElement.getNamespaceURI());
+        if (resourcesElement != null) {
+            artifacts = resourcesElement.getChildElements(ARTIFACT, rootElement.getNamespaceURI());
+        }
+        return artifacts;
+    }
+
+    @Override
+    boolean isModule() {
+        return isModule(rootElement.getLocalName());
+    }
+
+    @Override
+    String getVersion() {
+        return rootElement.getAttributeValue(VERSION);
+    }
+
+    @Override
+    List<String> getArtifactNames() {
+        final Elements artifacts = getArtifacts();
+        if (artifacts == null) {
+            return Collections.emptyList();
+        }
+        final List<String> names = new ArrayList<>(artifacts.size());
+        for (int i = 0; i < artifacts.size(); i++) {
+            names.add(artifacts.get(i).getAttributeValue(NAME));
+        }
+        return names;
+    }
+
+    @Override
+    void process(Processor processor) throws ProvisioningException, IOException {
+        final Attribute versionAttribute = rootElement.getAttribute(VERSION);
+        if (versionAttribute != null) {
+            final String version = processor.processVersion(versionAttribute.getValue());
+            if (version != null) {
+                versionAttribute.setValue(version);
+            }
+        }
+        final Elements artifacts = getArtifacts();
+        if (artifacts == null) {
+            return;
+        }
+        final int artifactCount = artifacts.size();
+        for (int i = 0; i < artifactCount; i++) {
+            final Element element = artifacts.get(i);
+            final Attribute attribute = element.getAttribute(NAME);
+            final ArtifactElement artifact = new ArtifactElement(attribute.getValue());
+            processor.processArtifact(artifact);
+            if (artifact.isUpdated()) {
+                element.setLocalName(artifact.getLocalName());
+                attribute.setLocalName(artifact.getAttributeName());
+                attribute.setValue(artifact.getAttributeValue());
+            }
+        }
+    }
+
+    @Override
+    void store() throws IOException {
+        // now serialize the result
+        try (OutputStream outputStream = Files.newOutputStream(targetPath)) {
+            new Serializer(outputStream).write(document);
+        } catch (Throwable t) {
+            try {
+                Files.deleteIfExists(targetPath);
+            } catch (Throwable t2) {
+                t2.addSuppressed(t);
+                throw t2;
+            }
+            throw t;
+        }
+    }
+}
@@ -19,7 +19,6 @@ package org.wildfly.galleon.plugin;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.util.Set;
 import org.jboss.galleon.ProvisioningException;
 import org.jboss.galleon.runtime.ProvisioningRuntime;
@@ -43,9 +42,12 @@ import org.wildfly.galleon.plugin.transformer.JakartaTransformer;
 class EE9ArtifactInstaller extends AbstractEE9ArtifactInstaller {
 
     private final Path provisioningMavenRepo;
+    private final MemoizedTasks<String, Path> overriddenTransformations = new MemoizedTasks<>();
 
     EE9ArtifactInstaller(ArtifactResolver resolver,
             Path generatedMavenRepo,
+            boolean linkArtifacts,
+            ProvisioningMetrics metrics,
             Set<String> transformExcluded,
             WfInstallPlugin plugin,
             String jakartaTransformSuffix,
@@ -54,7 +56,7 @@ class EE9ArtifactInstaller extends AbstractEE9ArtifactInstaller {
             boolean jakartaTransformVerbose,
             ProvisioningRuntime runtime,
             Path provisioningMavenRepo) {
-        super(resolver, generatedMavenRepo,
+        super(resolver, generatedMavenRepo, linkArtifacts, metrics,
                 transformExcluded, plugin, jakartaTransformSuffix,
                 jakartaTransformConfigsDir, logHandler, jakartaTransformVerbose, runtime);
         this.provisioningMavenRepo = provisioningMavenRepo;
@@ -78,44 +80,62 @@ class EE9ArtifactInstaller extends AbstractEE9ArtifactInstaller {
     }
 
     Path handleOverriddenTransformation(MavenArtifact artifact) throws IOException, ProvisioningException {
+        final String gav = ArtifactCoords.newGav(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion()).toString();
+        return overriddenTransformations.get(gav, () -> doHandleOverriddenTransformation(artifact));
+    }
+
+    private Path doHandleOverriddenTransformation(MavenArtifact artifact) throws IOException, ProvisioningException {
         //First check if it is already transformed  in the repo and exclude it if present as not transformed.
         boolean isTransformed = isOverriddenTransformed(artifact);
         Path path = artifact.getPath();
         if (!isTransformed && !isExcludedFromTransformation(artifact)) {
             // Transform attempt and install in provisioningMavenRepo.
-            Path pomFile = getPomArtifactPath(artifact, getArtifactResolver());
+            Path pomFile = getPomArtifactPath(artifact);
             Path transformedFile = setupOverriddenArtifact(artifact);
             // The provisioningMavenRepo is used when generating the configuration.
             if (transformedFile == null) {
                 Path notTransformedVersionPath = getLocalRepoPath(artifact, artifact.getVersion(), provisioningMavenRepo);
                 path = notTransformedVersionPath.resolve(artifact.getArtifactFileName());
-                Files.copy(artifact.getPath(), path, StandardCopyOption.REPLACE_EXISTING);
-                Files.copy(pomFile, notTransformedVersionPath.resolve(pomFile.getFileName().toString()), StandardCopyOption.REPLACE_EXISTING);
+                copyShared(artifact.getPath(), path);
+                copyShared(pomFile, notTransformedVersionPath.resolve(pomFile.getFileName().toString()));
             } else {
                 // Copy the transformed one
                 String transformedVersion = getTransformedVersion(artifact.getVersion());
                 Path transformedVersionPath = getLocalRepoPath(artifact, transformedVersion, provisioningMavenRepo);
                 path = transformedVersionPath.resolve(transformedFile.getFileName());
-                Files.copy(transformedFile, path, StandardCopyOption.REPLACE_EXISTING);
-                Files.copy(pomFile, transformedVersionPath.resolve(pomFile.getFileName().toString()), StandardCopyOption.REPLACE_EXISTING);
+                copyShared(transformedFile, path);
+                copyShared(pomFile, transformedVersionPath.resolve(pomFile.getFileName().toString()));
             }
         }
         return path;
     }
 
     @Override
-    String installArtifactFat(MavenArtifact artifact, Path targetDir, Path localCache) throws IOException,
+    String getInstallationKey() {
+        // the installed artifacts are the ones found in the provisioning repository, suffixed or not, which
+        // can change without the artifact coordinates changing
+        return null;
+    }
+
+    @Override
+    boolean isPomRequired(MavenArtifact artifact) throws ProvisioningException {
+        // Overridden artifacts are installed with their pom in the provisioning repository
+        return super.isPomRequired(artifact) || isOverriddenArtifact(artifact);
+    }
+
+    @Override
+    String doInstallArtifactFat(MavenArtifact artifact, Path targetDir, Path localCache) throws IOException,
             MavenUniverseException, ProvisioningException {
         Path path = artifact.getPath();
         if (isOverriddenArtifact(artifact)) {
             path = handleOverriddenTransformation(artifact);
         }
-        Files.copy(path, targetDir.resolve(path.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+        installFile(path, targetDir.resolve(path.getFileName()));
         return path.getFileName().toString();
     }
 
     @Override
-    String installArtifactThin(MavenArtifact artifact) throws IOException,
+    String doInstallArtifactThin(MavenArtifact artifact) throws IOException,
             MavenUniverseException, ProvisioningException {
         String version = artifact.getVersion();
         if (isOverriddenArtifact(artifact)) {
@@ -128,7 +148,7 @@ class EE9ArtifactInstaller extends AbstractEE9ArtifactInstaller {
     }
 
     @Override
-    Path installCopiedArtifact(MavenArtifact artifact) throws IOException, ProvisioningException {
+    Path doInstallCopiedArtifact(MavenArtifact artifact) throws IOException, ProvisioningException {
         Path path = artifact.getPath();
         if (isOverriddenArtifact(artifact)) {
             path = handleOverriddenTransformation(artifact);
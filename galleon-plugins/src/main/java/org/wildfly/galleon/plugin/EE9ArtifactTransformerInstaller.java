@@ -17,9 +17,7 @@
 package org.wildfly.galleon.plugin;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.util.Set;
 import org.jboss.galleon.ProvisioningException;
 import org.jboss.galleon.runtime.ProvisioningRuntime;
@@ -42,6 +40,8 @@ class EE9ArtifactTransformerInstaller extends AbstractEE9ArtifactInstaller {
 
     EE9ArtifactTransformerInstaller(ArtifactResolver resolver,
             Path generatedMavenRepo,
+            boolean linkArtifacts,
+            ProvisioningMetrics metrics,
             Set<String> transformExcluded,
             WfInstallPlugin plugin,
             String jakartaTransformSuffix,
@@ -49,13 +49,13 @@ class EE9ArtifactTransformerInstaller extends AbstractEE9ArtifactInstaller {
             JakartaTransformer.LogHandler logHandler,
             boolean jakartaTransformVerbose,
             ProvisioningRuntime runtime) {
-        super(resolver, generatedMavenRepo,
+        super(resolver, generatedMavenRepo, linkArtifacts, metrics,
                 transformExcluded, plugin, jakartaTransformSuffix,
                 jakartaTransformConfigsDir, logHandler, jakartaTransformVerbose, runtime);
     }
 
     @Override
-    String installArtifactFat(MavenArtifact artifact, Path targetDir, Path localCache) throws IOException,
+    String doInstallArtifactFat(MavenArtifact artifact, Path targetDir, Path localCache) throws IOException,
             MavenUniverseException, ProvisioningException {
         String artifactFileName = artifact.getArtifactFileName();
         Path transformedFile = null;
@@ -69,23 +69,23 @@ class EE9ArtifactTransformerInstaller extends AbstractEE9ArtifactInstaller {
                 Path transformedPath = targetDir.resolve(artifactFileName);
                 transform(artifact, transformedPath);
             } else {
-                Files.copy(transformedFile, targetDir.resolve(artifactFileName), StandardCopyOption.REPLACE_EXISTING);
+                installFile(transformedFile, targetDir.resolve(artifactFileName));
             }
             version = getTransformedVersion(version);
         } else {
-            Files.copy(artifact.getPath(), targetDir.resolve(artifactFileName), StandardCopyOption.REPLACE_EXISTING);
+            installFile(artifact.getPath(), targetDir.resolve(artifactFileName));
         }
         if (localCache != null) {
-            Path pomFile = getPomArtifactPath(artifact, getArtifactResolver());
+            Path pomFile = getPomArtifactPath(artifact);
             Path versionPath = getLocalRepoPath(artifact, version, localCache);
-            Files.copy(pomFile, versionPath.resolve(pomFile.getFileName().toString()), StandardCopyOption.REPLACE_EXISTING);
-            Files.copy(targetDir.resolve(artifactFileName), versionPath.resolve(artifactFileName), StandardCopyOption.REPLACE_EXISTING);
+            copyShared(pomFile, versionPath.resolve(pomFile.getFileName().toString()));
+            copyShared(targetDir.resolve(artifactFileName), versionPath.resolve(artifactFileName));
         }
         return artifactFileName;
     }
 
     @Override
-    String installArtifactThin(MavenArtifact artifact) throws IOException,
+    String doInstallArtifactThin(MavenArtifact artifact) throws IOException,
             MavenUniverseException, ProvisioningException {
         Path transformedFile = null;
         if (isOverriddenArtifact(artifact)) {
@@ -99,22 +99,20 @@ class EE9ArtifactTransformerInstaller extends AbstractEE9ArtifactInstaller {
             if (transformedFile == null) {
                 String name = getTransformedArtifactFileName(artifact.getVersion(), artifact.getPath().getFileName().toString());
                 Path transformedTarget = versionPath.resolve(name);
-                if (!Files.exists(transformedTarget)) {
-                    transform(artifact, transformedTarget);
-                }
+                transformIfAbsent(artifact, transformedTarget);
             } else {
-                Files.copy(transformedFile, versionPath.resolve(transformedFile.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+                copyShared(transformedFile, versionPath.resolve(transformedFile.getFileName()));
             }
         } else {
-            Files.copy(artifact.getPath(), versionPath.resolve(artifact.getArtifactFileName()), StandardCopyOption.REPLACE_EXISTING);
+            copyShared(artifact.getPath(), versionPath.resolve(artifact.getArtifactFileName()));
         }
-        Path pomFile = getPomArtifactPath(artifact, getArtifactResolver());
-        Files.copy(pomFile, versionPath.resolve(pomFile.getFileName().toString()), StandardCopyOption.REPLACE_EXISTING);
+        Path pomFile = getPomArtifactPath(artifact);
+        copyShared(pomFile, versionPath.resolve(pomFile.getFileName().toString()));
         return version;
     }
 
     @Override
-    Path installCopiedArtifact(MavenArtifact artifact) throws IOException, ProvisioningException {
+    Path doInstallCopiedArtifact(MavenArtifact artifact) throws IOException, ProvisioningException {
         Path transformedFile = null;
         if (isOverriddenArtifact(artifact)) {
             transformedFile = setupOverriddenArtifact(artifact);
@@ -125,10 +123,8 @@ class EE9ArtifactTransformerInstaller extends AbstractEE9ArtifactInstaller {
             if (transformedFile == null) {
                 String transformedFileName = getTransformedArtifactFileName(artifact.getVersion(),
                         artifact.getPath().getFileName().toString());
-                path = getRuntime().getTmpPath().resolve(transformedFileName);
-                Files.createDirectories(path);
-                Files.deleteIfExists(path);
-                transform(artifact, path);
+                path = getRuntime().getTmpPath(transformedFileName);
+                transformToTmp(artifact, transformedFileName);
             } else {
                 path = transformedFile;
             }
@@ -17,9 +17,10 @@
 package org.wildfly.galleon.plugin;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import org.jboss.galleon.ProvisioningException;
 import org.jboss.galleon.universe.maven.MavenUniverseException;
@@ -35,6 +36,7 @@ import org.jboss.galleon.universe.maven.MavenUniverseException;
 class FatModuleTemplateProcessor extends AbstractModuleTemplateProcessor {
 
     private final Path localCache;
+    private final List<String> installedFiles = new ArrayList<>();
 
     public FatModuleTemplateProcessor(WfInstallPlugin plugin, AbstractArtifactInstaller installer,
             Path targetPath, ModuleTemplate template,
@@ -55,11 +57,19 @@ class FatModuleTemplateProcessor extends AbstractModuleTemplateProcessor {
             final File target = new File(getTargetDir().toFile(),
                     new StringBuilder().append(artifactFileName.substring(0, lastDot)).append("-jandex")
                             .append(artifactFileName.substring(lastDot)).toString());
-            JandexIndexer.createIndex(artifactPath.toFile(), new FileOutputStream(target), getLog());
+            createJandexIndex(artifactPath, target.toPath());
             finalFileName = target.getName();
         } else {
             finalFileName = getInstaller().installArtifactFat(artifact.getMavenArtifact(), getTargetDir(), localCache);
         }
         artifact.updateFatArtifact(finalFileName);
+        installedFiles.add(finalFileName);
+    }
+
+    /**
+     * @return the names of the files installed in the module directory
+     */
+    List<String> getInstalledFiles() {
+        return installedFiles;
     }
 }
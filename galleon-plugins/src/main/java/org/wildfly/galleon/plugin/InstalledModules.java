@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The JBoss modules processed by a provisioning, persisted in the .galleon directory of the installation.
+ * For each module.xml (identified by its path relative to the installation) it records the key of the
+ * module (see the module cache) and the files the processing produced in the module directory.
+ *
+ * When the installation is updated, a module whose key did not change and whose files were not modified
+ * by the user can be copied from the existing installation instead of being processed again.
+ */
+class InstalledModules {
+
+    private static final String FILE_NAME = "wildfly-modules.properties";
+    private static final String GALLEON_DIR = ".galleon";
+    private static final String FILES_SUFFIX = ".files";
+
+    private static class Module {
+        final String key;
+        final List<String> files;
+
+        Module(String key, List<String> files) {
+            this.key = key;
+            this.files = files;
+        }
+    }
+
+    /**
+     * Loads the modules recorded in an existing installation.
+     *
+     * @param home  installation directory
+     * @param userModifiedPaths  the paths, relative to the installation, modified since the installation was provisioned
+     * @return the recorded modules, empty if the installation was not provisioned with the modules recorded
+     */
+    static InstalledModules load(Path home, Set<String> userModifiedPaths) throws IOException {
+        final InstalledModules installed = new InstalledModules(home, userModifiedPaths);
+        final Path file = home.resolve(GALLEON_DIR).resolve(FILE_NAME);
+        if (!Files.exists(file)) {
+            return installed;
+        }
+        final Properties props = new Properties();
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            props.load(reader);
+        }
+        for (String name : props.stringPropertyNames()) {
+            if (name.endsWith(FILES_SUFFIX)) {
+                continue;
+            }
+            final String files = props.getProperty(name + FILES_SUFFIX, "");
+            installed.modules.put(name, new Module(props.getProperty(name),
+                    files.isEmpty() ? Collections.emptyList() : Arrays.asList(files.split(","))));
+        }
+        return installed;
+    }
+
+    private final Path home;
+    private final Set<String> userModifiedPaths;
+    private final Map<String, Module> modules = new ConcurrentHashMap<>();
+
+    InstalledModules() {
+        this(null, Collections.emptySet());
+    }
+
+    private InstalledModules(Path home, Set<String> userModifiedPaths) {
+        this.home = home;
+        this.userModifiedPaths = userModifiedPaths;
+    }
+
+    /**
+     * Returns the files of a module that can be reused from the installation.
+     *
+     * @param modulePath  path of the module.xml relative to the installation, / separated
+     * @param key  the key of the module to install
+     * @return the names of the files of the module or null if the module can't be reused
+     */
+    List<String> getReusableFiles(String modulePath, String key) {
+        final Module module = modules.get(modulePath);
+        if (module == null || !module.key.equals(key)) {
+            return null;
+        }
+        final String moduleDir = modulePath.substring(0, modulePath.lastIndexOf('/') + 1);
+        for (String file : module.files) {
+            if (userModifiedPaths.contains(moduleDir + file) || !Files.exists(home.resolve(moduleDir + file))) {
+                return null;
+            }
+        }
+        return module.files;
+    }
+
+    Path getHome() {
+        return home;
+    }
+
+    void add(String modulePath, String key, Collection<String> files) {
+        modules.put(modulePath, new Module(key, new ArrayList<>(files)));
+    }
+
+    /**
+     * Writes the recorded modules to the .galleon directory of an installation.
+     *
+     * @param installationDir  installation directory
+     */
+    void store(Path installationDir) throws IOException {
+        final Properties props = new Properties();
+        for (Map.Entry<String, Module> entry : modules.entrySet()) {
+            props.setProperty(entry.getKey(), entry.getValue().key);
+            props.setProperty(entry.getKey() + FILES_SUFFIX, String.join(",", entry.getValue().files));
+        }
+        final Path dir = installationDir.resolve(GALLEON_DIR);
+        Files.createDirectories(dir);
+        try (BufferedWriter writer = Files.newBufferedWriter(dir.resolve(FILE_NAME))) {
+            props.store(writer, null);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.jboss.galleon.MessageWriter;
+import org.jboss.galleon.ProvisioningException;
+import org.jboss.galleon.util.IoUtils;
+
+/**
+ * A persistent cache of the Jandex index jars generated for the artifacts of fat servers, shared by
+ * provisioning runs and by provisioning processes running on the same machine.
+ *
+ * The key of an entry is the SHA-256 of the indexed artifact combined with the Jandex version, a transformed
+ * artifact has its own entry. An entry is a directory named after the key, it contains the index jar and
+ * its SHA-256 checksum. Entries are written to a temporary directory and moved in place, the checksum is
+ * verified when an entry is restored. An index being cheaper to create than an artifact to transform,
+ * entries are not locked: processes missing the same entry both create it, the first one stored is kept.
+ * The least recently restored entries are evicted when the cache grows beyond its maximum size.
+ *
+ * The cache is an optimization, failing to read or write it never fails the provisioning.
+ */
+class JandexCache {
+
+    /**
+     * Changes whenever the content or the layout of the entries changes.
+     */
+    static final String FORMAT_VERSION = "1";
+
+    interface Indexing {
+        void index(Path target) throws IOException, ProvisioningException;
+    }
+
+    private static final String MANIFEST = "index.properties";
+    private static final String INDEX = "index.jar";
+    private static final String SHA256 = "sha256";
+    private static final String TMP_PREFIX = ".tmp-";
+
+    private final Path dir;
+    private final long maxSize;
+    private final MessageWriter log;
+    private final String jandexHash;
+
+    JandexCache(Path dir, long maxSize, MessageWriter log) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+        this.log = log;
+        this.jandexHash = jandexHash();
+    }
+
+    Path getDir() {
+        return dir;
+    }
+
+    /**
+     * Restores the index of src to target from the cache or, if it is not cached, creates the index and
+     * stores it.
+     *
+     * @param src  the indexed artifact
+     * @param target  the index jar
+     * @param indexing  writes the index of src to target
+     */
+    void index(Path src, Path target, Indexing indexing) throws IOException, ProvisioningException {
+        final Path entry;
+        try {
+            entry = dir.resolve(key(src));
+        } catch (IOException e) {
+            log.verbose("Failed to compute the Jandex cache key of %s: %s", src, e.getLocalizedMessage());
+            indexing.index(target);
+            return;
+        }
+        if (restore(entry, target)) {
+            return;
+        }
+        indexing.index(target);
+        store(entry, target);
+    }
+
+    private boolean restore(Path entry, Path target) {
+        final Path manifestFile = entry.resolve(MANIFEST);
+        if (!Files.exists(manifestFile)) {
+            return false;
+        }
+        try {
+            final Properties manifest = new Properties();
+            try (BufferedReader reader = Files.newBufferedReader(manifestFile)) {
+                manifest.load(reader);
+            }
+            if (!Digests.copy(entry.resolve(INDEX), target).equals(manifest.getProperty(SHA256))) {
+                log.verbose("Discarding corrupted Jandex cache entry %s", entry);
+                Files.deleteIfExists(target);
+                IoUtils.recursiveDelete(entry);
+                return false;
+            }
+            // the manifest timestamp tracks the last use of the entry
+            Files.setLastModifiedTime(manifestFile, FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        } catch (IOException e) {
+            log.verbose("Failed to restore Jandex cache entry %s: %s", entry, e.getLocalizedMessage());
+            try {
+                Files.deleteIfExists(target);
+            } catch (IOException ex) {
+                // overwritten by the indexing
+            }
+            return false;
+        }
+    }
+
+    private void store(Path entry, Path index) {
+        Path tmp = null;
+        try {
+            if (Files.exists(entry)) {
+                // a corrupted entry, not restored
+                IoUtils.recursiveDelete(entry);
+            }
+            Files.createDirectories(dir);
+            tmp = Files.createTempDirectory(dir, TMP_PREFIX);
+            final Properties manifest = new Properties();
+            manifest.setProperty(SHA256, Digests.copy(index, tmp.resolve(INDEX)));
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp.resolve(MANIFEST))) {
+                manifest.store(writer, null);
+            }
+            if (!Files.exists(entry)) {
+                Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE);
+                tmp = null;
+            }
+        } catch (IOException e) {
+            // stored concurrently by another provisioning
+            if (!Files.exists(entry.resolve(MANIFEST))) {
+                log.verbose("Failed to store Jandex cache entry %s: %s", entry, e.getLocalizedMessage());
+            }
+        } finally {
+            if (tmp != null) {
+                IoUtils.recursiveDelete(tmp);
+            }
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the size of the cache does not exceed its maximum size.
+     */
+    void evict() {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        final List<Path> entries = new ArrayList<>();
+        final Map<Path, FileTime> lastUsed = new HashMap<>();
+        final Map<Path, Long> sizes = new HashMap<>();
+        long totalSize = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path entry : stream) {
+                final Path manifestFile = entry.resolve(MANIFEST);
+                if (entry.getFileName().toString().startsWith(TMP_PREFIX) || !Files.exists(manifestFile)) {
+                    continue;
+                }
+                final long size = Files.size(manifestFile) + Files.size(entry.resolve(INDEX));
+                entries.add(entry);
+                lastUsed.put(entry, Files.getLastModifiedTime(manifestFile));
+                sizes.put(entry, size);
+                totalSize += size;
+            }
+        } catch (IOException e) {
+            log.verbose("Failed to evict Jandex cache entries: %s", e.getLocalizedMessage());
+            return;
+        }
+        if (totalSize <= maxSize) {
+            return;
+        }
+        Collections.sort(entries, (e1, e2) -> lastUsed.get(e1).compareTo(lastUsed.get(e2)));
+        for (Path entry : entries) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+            // an entry restored concurrently fails its checksum and is indexed again
+            log.verbose("Evicting Jandex cache entry %s", entry);
+            IoUtils.recursiveDelete(entry);
+            totalSize -= sizes.get(entry);
+        }
+    }
+
+    private String key(Path src) throws IOException {
+        final MessageDigest digest = Digests.newSha256();
+        Digests.update(digest, jandexHash);
+        Digests.update(digest, Digests.sha256(src));
+        return Digests.toHex(digest.digest());
+    }
+
+    private static String jandexHash() {
+        final MessageDigest digest = Digests.newSha256();
+        Digests.update(digest, FORMAT_VERSION);
+        Digests.update(digest, JandexIndexer.getImplementationHash());
+        return Digests.toHex(digest.digest());
+    }
+}
@@ -17,59 +17,120 @@
 
 package org.wildfly.galleon.plugin;
 
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import org.jboss.galleon.MessageWriter;
+import org.jboss.galleon.ProvisioningException;
+import org.jboss.jandex.AnnotationInstance;
+import org.jboss.jandex.ClassInfo;
+import org.jboss.jandex.DotName;
 import org.jboss.jandex.Index;
 import org.jboss.jandex.IndexWriter;
 import org.jboss.jandex.Indexer;
+import org.wildfly.galleon.plugin.transformer.JakartaTransformer;
 
 /**
+ * Creates the Jandex index of a jar. When an executor is provided, the classes are partitioned in contiguous
+ * ranges indexed concurrently, each range by its own {@link Indexer}. The indexed classes are then merged in
+ * the order of the jar entries, the same way an {@link Indexer} records them, so that the resulting index
+ * is the one a single {@link Indexer} would create.
+ *
  * @author Stuart Douglas
  */
 class JandexIndexer {
 
-    public static void createIndex(File jarFile, OutputStream target, MessageWriter log) throws IOException {
-        ZipOutputStream zo;
+    // below this number of classes, the jar is indexed by the calling thread
+    private static final int MIN_CLASSES_PER_TASK = 256;
 
-        Indexer indexer = new Indexer();
+    private static volatile String implementationHash;
+
+    /**
+     * Identifies the Jandex implementation. The version is not always in the manifest, the jar is identified
+     * by its location and timestamp too.
+     */
+    static String getImplementationHash() {
+        String hash = implementationHash;
+        if (hash == null) {
+            final MessageDigest digest = Digests.newSha256();
+            Digests.update(digest, Indexer.class.getPackage() == null ? null : Indexer.class.getPackage().getImplementationVersion());
+            final CodeSource jandex = Indexer.class.getProtectionDomain().getCodeSource();
+            if (jandex != null && jandex.getLocation() != null) {
+                Digests.update(digest, jandex.getLocation().toString());
+                try {
+                    final Path location = Paths.get(jandex.getLocation().toURI());
+                    Digests.update(digest, String.valueOf(Files.getLastModifiedTime(location).toMillis()));
+                } catch (Exception e) {
+                    // identified by its location only
+                }
+            }
+            hash = Digests.toHex(digest.digest());
+            implementationHash = hash;
+        }
+        return hash;
+    }
+
+    /**
+     * @param executor  executor to index the classes concurrently, or null to index them in the calling thread
+     */
+    public static void createIndex(File jarFile, OutputStream target, MessageWriter log, ProvisioningExecutor executor) throws IOException, ProvisioningException {
+        ZipOutputStream zo;
 
         JarFile jar = new JarFile(jarFile);
 
         zo = new ZipOutputStream(target);
         try {
+            final List<JarEntry> classes = new ArrayList<>();
             Enumeration<JarEntry> entries = jar.entries();
             while (entries.hasMoreElements()) {
                 JarEntry entry = entries.nextElement();
 
                 if (entry.getName().endsWith(".class")) {
-                    try {
-                        final InputStream stream = jar.getInputStream(entry);
-                        try {
-                            indexer.index(stream);
-                        } finally {
-                            safeClose(stream, log);
-                        }
-                    } catch (Exception e) {
-                        String message = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
-                        log.error("Could not index " + entry.getName() + ": " + message, e);
-                    }
+                    classes.add(entry);
+                }
+            }
+
+            final Index index;
+            final int tasksCount = executor == null ? 1 : Math.min(executor.getParallelism(), classes.size() / MIN_CLASSES_PER_TASK);
+            if (tasksCount < 2) {
+                Indexer indexer = new Indexer();
+                index(jar, classes, indexer, log);
+                index = indexer.complete();
+            } else {
+                final List<ProvisioningExecutor.Task<List<ClassInfo>>> tasks = new ArrayList<>(tasksCount);
+                for (int i = 0; i < tasksCount; i++) {
+                    final List<JarEntry> range = classes.subList(i * classes.size() / tasksCount, (i + 1) * classes.size() / tasksCount);
+                    tasks.add(() -> {
+                        final Indexer indexer = new Indexer();
+                        final List<ClassInfo> indexed = index(jar, range, indexer, log);
+                        indexer.complete();
+                        return indexed;
+                    });
                 }
+                index = merge(executor.invokeAll(tasks));
             }
 
             zo.putNextEntry(new ZipEntry("META-INF/jandex.idx"));
 
             IndexWriter writer = new IndexWriter(zo);
-            Index index = indexer.complete();
             writer.write(index);
         } finally {
             safeClose(zo, log);
@@ -78,6 +139,93 @@ class JandexIndexer {
         }
     }
 
+    /**
+     * Writes the index jar of an index created by a {@link Collector}.
+     */
+    public static void writeIndex(Index index, OutputStream target, MessageWriter log) throws IOException {
+        final ZipOutputStream zo = new ZipOutputStream(target);
+        try {
+            zo.putNextEntry(new ZipEntry("META-INF/jandex.idx"));
+            new IndexWriter(zo).write(index);
+        } finally {
+            safeClose(zo, log);
+            safeClose(target, log);
+        }
+    }
+
+    /**
+     * Indexes the classes of a jar while it is transformed, the entries being notified in the order of the
+     * transformed jar. The index is the one {@link #createIndex} creates from the transformed jar.
+     */
+    static class Collector implements JakartaTransformer.EntryListener {
+
+        private final Indexer indexer = new Indexer();
+        private final MessageWriter log;
+
+        Collector(MessageWriter log) {
+            this.log = log;
+        }
+
+        @Override
+        public void entry(String name, byte[] data) {
+            if (!name.endsWith(".class")) {
+                return;
+            }
+            try {
+                indexer.index(new ByteArrayInputStream(data));
+            } catch (Exception e) {
+                String message = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+                log.error("Could not index " + name + ": " + message, e);
+            }
+        }
+
+        Index complete() {
+            return indexer.complete();
+        }
+    }
+
+    /**
+     * @return the indexed classes, in the order of the entries
+     */
+    private static List<ClassInfo> index(JarFile jar, List<JarEntry> classes, Indexer indexer, MessageWriter log) {
+        final List<ClassInfo> indexed = new ArrayList<>(classes.size());
+        for (JarEntry entry : classes) {
+            try {
+                final InputStream stream = jar.getInputStream(entry);
+                try {
+                    indexed.add(indexer.index(stream));
+                } finally {
+                    safeClose(stream, log);
+                }
+            } catch (Exception e) {
+                String message = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+                log.error("Could not index " + entry.getName() + ": " + message, e);
+            }
+        }
+        return indexed;
+    }
+
+    private static Index merge(List<List<ClassInfo>> ranges) {
+        final Map<DotName, List<AnnotationInstance>> annotations = new HashMap<>();
+        final Map<DotName, List<ClassInfo>> subclasses = new HashMap<>();
+        final Map<DotName, List<ClassInfo>> implementors = new HashMap<>();
+        final Map<DotName, ClassInfo> classes = new HashMap<>();
+        for (List<ClassInfo> range : ranges) {
+            for (ClassInfo clazz : range) {
+                classes.put(clazz.name(), clazz);
+                if (clazz.superName() != null) {
+                    subclasses.computeIfAbsent(clazz.superName(), k -> new ArrayList<>()).add(clazz);
+                }
+                for (DotName interfaceName : clazz.interfaceNames()) {
+                    implementors.computeIfAbsent(interfaceName, k -> new ArrayList<>()).add(clazz);
+                }
+                for (Map.Entry<DotName, List<AnnotationInstance>> entry : clazz.annotations().entrySet()) {
+                    annotations.computeIfAbsent(entry.getKey(), k -> new ArrayList<>()).addAll(entry.getValue());
+                }
+            }
+        }
+        return Index.create(annotations, subclasses, implementors, classes);
+    }
 
     private static void safeClose(Closeable closeable, MessageWriter log) {
         if (closeable != null) {
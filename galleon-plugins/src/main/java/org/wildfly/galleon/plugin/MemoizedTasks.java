@@ -0,0 +1,46 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.FutureTask;
+
+import org.jboss.galleon.ProvisioningException;
+
+/**
+ * Executes a task at most once per key. The first caller for a key executes the task in its own thread,
+ * concurrent and subsequent callers for the same key wait for and share its outcome (result or failure).
+ */
+class MemoizedTasks<K, V> {
+
+    private final ConcurrentMap<K, FutureTask<V>> tasks = new ConcurrentHashMap<>();
+
+    V get(K key, ProvisioningExecutor.Task<V> task) throws ProvisioningException, IOException {
+        FutureTask<V> future = tasks.get(key);
+        if (future == null) {
+            final FutureTask<V> newFuture = new FutureTask<>(task::execute);
+            future = tasks.putIfAbsent(key, newFuture);
+            if (future == null) {
+                future = newFuture;
+                newFuture.run();
+            }
+        }
+        return ProvisioningExecutor.join(future);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.jboss.galleon.MessageWriter;
+import org.jboss.galleon.util.IoUtils;
+
+/**
+ * A persistent cache of processed JBoss modules, shared by provisioning runs.
+ *
+ * An entry is a directory named after the key of the module. It contains the module.xml produced by
+ * the template processing, the artifacts installed in the module directory and a manifest listing
+ * these files with their SHA-256 checksum. Entries are written to a temporary directory and moved
+ * in place, the checksums are verified when an entry is restored. The least recently restored
+ * entries are evicted when the cache grows beyond its maximum size.
+ *
+ * The cache is an optimization, failing to read or write it never fails the provisioning.
+ */
+class ModuleCache {
+
+    /**
+     * Changes whenever the content or the layout of the entries changes.
+     */
+    static final String FORMAT_VERSION = "1";
+
+    private static final String MANIFEST = "module-cache.properties";
+    private static final String TMP_PREFIX = ".tmp-";
+
+    private final Path dir;
+    private final long maxSize;
+    private final MessageWriter log;
+
+    ModuleCache(Path dir, long maxSize, MessageWriter log) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+        this.log = log;
+    }
+
+    Path getDir() {
+        return dir;
+    }
+
+    boolean contains(String key) {
+        return Files.exists(dir.resolve(key).resolve(MANIFEST));
+    }
+
+    /**
+     * Copies the content of a cached module to the module directory. The files are copied to a temporary
+     * directory and moved to the module directory once their checksums are verified, a corrupted entry
+     * leaves the module directory unchanged.
+     *
+     * @param key  key of the module
+     * @param moduleDir  target module directory
+     * @return the names of the restored files or null if the module is not cached or if the cached content is corrupted
+     */
+    List<String> restore(String key, Path moduleDir) {
+        final Path entry = dir.resolve(key);
+        final Path manifestFile = entry.resolve(MANIFEST);
+        if (!Files.exists(manifestFile)) {
+            return null;
+        }
+        Path tmp = null;
+        try {
+            final Properties manifest = new Properties();
+            try (BufferedReader reader = Files.newBufferedReader(manifestFile)) {
+                manifest.load(reader);
+            }
+            Files.createDirectories(moduleDir);
+            tmp = Files.createTempDirectory(moduleDir.getParent(), TMP_PREFIX);
+            for (String name : manifest.stringPropertyNames()) {
+                if (!manifest.getProperty(name).equals(Digests.copy(entry.resolve(name), tmp.resolve(name)))) {
+                    log.verbose("Discarding corrupted module cache entry %s", entry);
+                    IoUtils.recursiveDelete(entry);
+                    return null;
+                }
+            }
+            for (String name : manifest.stringPropertyNames()) {
+                Files.move(tmp.resolve(name), moduleDir.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+            }
+            // the manifest timestamp tracks the last use of the entry
+            Files.setLastModifiedTime(manifestFile, FileTime.fromMillis(System.currentTimeMillis()));
+            return new ArrayList<>(manifest.stringPropertyNames());
+        } catch (IOException e) {
+            // the entry may have been evicted concurrently
+            log.verbose("Failed to restore module cache entry %s: %s", entry, e.getLocalizedMessage());
+            return null;
+        } finally {
+            if (tmp != null) {
+                IoUtils.recursiveDelete(tmp);
+            }
+        }
+    }
+
+    /**
+     * Stores the content of a processed module.
+     *
+     * @param key  key of the module
+     * @param moduleDir  the module directory
+     * @param fileNames  names of the files produced by the processing of the module
+     */
+    void store(String key, Path moduleDir, Collection<String> fileNames) {
+        final Path entry = dir.resolve(key);
+        if (Files.exists(entry)) {
+            return;
+        }
+        Path tmp = null;
+        try {
+            Files.createDirectories(dir);
+            tmp = Files.createTempDirectory(dir, TMP_PREFIX);
+            final Properties manifest = new Properties();
+            for (String name : fileNames) {
+                manifest.setProperty(name, Digests.copy(moduleDir.resolve(name), tmp.resolve(name)));
+            }
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp.resolve(MANIFEST))) {
+                manifest.store(writer, null);
+            }
+            Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+        } catch (IOException e) {
+            // most likely stored concurrently by another provisioning
+            log.verbose("Failed to store module cache entry %s: %s", entry, e.getLocalizedMessage());
+        } finally {
+            if (tmp != null) {
+                IoUtils.recursiveDelete(tmp);
+            }
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the size of the cache does not exceed its maximum size.
+     */
+    void evict() {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        final List<Path> entries = new ArrayList<>();
+        final Map<Path, FileTime> lastUsed = new HashMap<>();
+        final Map<Path, Long> sizes = new HashMap<>();
+        long totalSize = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path entry : stream) {
+                final Path manifestFile = entry.resolve(MANIFEST);
+                if (entry.getFileName().toString().startsWith(TMP_PREFIX) || !Files.exists(manifestFile)) {
+                    continue;
+                }
+                long size = 0;
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(entry)) {
+                    for (Path file : files) {
+                        size += Files.size(file);
+                    }
+                }
+                entries.add(entry);
+                lastUsed.put(entry, Files.getLastModifiedTime(manifestFile));
+                sizes.put(entry, size);
+                totalSize += size;
+            }
+        } catch (IOException e) {
+            log.verbose("Failed to evict module cache entries: %s", e.getLocalizedMessage());
+            return;
+        }
+        if (totalSize <= maxSize) {
+            return;
+        }
+        Collections.sort(entries, (e1, e2) -> lastUsed.get(e1).compareTo(lastUsed.get(e2)));
+        for (Path entry : entries) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+            log.verbose("Evicting module cache entry %s", entry);
+            IoUtils.recursiveDelete(entry);
+            totalSize -= sizes.get(entry);
+        }
+    }
+}
@@ -16,73 +16,137 @@
  */
 package org.wildfly.galleon.plugin;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import nu.xom.Builder;
-import nu.xom.Document;
-import nu.xom.Element;
-import nu.xom.Elements;
-import nu.xom.ParsingException;
-import nu.xom.Serializer;
+import java.util.List;
 import org.jboss.galleon.ProvisioningDescriptionException;
+import org.jboss.galleon.ProvisioningException;
 import org.jboss.galleon.runtime.PackageRuntime;
 
 /**
  * A module template, built from a module.xml template file.
  *
- * @author jdenise
+ * The processing of a template updates the version attribute of the module and the artifact elements
+ * of its resources, then the result is stored to the target path.
  */
-class ModuleTemplate {
-
-    private final Element rootElement;
-    private final Document document;
-    private final Path targetPath;
-
-    ModuleTemplate(PackageRuntime pkg, Path moduleTemplate, Path targetPath) throws IOException, ProvisioningDescriptionException {
-        final Builder builder = new Builder(false);
-        try (BufferedReader reader = Files.newBufferedReader(moduleTemplate, StandardCharsets.UTF_8)) {
-            document = builder.build(reader);
-        } catch (ParsingException e) {
-            throw new IOException("Failed to parse document", e);
-        }
-        rootElement = document.getRootElement();
-        this.targetPath = targetPath;
-    }
+abstract class ModuleTemplate {
+
+    static final String ARTIFACT = "artifact";
+    static final String NAME = "name";
+    static final String PATH = "path";
+    static final String RESOURCE_ROOT = "resource-root";
+    static final String RESOURCES = "resources";
+    static final String VERSION = "version";
+
+    /**
+     * Callback of the template processing.
+     */
+    interface Processor {
 
-    Element getRootElement() {
-        return rootElement;
+        /**
+         * @param version  the value of the version attribute of the module
+         * @return the new value of the attribute or null to keep the current one
+         */
+        String processVersion(String version) throws ProvisioningException;
+
+        /**
+         * Invoked for every artifact element of the module resources, in the document order.
+         *
+         * @param artifact  the artifact element
+         */
+        void processArtifact(ArtifactElement artifact) throws ProvisioningException, IOException;
     }
 
-    Elements getArtifacts() {
-        Elements artifacts = null;
-        final Element resourcesElement = rootElement.getFirstChildElement("resources", rootElement.getNamespaceURI());
-        if (resourcesElement != null) {
-            artifacts = resourcesElement.getChildElements("artifact", rootElement.getNamespaceURI());
+    /**
+     * An artifact element of the module resources.
+     */
+    static class ArtifactElement {
+
+        private final String name;
+        private String localName = ARTIFACT;
+        private String attributeName = NAME;
+        private String attributeValue;
+
+        ArtifactElement(String name) {
+            this.name = name;
+            this.attributeValue = name;
+        }
+
+        /**
+         * @return the value of the name attribute in the template
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * Replaces the artifact element with a resource-root element.
+         *
+         * @param path  the path of the resource root
+         */
+        void setResourceRoot(String path) {
+            localName = RESOURCE_ROOT;
+            attributeName = PATH;
+            attributeValue = path;
+        }
+
+        /**
+         * Sets the artifact coordinates.
+         *
+         * @param coords  artifact coordinates
+         */
+        void setCoords(String coords) {
+            attributeValue = coords;
+        }
+
+        boolean isUpdated() {
+            return !ARTIFACT.equals(localName) || !NAME.equals(attributeName) || !attributeValue.equals(name);
+        }
+
+        String getLocalName() {
+            return localName;
+        }
+
+        String getAttributeName() {
+            return attributeName;
+        }
+
+        String getAttributeValue() {
+            return attributeValue;
         }
-        return artifacts;
     }
 
-    boolean isModule() {
-        return rootElement.getLocalName().equals("module")
-                || rootElement.getLocalName().equals("module-alias");
+    /**
+     * Loads a template. The template is processed in a single streaming pass unless it makes use
+     * of XML features the streaming processing does not handle, in which case it is loaded as a document.
+     *
+     * @param pkg  the package of the template
+     * @param moduleTemplate  the template file
+     * @param targetPath  the module.xml to produce
+     * @return the template
+     */
+    static ModuleTemplate load(PackageRuntime pkg, Path moduleTemplate, Path targetPath) throws IOException, ProvisioningDescriptionException {
+        final ModuleTemplate template = StreamingModuleTemplate.scan(moduleTemplate, targetPath);
+        return template == null ? new DomModuleTemplate(pkg, moduleTemplate, targetPath) : template;
     }
 
-    void store() throws IOException {
-        // now serialize the result
-        try (OutputStream outputStream = Files.newOutputStream(targetPath)) {
-            new Serializer(outputStream).write(document);
-        } catch (Throwable t) {
-            try {
-                Files.deleteIfExists(targetPath);
-            } catch (Throwable t2) {
-                t2.addSuppressed(t);
-                throw t2;
-            }
-            throw t;
-        }
+    static boolean isModule(String rootName) {
+        return rootName.equals("module") || rootName.equals("module-alias");
     }
+
+    abstract boolean isModule();
+
+    /**
+     * @return the value of the version attribute of the module or null if it is not set
+     */
+    abstract String getVersion();
+
+    /**
+     * @return the values of the name attribute of the artifact elements of the module resources
+     */
+    abstract List<String> getArtifactNames();
+
+    abstract void process(Processor processor) throws ProvisioningException, IOException;
+
+    abstract void store() throws IOException;
 }
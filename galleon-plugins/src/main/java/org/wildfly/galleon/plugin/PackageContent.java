@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.galleon.ProvisioningException;
+import org.jboss.galleon.runtime.PackageRuntime;
+import org.jboss.galleon.util.CollectionUtils;
+
+/**
+ * The WildFly specific content of a package: the JBoss Modules content found in pm/wildfly/module
+ * and the tasks loaded from pm/wildfly/tasks.xml.
+ * Scanning a package has no side effect on the staged installation, so packages can be scanned concurrently.
+ */
+class PackageContent {
+
+    static PackageContent scan(PackageRuntime pkg) throws ProvisioningException {
+        final PackageContent content = new PackageContent(pkg);
+        final Path pmWfDir = pkg.getResource(WfConstants.PM, WfConstants.WILDFLY);
+        if (!Files.exists(pmWfDir)) {
+            return content;
+        }
+        content.wildflyContent = true;
+        final Path moduleDir = pmWfDir.resolve(WfConstants.MODULE);
+        if (Files.exists(moduleDir)) {
+            content.scanModules(moduleDir);
+        }
+        final Path tasksXml = pmWfDir.resolve(WfConstants.TASKS_XML);
+        if (Files.exists(tasksXml)) {
+            content.tasks = WildFlyPackageTasks.load(tasksXml);
+        }
+        return content;
+    }
+
+    private final PackageRuntime pkg;
+    private boolean wildflyContent;
+    private Path moduleDir;
+    private List<Path> moduleDirs = Collections.emptyList();
+    private List<Path> moduleFiles = Collections.emptyList();
+    private List<Path> moduleTemplates = Collections.emptyList();
+    private WildFlyPackageTasks tasks;
+
+    private PackageContent(PackageRuntime pkg) {
+        this.pkg = pkg;
+    }
+
+    private void scanModules(Path moduleDir) throws ProvisioningException {
+        this.moduleDir = moduleDir;
+        try {
+            Files.walkFileTree(moduleDir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    moduleDirs = CollectionUtils.add(moduleDirs, moduleDir.relativize(dir));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (file.getFileName().toString().equals(WfConstants.MODULE_XML)) {
+                        moduleTemplates = CollectionUtils.add(moduleTemplates, moduleDir.relativize(file));
+                    } else {
+                        moduleFiles = CollectionUtils.add(moduleFiles, moduleDir.relativize(file));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new ProvisioningException("Failed to process modules from package " + pkg.getName() + " from feature-pack " + pkg.getFeaturePackRuntime().getFPID(), e);
+        }
+    }
+
+    PackageRuntime getPackage() {
+        return pkg;
+    }
+
+    /**
+     * @return true if the package contains a pm/wildfly directory
+     */
+    boolean hasWildFlyContent() {
+        return wildflyContent;
+    }
+
+    boolean hasModules() {
+        return moduleDir != null;
+    }
+
+    Path getModuleDir() {
+        return moduleDir;
+    }
+
+    /**
+     * @return the directories of the module content, relative to the module dir, in the walk order
+     */
+    List<Path> getModuleDirs() {
+        return moduleDirs;
+    }
+
+    /**
+     * @return the module files that are not module.xml templates, relative to the module dir, in the walk order
+     */
+    List<Path> getModuleFiles() {
+        return moduleFiles;
+    }
+
+    /**
+     * @return the module.xml templates, relative to the module dir, in the walk order
+     */
+    List<Path> getModuleTemplates() {
+        return moduleTemplates;
+    }
+
+    /**
+     * A package that comes with tasks.xml can depend on the staged content produced by the packages
+     * processed before it, such packages have to be processed sequentially.
+     *
+     * @return true if the package comes with tasks.xml
+     */
+    boolean hasTasks() {
+        return tasks != null;
+    }
+
+    WildFlyPackageTasks getTasks() {
+        return tasks;
+    }
+}
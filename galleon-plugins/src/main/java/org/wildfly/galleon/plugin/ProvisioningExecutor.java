@@ -0,0 +1,180 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.galleon.ProvisioningException;
+
+/**
+ * Executes provisioning tasks, either in the calling thread or on a bounded thread pool.
+ * Results are always returned in the order the tasks were submitted, so callers
+ * can merge them deterministically regardless of the parallelism.
+ */
+class ProvisioningExecutor implements AutoCloseable {
+
+    interface Task<T> {
+        T execute() throws ProvisioningException, IOException;
+    }
+
+    private final int parallelism;
+    private ExecutorService executor;
+
+    ProvisioningExecutor(int parallelism) {
+        this.parallelism = parallelism < 1 ? 1 : parallelism;
+    }
+
+    int getParallelism() {
+        return parallelism;
+    }
+
+    boolean isParallel() {
+        return parallelism > 1;
+    }
+
+    /**
+     * Executes all the tasks and waits for their completion.
+     * If a task fails, the tasks that have not started yet are skipped, the ones already running are
+     * awaited and the failure is rethrown, no task is left running once this method returns.
+     *
+     * @param tasks  tasks to execute
+     * @return  task results in the order of the tasks
+     */
+    <T> List<T> invokeAll(List<? extends Task<T>> tasks) throws ProvisioningException, IOException {
+        final List<T> results = new ArrayList<>(tasks.size());
+        if (!isParallel() || tasks.size() < 2) {
+            for (Task<T> task : tasks) {
+                results.add(task.execute());
+            }
+            return results;
+        }
+        final AtomicBoolean failed = new AtomicBoolean();
+        final List<Future<T>> futures = new ArrayList<>(tasks.size());
+        boolean completed = false;
+        try {
+            for (Task<T> task : tasks) {
+                futures.add(submit(() -> {
+                    if (failed.get()) {
+                        return null;
+                    }
+                    try {
+                        return task.execute();
+                    } catch (Throwable t) {
+                        failed.set(true);
+                        throw t;
+                    }
+                }));
+            }
+            for (Future<T> future : futures) {
+                results.add(join(future));
+            }
+            completed = true;
+        } finally {
+            if (!completed) {
+                failed.set(true);
+                awaitAll(futures);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Waits for the completion of the futures, ignoring their failures. A cancelled future may still have its
+     * task running, so the tasks are skipped rather than cancelled.
+     */
+    private static void awaitAll(List<? extends Future<?>> futures) {
+        boolean interrupted = false;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (ExecutionException e) {
+                // the first failure is the one rethrown
+            } catch (InterruptedException e) {
+                // the future is awaited again, the interrupt status is restored once all the tasks are done
+                interrupted = true;
+                --i;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    <T> Future<T> submit(Task<T> task) {
+        return getExecutor().submit(task::execute);
+    }
+
+    static <T> T join(Future<T> future) throws ProvisioningException, IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProvisioningException("Interrupted while waiting for a provisioning task to complete", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof ProvisioningException) {
+                throw (ProvisioningException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ProvisioningException("Provisioning task failed", cause);
+        }
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            final AtomicInteger threadIndex = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "wildfly-galleon-plugin-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Durations of the provisioning phases and, within each phase, durations and sizes of the
+ * operations applied to the artifacts. Written as a JSON report at the end of the provisioning.
+ *
+ * Phases are sequential, operations are recorded concurrently against the current phase.
+ * Artifacts are identified by their path, artifacts of different groups may have the same file name.
+ * When disabled, nothing is recorded.
+ */
+class ProvisioningMetrics {
+
+    static final String PHASE_PACKAGES = "packages";
+    static final String PHASE_MODULE_TEMPLATES = "module-templates";
+    static final String PHASE_SCHEMAS = "schemas";
+    static final String PHASE_LAYERS_MERGE = "layers-merge";
+    static final String PHASE_CONFIG_GENERATION = "config-generation";
+    static final String PHASE_FINALIZE_CLI = "finalize-cli";
+    static final String PHASE_FINALIZING_TASKS = "finalizing-tasks";
+    static final String PHASE_EXAMPLE_CONFIGS = "example-configs";
+
+    enum Operation {
+        RESOLVE("resolve"),
+        TRANSFORM("transform"),
+        JANDEX("jandex"),
+        COPY("copy"),
+        LINK("link");
+
+        private final String name;
+
+        Operation(String name) {
+            this.name = name;
+        }
+    }
+
+    private static class Stats {
+        int count;
+        long nanos;
+        long bytes;
+    }
+
+    private static class Phase {
+        final String name;
+        final long start;
+        long end = -1;
+        final Map<String, Map<Operation, Stats>> artifacts = new ConcurrentHashMap<>();
+
+        Phase(String name) {
+            this.name = name;
+            this.start = System.nanoTime();
+        }
+    }
+
+    private final boolean enabled;
+    private final long start = System.nanoTime();
+    private final List<Phase> phases = new ArrayList<>();
+    private volatile Phase current;
+
+    ProvisioningMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    void startPhase(String name) {
+        if (!enabled) {
+            return;
+        }
+        endPhase();
+        current = new Phase(name);
+        phases.add(current);
+    }
+
+    void endPhase() {
+        if (current != null) {
+            current.end = System.nanoTime();
+            current = null;
+        }
+    }
+
+    /**
+     * Records an operation applied to an artifact in the current phase.
+     *
+     * @param artifact  path of the artifact
+     * @param operation  the operation
+     * @param startNanos  the value of System.nanoTime() when the operation started
+     * @param bytes  number of bytes read or written by the operation, the size of the file for a link
+     */
+    void record(String artifact, Operation operation, long startNanos, long bytes) {
+        final Phase phase = current;
+        if (phase == null) {
+            return;
+        }
+        final long nanos = System.nanoTime() - startNanos;
+        final Map<Operation, Stats> operations = phase.artifacts.computeIfAbsent(artifact, k -> new EnumMap<>(Operation.class));
+        synchronized (operations) {
+            Stats stats = operations.get(operation);
+            if (stats == null) {
+                stats = new Stats();
+                operations.put(operation, stats);
+            }
+            ++stats.count;
+            stats.nanos += nanos;
+            stats.bytes += bytes;
+        }
+    }
+
+    /**
+     * Same as {@link #record(String, Operation, long, long)} with the size of a file as the number of bytes.
+     */
+    void record(Path file, Operation operation, long startNanos) {
+        if (current == null) {
+            return;
+        }
+        long bytes;
+        try {
+            bytes = Files.size(file);
+        } catch (IOException e) {
+            bytes = -1;
+        }
+        record(file.toAbsolutePath().toString(), operation, startNanos, bytes);
+    }
+
+    void write(Path report) throws IOException {
+        endPhase();
+        final long end = System.nanoTime();
+        final Path parent = report.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(report, StandardCharsets.UTF_8)) {
+            writer.write("{\n  \"duration-ms\": ");
+            writer.write(millis(end - start));
+            writer.write(",\n  \"phases\": [");
+            for (int i = 0; i < phases.size(); i++) {
+                final Phase phase = phases.get(i);
+                writer.write(i == 0 ? "\n" : ",\n");
+                writer.write("    {\n      \"name\": ");
+                writer.write(quote(phase.name));
+                writer.write(",\n      \"duration-ms\": ");
+                writer.write(millis(phase.end - phase.start));
+                writer.write(",\n      \"artifacts\": [");
+                boolean first = true;
+                for (Map.Entry<String, Map<Operation, Stats>> artifact : new TreeMap<>(phase.artifacts).entrySet()) {
+                    writer.write(first ? "\n" : ",\n");
+                    first = false;
+                    writer.write("        { \"name\": ");
+                    writer.write(quote(artifact.getKey()));
+                    for (Map.Entry<Operation, Stats> operation : artifact.getValue().entrySet()) {
+                        final Stats stats = operation.getValue();
+                        writer.write(", ");
+                        writer.write(quote(operation.getKey().name));
+                        writer.write(": { \"count\": ");
+                        writer.write(String.valueOf(stats.count));
+                        writer.write(", \"duration-ms\": ");
+                        writer.write(millis(stats.nanos));
+                        writer.write(", \"bytes\": ");
+                        writer.write(String.valueOf(stats.bytes));
+                        writer.write(" }");
+                    }
+                    writer.write(" }");
+                }
+                writer.write(first ? "]\n    }" : "\n      ]\n    }");
+            }
+            writer.write(phases.isEmpty() ? "]\n}\n" : "\n  ]\n}\n");
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1000000.0);
+    }
+
+    private static String quote(String str) {
+        final StringBuilder buf = new StringBuilder(str.length() + 2).append('"');
+        for (int i = 0; i < str.length(); i++) {
+            final char c = str.charAt(i);
+            if (c == '"' || c == '\\') {
+                buf.append('\\').append(c);
+            } else if (c < 0x20) {
+                buf.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                buf.append(c);
+            }
+        }
+        return buf.append('"').toString();
+    }
+}
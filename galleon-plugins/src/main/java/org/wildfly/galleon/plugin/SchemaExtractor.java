@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.jboss.galleon.MessageWriter;
+import org.jboss.galleon.ProvisioningException;
+
+/**
+ * Extracts the schemas of the artifacts installed by the provisioning to docs/schema.
+ *
+ * Artifacts are registered while modules and packages are processed and extracted together once
+ * they are all known. The schema directories are listed first, a schema found in several artifacts
+ * is extracted from the first artifact (in the order of the artifact paths) and reported if the
+ * copies differ. The artifacts are then extracted concurrently.
+ */
+class SchemaExtractor {
+
+    private static final String SCHEMA_PREFIX = WfConstants.SCHEMA + '/';
+
+    private static class Schema {
+        final Path artifact;
+        final String entryName;
+        final long size;
+        final long crc;
+
+        Schema(Path artifact, ZipEntry entry) {
+            this.artifact = artifact;
+            this.entryName = entry.getName();
+            this.size = entry.getSize();
+            this.crc = entry.getCrc();
+        }
+
+        boolean isSameContent(Schema other) {
+            return size == other.size && crc == other.crc && size >= 0 && crc >= 0;
+        }
+    }
+
+    private final Path targetDir;
+    private final MessageWriter log;
+    private final Set<Path> artifacts = ConcurrentHashMap.newKeySet();
+
+    SchemaExtractor(Path targetDir, MessageWriter log) {
+        this.targetDir = targetDir.toAbsolutePath().normalize();
+        this.log = log;
+    }
+
+    void add(Path artifact) {
+        artifacts.add(artifact.toAbsolutePath());
+    }
+
+    boolean isEmpty() {
+        return artifacts.isEmpty();
+    }
+
+    /**
+     * Extracts the schemas of the registered artifacts.
+     */
+    void extract(ProvisioningExecutor executor) throws ProvisioningException, IOException {
+        if (artifacts.isEmpty()) {
+            return;
+        }
+        final List<Path> sorted = new ArrayList<>(artifacts);
+        artifacts.clear();
+        sorted.sort(null);
+
+        final List<ProvisioningExecutor.Task<List<Schema>>> listTasks = new ArrayList<>(sorted.size());
+        for (Path artifact : sorted) {
+            listTasks.add(() -> list(artifact));
+        }
+        final Map<String, Schema> schemas = new HashMap<>();
+        final Map<Path, List<Schema>> extracted = new HashMap<>();
+        for (List<Schema> artifactSchemas : executor.invokeAll(listTasks)) {
+            for (Schema schema : artifactSchemas) {
+                final Schema existing = schemas.putIfAbsent(schema.entryName, schema);
+                if (existing == null) {
+                    extracted.computeIfAbsent(schema.artifact, k -> new ArrayList<>()).add(schema);
+                } else if (!existing.isSameContent(schema)) {
+                    log.print("Schema %s is found in both %s and %s, the content of %s is used", schema.entryName,
+                            existing.artifact.getFileName(), schema.artifact.getFileName(), existing.artifact.getFileName());
+                }
+            }
+        }
+        if (extracted.isEmpty()) {
+            return;
+        }
+        Files.createDirectories(targetDir);
+        final List<ProvisioningExecutor.Task<Void>> extractTasks = new ArrayList<>(extracted.size());
+        for (Map.Entry<Path, List<Schema>> entry : extracted.entrySet()) {
+            extractTasks.add(() -> {
+                extract(entry.getKey(), entry.getValue());
+                return null;
+            });
+        }
+        executor.invokeAll(extractTasks);
+    }
+
+    private static List<Schema> list(Path artifact) throws IOException {
+        final List<Schema> schemas = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(artifact.toFile())) {
+            final Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && entry.getName().startsWith(SCHEMA_PREFIX)) {
+                    schemas.add(new Schema(artifact, entry));
+                }
+            }
+        }
+        return schemas;
+    }
+
+    private void extract(Path artifact, List<Schema> schemas) throws IOException {
+        try (ZipFile zip = new ZipFile(artifact.toFile())) {
+            for (Schema schema : schemas) {
+                final Path target = targetDir.resolve(schema.entryName.substring(SCHEMA_PREFIX.length())).normalize();
+                if (!target.startsWith(targetDir)) {
+                    throw new IOException("Schema " + schema.entryName + " of " + artifact + " is outside of the schema directory");
+                }
+                Files.createDirectories(target.getParent());
+                try (InputStream in = zip.getInputStream(zip.getEntry(schema.entryName))) {
+                    Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+}
@@ -17,9 +17,7 @@
 package org.wildfly.galleon.plugin;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import org.jboss.galleon.ProvisioningException;
 import org.jboss.galleon.universe.maven.MavenArtifact;
 import org.jboss.galleon.universe.maven.MavenUniverseException;
@@ -33,26 +31,26 @@ import org.wildfly.galleon.plugin.WfInstallPlugin.ArtifactResolver;
  */
 class SimpleArtifactInstaller extends AbstractArtifactInstaller {
 
-    SimpleArtifactInstaller(ArtifactResolver resolver, Path generatedMavenRepo) {
-        super(resolver, generatedMavenRepo);
+    SimpleArtifactInstaller(ArtifactResolver resolver, Path generatedMavenRepo, boolean linkArtifacts, ProvisioningMetrics metrics) {
+        super(resolver, generatedMavenRepo, linkArtifacts, metrics);
     }
 
     @Override
-    String installArtifactFat(MavenArtifact artifact, Path targetDir, Path localCache) throws IOException,
+    String doInstallArtifactFat(MavenArtifact artifact, Path targetDir, Path localCache) throws IOException,
             MavenUniverseException, ProvisioningException {
-        Files.copy(artifact.getPath(), targetDir.resolve(artifact.getArtifactFileName()), StandardCopyOption.REPLACE_EXISTING);
+        installFile(artifact.getPath(), targetDir.resolve(artifact.getArtifactFileName()));
         return artifact.getArtifactFileName();
     }
 
     @Override
-    String installArtifactThin(MavenArtifact artifact) throws IOException,
+    String doInstallArtifactThin(MavenArtifact artifact) throws IOException,
             MavenUniverseException, ProvisioningException {
         installInGeneratedRepo(artifact, artifact.getVersion(), artifact.getPath());
         return artifact.getVersion();
     }
 
     @Override
-    Path installCopiedArtifact(MavenArtifact artifact) throws IOException, ProvisioningException {
+    Path doInstallCopiedArtifact(MavenArtifact artifact) throws IOException, ProvisioningException {
         // Although copied artifact are not thin, we copy them in generated repo for consistency.
         // This means that all artifacts provisioned are present.
         installInGeneratedRepo(artifact, artifact.getVersion(), artifact.getPath());
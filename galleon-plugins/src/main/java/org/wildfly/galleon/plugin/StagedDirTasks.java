@@ -0,0 +1,295 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.jboss.galleon.ProvisioningException;
+import org.wildfly.galleon.plugin.config.FileFilter;
+import org.wildfly.galleon.plugin.config.FilePermission;
+
+/**
+ * The tasks applied to the files of the staged directory selected by path patterns: line endings
+ * and file permissions. Consecutive tasks are collected and applied together in a single walk of the
+ * staged directory instead of a walk per task.
+ *
+ * The collected tasks must be applied before anything else changes the staged directory, so that they
+ * apply to the files that existed when they were added, as when each task walked the staged directory.
+ * A file gets the line endings of the last filter matching it and a path the permissions of the last
+ * task including it, as when the tasks were applied one after the other.
+ *
+ * The subdirectories of the staged directory are walked concurrently, the matching files are then
+ * updated concurrently. The permissions of the directories are set last so that they do not prevent
+ * the update of their content.
+ *
+ * Artifacts may be installed as hard links to the local maven repository. The link of a file is broken
+ * before the file is updated, so that neither its content nor its permissions change in the repository.
+ */
+class StagedDirTasks {
+
+    private static class LineEndFilter {
+        final FileFilter filter;
+        final boolean windows;
+
+        LineEndFilter(FileFilter filter, boolean windows) {
+            this.filter = filter;
+            this.windows = windows;
+        }
+    }
+
+    private static class FileUpdate {
+        final Path path;
+        // null if the line endings are left as they are
+        final Boolean windowsLineEndings;
+        final Set<PosixFilePermission> permissions;
+
+        FileUpdate(Path path, Boolean windowsLineEndings, Set<PosixFilePermission> permissions) {
+            this.path = path;
+            this.windowsLineEndings = windowsLineEndings;
+            this.permissions = permissions;
+        }
+    }
+
+    private final List<LineEndFilter> lineEndFilters = new ArrayList<>();
+    private final List<FilePermission> permissions = new ArrayList<>();
+
+    /**
+     * Adds the line ending filters of a package, the Unix filters of a package being applied before its
+     * Windows filters.
+     */
+    void addLineEndings(List<FileFilter> unixFilters, List<FileFilter> windowsFilters) {
+        for (FileFilter filter : unixFilters) {
+            lineEndFilters.add(new LineEndFilter(filter, false));
+        }
+        for (FileFilter filter : windowsFilters) {
+            lineEndFilters.add(new LineEndFilter(filter, true));
+        }
+    }
+
+    void addPermissions(List<FilePermission> permissions) {
+        this.permissions.addAll(permissions);
+    }
+
+    boolean isEmpty() {
+        return lineEndFilters.isEmpty() && permissions.isEmpty();
+    }
+
+    /**
+     * Applies the collected tasks to the staged directory and clears them.
+     */
+    void apply(Path stagedDir, ProvisioningExecutor executor) throws ProvisioningException {
+        if (isEmpty()) {
+            return;
+        }
+        // the subdirectories of the staged directory are walked concurrently
+        final Scan root = new Scan(stagedDir);
+        final List<ProvisioningExecutor.Task<Scan>> scans = new ArrayList<>();
+        try {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(stagedDir)) {
+                for (Path child : stream) {
+                    if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                        scans.add(() -> {
+                            final Scan scan = new Scan(stagedDir);
+                            Files.walkFileTree(child, scan);
+                            return scan;
+                        });
+                    } else {
+                        root.visitFile(child, null);
+                    }
+                }
+            }
+            final List<FileUpdate> files = root.files;
+            final List<FileUpdate> dirs = new ArrayList<>();
+            for (Scan scan : executor.invokeAll(scans)) {
+                files.addAll(scan.files);
+                dirs.addAll(scan.dirs);
+            }
+            root.postVisitDirectory(stagedDir, null);
+            dirs.addAll(root.dirs);
+            apply(files, dirs, executor);
+        } catch (IOException e) {
+            throw new ProvisioningException(String.format("Failed to process %s for files that require line ending or permission changes.", stagedDir), e);
+        }
+        lineEndFilters.clear();
+        permissions.clear();
+    }
+
+    /**
+     * Collects the updates of the files and directories of a walked tree, the directories after their content.
+     */
+    private class Scan extends SimpleFileVisitor<Path> {
+        final Path stagedDir;
+        final List<FileUpdate> files = new ArrayList<>();
+        final List<FileUpdate> dirs = new ArrayList<>();
+
+        Scan(Path stagedDir) {
+            this.stagedDir = stagedDir;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            final String relative = stagedDir.relativize(file).toString();
+            final Boolean windows = getWindowsLineEndings(relative);
+            final Set<PosixFilePermission> filePermissions = getPermissions(relative);
+            if (windows != null || filePermissions != null) {
+                files.add(new FileUpdate(file, windows, filePermissions));
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+            if (exc != null) {
+                throw exc;
+            }
+            final Set<PosixFilePermission> dirPermissions = getPermissions(stagedDir.relativize(dir).toString());
+            if (dirPermissions != null) {
+                dirs.add(new FileUpdate(dir, null, dirPermissions));
+            }
+            return FileVisitResult.CONTINUE;
+        }
+    }
+
+    private static void apply(List<FileUpdate> files, List<FileUpdate> dirs, ProvisioningExecutor executor) throws ProvisioningException {
+        final List<ProvisioningExecutor.Task<Void>> tasks = new ArrayList<>(files.size());
+        for (FileUpdate update : files) {
+            tasks.add(() -> {
+                apply(update);
+                return null;
+            });
+        }
+        try {
+            executor.invokeAll(tasks);
+            for (FileUpdate update : dirs) {
+                Files.setPosixFilePermissions(update.path, update.permissions);
+            }
+        } catch (IOException e) {
+            throw new ProvisioningException("Failed to set file permissions", e);
+        }
+    }
+
+    /**
+     * @return whether the last line ending filter matching the path converts to Windows line endings or
+     * null if none matches it
+     */
+    private Boolean getWindowsLineEndings(String relative) {
+        Boolean result = null;
+        for (LineEndFilter filter : lineEndFilters) {
+            if (filter.filter.matches(relative)) {
+                result = filter.windows;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the permissions of the last permission task including the path or null if none includes it
+     */
+    private Set<PosixFilePermission> getPermissions(String relative) {
+        Set<PosixFilePermission> result = null;
+        for (FilePermission perm : permissions) {
+            if (perm.includeFile(relative)) {
+                result = perm.getPermission();
+            }
+        }
+        return result;
+    }
+
+    private static void apply(FileUpdate update) throws ProvisioningException, IOException {
+        try {
+            if (isLinked(update.path)) {
+                breakLink(update.path);
+            }
+        } catch (IOException e) {
+            throw new ProvisioningException(String.format("Failed to break the link of %s.", update.path), e);
+        }
+        // a conversion replaces all the line endings, the last one applied is the only one that matters
+        if (update.windowsLineEndings != null) {
+            final boolean windows = update.windowsLineEndings;
+            try {
+                changeLineEndings(update.path, windows);
+            } catch (IOException e) {
+                throw new ProvisioningException(String.format("Failed to convert %s to %s line endings.", update.path, windows ? "Windows" : "Unix"), e);
+            }
+        }
+        if (update.permissions != null) {
+            Files.setPosixFilePermissions(update.path, update.permissions);
+        }
+    }
+
+    /**
+     * @return true if the file has other links or if the number of links is unknown
+     */
+    private static boolean isLinked(Path file) throws IOException {
+        try {
+            return ((Number) Files.getAttribute(file, "unix:nlink")).intValue() > 1;
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Replaces a file by a copy of it, the other links keep the original content and attributes.
+     */
+    private static void breakLink(Path file) throws IOException {
+        final Path copy = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            Files.move(copy, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(copy);
+        }
+    }
+
+    private static void changeLineEndings(final Path file, final boolean isWindows) throws IOException {
+        final String eol = (isWindows ? "\r\n" : "\n");
+        final Path temp = Files.createTempFile(file.getFileName().toString(), ".tmp");
+        // Copy the original file to the temporary file, replacing it and copying the attributes. Note that the order of
+        // REPLACE_EXISTING and COPY_ATTRIBUTES is important.
+        Files.copy(file, temp, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+        try (
+                BufferedReader reader = Files.newBufferedReader(temp, StandardCharsets.UTF_8);
+                BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.TRUNCATE_EXISTING)
+        ) {
+            // Process each line and write a eol string
+            String line;
+            while ((line = reader.readLine()) != null) {
+                writer.write(line);
+                writer.write(eol);
+            }
+
+        } finally {
+            Files.delete(temp);
+        }
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.jboss.galleon.ProvisioningException;
+
+/**
+ * A module template read in a single StAX pass, without building a document. The encoding of the template
+ * is detected by the parser. The nodes of the template are recorded while it is scanned, processing updates
+ * the recorded version and artifact elements and storing writes the nodes to the target file.
+ *
+ * The output is the one of the XOM serializer used by {@link DomModuleTemplate}: UTF-8 XML declaration
+ * followed by \r\n, attributes followed by the namespace declarations, empty elements in the short form,
+ * the same character escaping, and a \r\n after each top level node.
+ *
+ * Templates with a DTD or with prefixed names are not handled, {@link #scan(Path, Path)} returns null for them
+ * so that they are loaded as a document.
+ */
+class StreamingModuleTemplate extends ModuleTemplate {
+
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+    private static final String TOP_LEVEL_LINE_SEPARATOR = "\r\n";
+
+    private static final XMLInputFactory INPUT_FACTORY;
+
+    static {
+        INPUT_FACTORY = XMLInputFactory.newInstance();
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, true);
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    }
+
+    /**
+     * Reads the template to collect the module name, version and artifacts, and its nodes.
+     *
+     * @param moduleTemplate  the template file
+     * @param targetPath  the module.xml to produce
+     * @return the template or null if the template can't be processed as a stream
+     */
+    static StreamingModuleTemplate scan(Path moduleTemplate, Path targetPath) throws IOException {
+        final StreamingModuleTemplate template = new StreamingModuleTemplate(targetPath);
+        return template.scan(moduleTemplate) ? template : null;
+    }
+
+    /**
+     * A node of the template: an element start or end, text, a comment or a processing instruction.
+     */
+    private static class Node {
+
+        final int event;
+        // the local name of an element or the target of a processing instruction
+        String name;
+        // the text, the comment or the processing instruction data
+        final String value;
+        // the name and value of each attribute of an element start
+        final String[] attributes;
+        // the default namespace an element start declares, null if it is already in scope
+        final String namespace;
+
+        Node(int event, String name, String value, String[] attributes, String namespace) {
+            this.event = event;
+            this.name = name;
+            this.value = value;
+            this.attributes = attributes;
+            this.namespace = namespace;
+        }
+
+        void setAttribute(String name, String newName, String newValue) {
+            for (int i = 0; i < attributes.length; i += 2) {
+                if (name.equals(attributes[i])) {
+                    attributes[i] = newName;
+                    attributes[i + 1] = newValue;
+                }
+            }
+        }
+    }
+
+    private final Path targetPath;
+    private String rootName;
+    private String version;
+    private final List<String> artifactNames = new ArrayList<>();
+    private final List<Node> nodes = new ArrayList<>();
+    private Node root;
+    // the artifact elements of the module resources, in the order of artifactNames
+    private final List<Node> artifacts = new ArrayList<>();
+
+    private StreamingModuleTemplate(Path targetPath) {
+        this.targetPath = targetPath;
+    }
+
+    private boolean scan(Path moduleTemplate) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(moduleTemplate))) {
+            final XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                // the default namespace of the open elements
+                final Deque<String> namespaces = new ArrayDeque<>();
+                String rootNs = null;
+                boolean resourcesSeen = false;
+                boolean inResources = false;
+                while (reader.hasNext()) {
+                    switch (reader.next()) {
+                        case XMLStreamConstants.DTD:
+                            return false;
+                        case XMLStreamConstants.START_ELEMENT: {
+                            if (!isSupported(reader)) {
+                                return false;
+                            }
+                            final int depth = namespaces.size();
+                            final String[] attributes = new String[2 * reader.getAttributeCount()];
+                            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                                attributes[2 * i] = reader.getAttributeLocalName(i);
+                                attributes[2 * i + 1] = reader.getAttributeValue(i);
+                            }
+                            final String ns = namespace(reader);
+                            // the XOM serializer skips the declarations already in scope
+                            final Node node = new Node(XMLStreamConstants.START_ELEMENT, reader.getLocalName(), null, attributes,
+                                    ns.equals(namespaces.isEmpty() ? "" : namespaces.peek()) ? null : ns);
+                            nodes.add(node);
+                            if (depth == 0) {
+                                root = node;
+                                rootName = reader.getLocalName();
+                                rootNs = ns;
+                                version = reader.getAttributeValue(null, VERSION);
+                            } else if (depth == 1) {
+                                if (!resourcesSeen && isElement(reader, RESOURCES, rootNs)) {
+                                    resourcesSeen = true;
+                                    inResources = true;
+                                }
+                            } else if (depth == 2 && inResources && isElement(reader, ARTIFACT, rootNs)) {
+                                artifactNames.add(reader.getAttributeValue(null, NAME));
+                                artifacts.add(node);
+                            }
+                            namespaces.push(ns);
+                            break;
+                        }
+                        case XMLStreamConstants.END_ELEMENT:
+                            namespaces.pop();
+                            if (namespaces.size() == 1) {
+                                inResources = false;
+                            }
+                            nodes.add(new Node(XMLStreamConstants.END_ELEMENT, null, null, null, null));
+                            break;
+                        case XMLStreamConstants.CHARACTERS:
+                        case XMLStreamConstants.CDATA:
+                        case XMLStreamConstants.SPACE:
+                            // the document model has no text outside of the root element
+                            if (!namespaces.isEmpty()) {
+                                nodes.add(new Node(XMLStreamConstants.CHARACTERS, null, reader.getText(), null, null));
+                            }
+                            break;
+                        case XMLStreamConstants.COMMENT:
+                            nodes.add(new Node(XMLStreamConstants.COMMENT, null, reader.getText(), null, null));
+                            break;
+                        case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                            nodes.add(new Node(XMLStreamConstants.PROCESSING_INSTRUCTION, reader.getPITarget(), reader.getPIData(), null, null));
+                            break;
+                        default:
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to parse document", e);
+        }
+        return true;
+    }
+
+    @Override
+    boolean isModule() {
+        return isModule(rootName);
+    }
+
+    @Override
+    String getVersion() {
+        return version;
+    }
+
+    @Override
+    List<String> getArtifactNames() {
+        return artifactNames;
+    }
+
+    @Override
+    void process(Processor processor) throws ProvisioningException, IOException {
+        if (version != null) {
+            final String value = processor.processVersion(version);
+            if (value != null) {
+                root.setAttribute(VERSION, VERSION, value);
+            }
+        }
+        for (int i = 0; i < artifacts.size(); i++) {
+            final ArtifactElement artifact = new ArtifactElement(artifactNames.get(i));
+            processor.processArtifact(artifact);
+            if (artifact.isUpdated()) {
+                final Node node = artifacts.get(i);
+                node.name = artifact.getLocalName();
+                node.setAttribute(NAME, artifact.getAttributeName(), artifact.getAttributeValue());
+            }
+        }
+    }
+
+    @Override
+    void store() throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(targetPath), StandardCharsets.UTF_8))) {
+            write(out);
+        } catch (Throwable t) {
+            try {
+                Files.deleteIfExists(targetPath);
+            } catch (Throwable t2) {
+                t2.addSuppressed(t);
+                throw t2;
+            }
+            throw t;
+        }
+    }
+
+    private void write(Writer out) throws IOException {
+        out.write(XML_DECLARATION);
+        out.write(TOP_LEVEL_LINE_SEPARATOR);
+        // local names of the open elements
+        final Deque<String> names = new ArrayDeque<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            final Node node = nodes.get(i);
+            switch (node.event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    out.write('<');
+                    out.write(node.name);
+                    for (int j = 0; j < node.attributes.length; j += 2) {
+                        out.write(' ');
+                        out.write(node.attributes[j]);
+                        out.write("=\"");
+                        writeAttributeValue(out, node.attributes[j + 1]);
+                        out.write('"');
+                    }
+                    if (node.namespace != null) {
+                        out.write(" xmlns=\"");
+                        writeAttributeValue(out, node.namespace);
+                        out.write('"');
+                    }
+                    if (i + 1 < nodes.size() && nodes.get(i + 1).event == XMLStreamConstants.END_ELEMENT) {
+                        // an empty element, written in the short form
+                        out.write("/>");
+                        ++i;
+                        if (names.isEmpty()) {
+                            out.write(TOP_LEVEL_LINE_SEPARATOR);
+                        }
+                    } else {
+                        out.write('>');
+                        names.push(node.name);
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    out.write("</");
+                    out.write(names.pop());
+                    out.write('>');
+                    if (names.isEmpty()) {
+                        out.write(TOP_LEVEL_LINE_SEPARATOR);
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                    writeText(out, node.value);
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    out.write("<!--");
+                    out.write(node.value);
+                    out.write("-->");
+                    if (names.isEmpty()) {
+                        out.write(TOP_LEVEL_LINE_SEPARATOR);
+                    }
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    out.write("<?");
+                    out.write(node.name);
+                    if (node.value != null && !node.value.isEmpty()) {
+                        out.write(' ');
+                        out.write(node.value);
+                    }
+                    out.write("?>");
+                    if (names.isEmpty()) {
+                        out.write(TOP_LEVEL_LINE_SEPARATOR);
+                    }
+                    break;
+                default:
+            }
+        }
+    }
+
+    private static boolean isSupported(XMLStreamReader reader) {
+        if (!isEmpty(reader.getPrefix()) || reader.getNamespaceCount() > 1
+                || reader.getNamespaceCount() == 1 && !isEmpty(reader.getNamespacePrefix(0))) {
+            return false;
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            if (!isEmpty(reader.getAttributePrefix(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isElement(XMLStreamReader reader, String localName, String ns) {
+        return localName.equals(reader.getLocalName()) && ns.equals(namespace(reader));
+    }
+
+    private static String namespace(XMLStreamReader reader) {
+        final String ns = reader.getNamespaceURI();
+        return ns == null ? "" : ns;
+    }
+
+    private static boolean isEmpty(String str) {
+        return str == null || str.isEmpty();
+    }
+
+    private static void writeText(Writer out, String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    out.write("&amp;");
+                    break;
+                case '<':
+                    out.write("&lt;");
+                    break;
+                case '>':
+                    out.write("&gt;");
+                    break;
+                case '\r':
+                    out.write("&#x0D;");
+                    break;
+                default:
+                    out.write(c);
+            }
+        }
+    }
+
+    private static void writeAttributeValue(Writer out, String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    out.write("&amp;");
+                    break;
+                case '<':
+                    out.write("&lt;");
+                    break;
+                case '>':
+                    out.write("&gt;");
+                    break;
+                case '"':
+                    out.write("&quot;");
+                    break;
+                case '\t':
+                    out.write("&#x09;");
+                    break;
+                case '\n':
+                    out.write("&#x0A;");
+                    break;
+                case '\r':
+                    out.write("&#x0D;");
+                    break;
+                default:
+                    out.write(c);
+            }
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package org.wildfly.galleon.plugin;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Map;
 import org.jboss.galleon.ProvisioningException;
@@ -28,11 +29,15 @@ import org.jboss.galleon.universe.maven.MavenUniverseException;
  * this case module.xml artifacts are updated with a version.
  * The installer is in charge to compute the correct version to be referenced. Artifact version could be modified
  * in case of Jakarta transformation.
+ * The Jandex index of an artifact referenced with the jandex option is installed in the generated maven
+ * repository with the jandex classifier, the module.xml references the index artifact.
  *
  * @author jdenise
  */
 class ThinModuleTemplateProcessor extends AbstractModuleTemplateProcessor {
 
+    private static final String JANDEX_CLASSIFIER = "jandex";
+
     ThinModuleTemplateProcessor(WfInstallPlugin plugin,
             AbstractArtifactInstaller installer, Path targetPath, ModuleTemplate template, Map<String, String> versionProps) {
         super(plugin, installer, targetPath, template, versionProps);
@@ -42,18 +47,49 @@ class ThinModuleTemplateProcessor extends AbstractModuleTemplateProcessor {
     protected void processArtifact(ModuleArtifact moduleArtifact) throws IOException, MavenUniverseException, ProvisioningException {
         MavenArtifact artifact = moduleArtifact.getMavenArtifact();
         String installedVersion = getInstaller().installArtifactThin(artifact);
-        // ignore jandex variable, just resolve coordinates to a string
+        String classifier = artifact.getClassifier();
+        if (moduleArtifact.isJandex()) {
+            final Path repo = getInstaller().getGeneratedMavenRepo();
+            if (repo == null) {
+                // no repository to install the index to, the artifact is referenced as is
+                getLog().verbose("Ignoring jandex option of %s, option jboss-maven-repo is not set", artifact);
+            } else {
+                classifier = classifier.isEmpty() ? JANDEX_CLASSIFIER : classifier + '-' + JANDEX_CLASSIFIER;
+                installJandexIndex(artifact, installedVersion, classifier, repo);
+            }
+        }
         final StringBuilder buf = new StringBuilder();
         buf.append(artifact.getGroupId());
         buf.append(':');
         buf.append(artifact.getArtifactId());
         buf.append(':');
         buf.append(installedVersion);
-        if (!artifact.getClassifier().isEmpty()) {
+        if (!classifier.isEmpty()) {
             buf.append(':');
-            buf.append(artifact.getClassifier());
+            buf.append(classifier);
         }
         moduleArtifact.updateThinArtifact(buf.toString());
 
     }
+
+    /**
+     * Installs the index jar of the installed artifact in the generated repository, next to the installed
+     * artifact.
+     */
+    private void installJandexIndex(MavenArtifact artifact, String installedVersion, String classifier, Path repo) throws IOException, ProvisioningException {
+        final Path versionDir = AbstractArtifactInstaller.getLocalRepoPath(artifact, installedVersion, repo);
+        final String baseName = artifact.getArtifactId() + '-' + installedVersion;
+        Path installed = versionDir.resolve(baseName + (artifact.getClassifier().isEmpty() ? "" : '-' + artifact.getClassifier())
+                + '.' + artifact.getExtension());
+        if (!Files.exists(installed)) {
+            // not installed to the generated repository, the server resolves it from the provisioning repository
+            installed = artifact.getPath();
+        }
+        final Path indexed = installed;
+        final Path target = versionDir.resolve(baseName + '-' + classifier + ".jar");
+        getInstaller().writeShared(target, () -> {
+            createJandexIndex(indexed, target);
+            return target;
+        });
+    }
 }
@@ -0,0 +1,352 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.jboss.galleon.MessageWriter;
+import org.jboss.galleon.util.IoUtils;
+import org.wildfly.galleon.plugin.transformer.JakartaTransformer;
+import org.wildfly.galleon.plugin.transformer.TransformedArtifact;
+
+/**
+ * A persistent cache of Jakarta transformed artifacts, shared by provisioning runs and by provisioning
+ * processes running on the same machine.
+ *
+ * The key of an entry is the SHA-256 of the source artifact combined with a hash of the transformation
+ * rules: the content of the configs directory and the transformer in use. An entry is a directory named
+ * after the key, it contains the flags of the transformation and, if the artifact has been transformed,
+ * the transformed artifact with its SHA-256 checksum. An artifact left unchanged by the transformation
+ * is restored by installing the source, the way the artifacts that are not transformed are installed.
+ *
+ * An exclusive lock is held while an entry is looked up and, if missing, while the artifact is transformed
+ * and stored, so that processes needing the same artifact transform it once. The entries are locked through
+ * a fixed set of lock files, selected by the first characters of their key: removing the lock file of a
+ * single entry would let a process waiting on the removed file and a process creating a new one hold the
+ * lock together. Entries are written to a temporary directory and moved in place, the checksum is verified when
+ * an entry is restored. The least recently restored entries are evicted when the cache grows beyond its
+ * maximum size, entries locked by another process are skipped.
+ *
+ * The cache is an optimization, failing to read or write it never fails the provisioning.
+ */
+class TransformationCache {
+
+    /**
+     * Changes whenever the content or the layout of the entries changes.
+     */
+    static final String FORMAT_VERSION = "1";
+
+    interface Transformation {
+        TransformedArtifact transform() throws IOException;
+    }
+
+    /**
+     * Installs the source of an artifact left unchanged by the transformation.
+     */
+    interface Installation {
+        void install(Path src, Path target) throws IOException;
+    }
+
+    private static final String MANIFEST = "transformation.properties";
+    private static final String ARTIFACT = "artifact";
+    private static final String TRANSFORMED = "transformed";
+    private static final String SIGNED = "signed";
+    private static final String UNSIGNED = "unsigned";
+    private static final String SHA256 = "sha256";
+    private static final String LOCKS_DIR = ".locks";
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final String TMP_PREFIX = ".tmp-";
+    // the number of hexadecimal characters of the key selecting its lock, 256 locks
+    private static final int LOCK_PREFIX_LENGTH = 2;
+
+    private final Path dir;
+    private final long maxSize;
+    private final MessageWriter log;
+    private final String rulesHash;
+    // file locks are held by the JVM, the threads of this provisioning are serialized per lock file
+    private final Object[] threadLocks = new Object[1 << (4 * LOCK_PREFIX_LENGTH)];
+
+    TransformationCache(Path dir, long maxSize, Path configsDir, MessageWriter log) throws IOException {
+        this.dir = dir;
+        this.maxSize = maxSize;
+        this.log = log;
+        this.rulesHash = rulesHash(configsDir);
+        for (int i = 0; i < threadLocks.length; i++) {
+            threadLocks[i] = new Object();
+        }
+    }
+
+    Path getDir() {
+        return dir;
+    }
+
+    /**
+     * Restores the transformation of src to target from the cache or, if it is not cached, runs the
+     * transformation and stores its result.
+     *
+     * @param src  the artifact to transform
+     * @param target  the file the transformed artifact is written to
+     * @param transformation  transforms src to target
+     * @param installation  installs src to target if the transformation leaves it unchanged
+     * @return the transformed artifact
+     */
+    TransformedArtifact transform(Path src, Path target, Transformation transformation, Installation installation) throws IOException {
+        final String key;
+        try {
+            key = key(src);
+        } catch (IOException e) {
+            log.verbose("Failed to compute the transformation cache key of %s: %s", src, e.getLocalizedMessage());
+            return transformation.transform();
+        }
+        final String lockName = key.substring(0, LOCK_PREFIX_LENGTH);
+        synchronized (threadLocks[Integer.parseInt(lockName, 16)]) {
+            FileChannel channel = null;
+            FileLock lock = null;
+            try {
+                channel = openLock(lockName);
+                lock = channel.lock();
+            } catch (IOException e) {
+                log.verbose("Failed to lock transformation cache entry %s: %s", key, e.getLocalizedMessage());
+                close(channel);
+                return transformation.transform();
+            }
+            try {
+                final TransformedArtifact restored = restore(key, src, target, installation);
+                if (restored != null) {
+                    return restored;
+                }
+                final TransformedArtifact transformed = transformation.transform();
+                store(key, transformed);
+                return transformed;
+            } finally {
+                try {
+                    lock.release();
+                } catch (IOException e) {
+                    // released when the channel is closed
+                }
+                close(channel);
+            }
+        }
+    }
+
+    private FileChannel openLock(String lockName) throws IOException {
+        final Path locks = dir.resolve(LOCKS_DIR);
+        Files.createDirectories(locks);
+        return FileChannel.open(locks.resolve(lockName + LOCK_SUFFIX), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    private TransformedArtifact restore(String key, Path src, Path target, Installation installation) {
+        final Path entry = dir.resolve(key);
+        final Path manifestFile = entry.resolve(MANIFEST);
+        if (!Files.exists(manifestFile)) {
+            return null;
+        }
+        try {
+            final Properties manifest = new Properties();
+            try (BufferedReader reader = Files.newBufferedReader(manifestFile)) {
+                manifest.load(reader);
+            }
+            final boolean transformed = Boolean.parseBoolean(manifest.getProperty(TRANSFORMED));
+            if (target.getParent() != null) {
+                Files.createDirectories(target.getParent());
+            }
+            if (!transformed) {
+                installation.install(src, target);
+            } else if (!Digests.copy(entry.resolve(ARTIFACT), target).equals(manifest.getProperty(SHA256))) {
+                log.verbose("Discarding corrupted transformation cache entry %s", entry);
+                Files.deleteIfExists(target);
+                IoUtils.recursiveDelete(entry);
+                return null;
+            }
+            // the manifest timestamp tracks the last use of the entry
+            Files.setLastModifiedTime(manifestFile, FileTime.fromMillis(System.currentTimeMillis()));
+            return new TransformedArtifact(src, target, transformed,
+                    Boolean.parseBoolean(manifest.getProperty(SIGNED)), Boolean.parseBoolean(manifest.getProperty(UNSIGNED)));
+        } catch (IOException e) {
+            log.verbose("Failed to restore transformation cache entry %s: %s", entry, e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    private void store(String key, TransformedArtifact transformed) {
+        final Path entry = dir.resolve(key);
+        Path tmp = null;
+        try {
+            if (Files.exists(entry)) {
+                // a corrupted entry, not restored
+                IoUtils.recursiveDelete(entry);
+            }
+            tmp = Files.createTempDirectory(dir, TMP_PREFIX);
+            final Properties manifest = new Properties();
+            manifest.setProperty(TRANSFORMED, String.valueOf(transformed.isTransformed()));
+            manifest.setProperty(SIGNED, String.valueOf(transformed.isSrcSigned()));
+            manifest.setProperty(UNSIGNED, String.valueOf(transformed.isUnsigned()));
+            if (transformed.isTransformed()) {
+                manifest.setProperty(SHA256, Digests.copy(transformed.getTarget(), tmp.resolve(ARTIFACT)));
+            }
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp.resolve(MANIFEST))) {
+                manifest.store(writer, null);
+            }
+            Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+        } catch (IOException e) {
+            log.verbose("Failed to store transformation cache entry %s: %s", entry, e.getLocalizedMessage());
+        } finally {
+            if (tmp != null) {
+                IoUtils.recursiveDelete(tmp);
+            }
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the size of the cache does not exceed its maximum size.
+     */
+    void evict() {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        final List<Path> entries = new ArrayList<>();
+        final Map<Path, FileTime> lastUsed = new HashMap<>();
+        final Map<Path, Long> sizes = new HashMap<>();
+        long totalSize = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path entry : stream) {
+                final Path manifestFile = entry.resolve(MANIFEST);
+                if (entry.getFileName().toString().startsWith(TMP_PREFIX) || !Files.exists(manifestFile)) {
+                    continue;
+                }
+                long size = 0;
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(entry)) {
+                    for (Path file : files) {
+                        size += Files.size(file);
+                    }
+                }
+                entries.add(entry);
+                lastUsed.put(entry, Files.getLastModifiedTime(manifestFile));
+                sizes.put(entry, size);
+                totalSize += size;
+            }
+        } catch (IOException e) {
+            log.verbose("Failed to evict transformation cache entries: %s", e.getLocalizedMessage());
+            return;
+        }
+        if (totalSize <= maxSize) {
+            return;
+        }
+        Collections.sort(entries, (e1, e2) -> lastUsed.get(e1).compareTo(lastUsed.get(e2)));
+        for (Path entry : entries) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+            if (evict(entry)) {
+                totalSize -= sizes.get(entry);
+            }
+        }
+    }
+
+    private boolean evict(Path entry) {
+        final String lockName = entry.getFileName().toString().substring(0, LOCK_PREFIX_LENGTH);
+        synchronized (threadLocks[Integer.parseInt(lockName, 16)]) {
+            try (FileChannel channel = openLock(lockName)) {
+                final FileLock lock = channel.tryLock();
+                if (lock == null) {
+                    // in use by another provisioning
+                    return false;
+                }
+                try {
+                    log.verbose("Evicting transformation cache entry %s", entry);
+                    IoUtils.recursiveDelete(entry);
+                } finally {
+                    lock.release();
+                }
+                return true;
+            } catch (IOException | OverlappingFileLockException e) {
+                log.verbose("Failed to evict transformation cache entry %s: %s", entry, e.getLocalizedMessage());
+                return false;
+            }
+        }
+    }
+
+    private String key(Path src) throws IOException {
+        final MessageDigest digest = Digests.newSha256();
+        Digests.update(digest, rulesHash);
+        Digests.update(digest, Digests.sha256(src));
+        return Digests.toHex(digest.digest());
+    }
+
+    /**
+     * Identifies the transformation, from the transformer location and the content of the rules.
+     */
+    static String rulesHash(Path configsDir) throws IOException {
+        final MessageDigest digest = Digests.newSha256();
+        Digests.update(digest, FORMAT_VERSION);
+        // the transformer and its default rules
+        final CodeSource transformer = JakartaTransformer.class.getProtectionDomain().getCodeSource();
+        if (transformer != null && transformer.getLocation() != null) {
+            Digests.update(digest, transformer.getLocation().toString());
+            try {
+                final Path location = Paths.get(transformer.getLocation().toURI());
+                Digests.update(digest, String.valueOf(Files.getLastModifiedTime(location).toMillis()));
+            } catch (Exception e) {
+                // identified by its location only
+            }
+        }
+        if (configsDir != null) {
+            final List<Path> files;
+            try (Stream<Path> stream = Files.walk(configsDir)) {
+                files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            }
+            for (Path file : files) {
+                Digests.update(digest, configsDir.relativize(file).toString().replace('\\', '/'));
+                Digests.update(digest, Digests.sha256(file));
+            }
+        }
+        return Digests.toHex(digest.digest());
+    }
+
+    private static void close(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignored
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin;
+
+import java.io.IOException;
+
+import org.jboss.galleon.ProvisioningException;
+
+/**
+ * Executes the Jakarta transformations of artifacts on a dedicated pool of threads, within a memory budget.
+ *
+ * The transformations are submitted by the threads processing the modules and packages, which wait for
+ * their result. The pool is separate from the provisioning one so that a thread waiting for a
+ * transformation never prevents the transformation from running. The memory used by a transformation
+ * is estimated as the size of the transformed artifact, transformations wait until their estimate fits in
+ * the budget. A transformation estimated larger than the whole budget runs alone.
+ */
+class TransformationExecutor implements AutoCloseable {
+
+    private final ProvisioningExecutor executor;
+    private final long memoryBudget;
+    private long memoryInUse;
+
+    TransformationExecutor(int parallelism, long memoryBudget) {
+        this.executor = new ProvisioningExecutor(parallelism);
+        this.memoryBudget = memoryBudget;
+    }
+
+    int getParallelism() {
+        return executor.getParallelism();
+    }
+
+    long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Executes a transformation and waits for its result.
+     *
+     * @param size  the size of the transformed artifact
+     * @param task  the transformation
+     * @return the result of the transformation
+     */
+    <T> T execute(long size, ProvisioningExecutor.Task<T> task) throws ProvisioningException, IOException {
+        final ProvisioningExecutor.Task<T> budgeted = () -> {
+            final long reserved = reserve(size);
+            try {
+                return task.execute();
+            } finally {
+                release(reserved);
+            }
+        };
+        if (!executor.isParallel()) {
+            return budgeted.execute();
+        }
+        return ProvisioningExecutor.join(executor.submit(budgeted));
+    }
+
+    private synchronized long reserve(long size) throws ProvisioningException {
+        final long reserved = Math.max(0, Math.min(size, memoryBudget));
+        try {
+            while (memoryInUse + reserved > memoryBudget) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProvisioningException("Interrupted while waiting for memory to transform an artifact", e);
+        }
+        memoryInUse += reserved;
+        return reserved;
+    }
+
+    private synchronized void release(long reserved) {
+        memoryInUse -= reserved;
+        notifyAll();
+    }
+
+    @Override
+    public void close() {
+        executor.close();
+    }
+}
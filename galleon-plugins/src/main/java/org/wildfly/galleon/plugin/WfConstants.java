@@ -53,6 +53,7 @@ public interface WfConstants {
     String PM = "pm";
     String PROFILE = "profile";
     String SCHEMA = "schema";
+    String SCHEMA_ARTIFACTS_TXT = "schema-artifacts.txt";
     String SCHEMA_GROUPS_TXT = "schema-groups.txt";
     String SCRIPTS = "scripts";
     String STANDALONE = "standalone";
@@ -17,12 +17,10 @@
 package org.wildfly.galleon.plugin;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.UncheckedIOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -30,8 +28,6 @@ import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileAlreadyExistsException;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
 import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
@@ -39,8 +35,8 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
-import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -87,12 +83,12 @@ import org.jboss.galleon.universe.maven.MavenArtifact;
 import org.jboss.galleon.universe.maven.repo.MavenRepoManager;
 import org.jboss.galleon.util.IoUtils;
 import org.jboss.galleon.util.CollectionUtils;
-import org.jboss.galleon.util.ZipUtils;
 import org.wildfly.galleon.plugin.config.CopyArtifact;
 import org.wildfly.galleon.plugin.config.CopyPath;
 import org.wildfly.galleon.plugin.config.DeletePath;
 import org.wildfly.galleon.plugin.config.ExampleFpConfigs;
-import org.wildfly.galleon.plugin.config.FileFilter;
+import org.wildfly.galleon.plugin.config.FilePermission;
+import org.wildfly.galleon.plugin.config.FilePermissions;
 import org.wildfly.galleon.plugin.config.XslTransform;
 import org.wildfly.galleon.plugin.server.CliScriptRunner;
 import org.wildfly.galleon.plugin.transformer.JakartaTransformer;
@@ -146,6 +142,53 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
             .setBooleanValueSet()
             .build();
     private static final ProvisioningOption OPTION_OVERRIDDEN_ARTIFACTS = ProvisioningOption.builder("jboss-overridden-artifacts").setPersistent(true).build();
+    private static final ProvisioningOption OPTION_PROVISIONING_THREADS = ProvisioningOption.builder("jboss-provisioning-threads")
+            .setPersistent(false)
+            .build();
+    // Opt-in, off by default: installs the artifacts as hard links to the local maven repository instead of copies.
+    // The provisioning replaces the files it updates, but the installed artifacts share their content with the
+    // repository, a later write to an installed artifact in place (e.g. by a patching tool) also changes the
+    // repository file. Only to be enabled when the installation is not modified in place.
+    private static final ProvisioningOption OPTION_LINK_ARTIFACTS = ProvisioningOption.builder("jboss-link-artifacts")
+            .setPersistent(false)
+            .setBooleanValueSet()
+            .build();
+    private static final ProvisioningOption OPTION_MODULE_CACHE = ProvisioningOption.builder("jboss-module-cache")
+            .setPersistent(false)
+            .build();
+    private static final ProvisioningOption OPTION_MODULE_CACHE_MAX_SIZE = ProvisioningOption.builder("jboss-module-cache-max-size")
+            .setPersistent(false)
+            .build();
+    private static final long DEFAULT_MODULE_CACHE_MAX_SIZE_MB = 2048;
+    private static final ProvisioningOption OPTION_JAKARTA_TRANSFORM_CACHE = ProvisioningOption.builder("jboss-jakarta-transform-cache")
+            .setPersistent(false)
+            .build();
+    private static final ProvisioningOption OPTION_JAKARTA_TRANSFORM_CACHE_MAX_SIZE = ProvisioningOption.builder("jboss-jakarta-transform-cache-max-size")
+            .setPersistent(false)
+            .build();
+    private static final long DEFAULT_JAKARTA_TRANSFORM_CACHE_MAX_SIZE_MB = 4096;
+    private static final ProvisioningOption OPTION_JAKARTA_TRANSFORM_THREADS = ProvisioningOption.builder("jboss-jakarta-transform-threads")
+            .setPersistent(false)
+            .build();
+    private static final ProvisioningOption OPTION_JAKARTA_TRANSFORM_MEMORY = ProvisioningOption.builder("jboss-jakarta-transform-memory")
+            .setPersistent(false)
+            .build();
+    private static final ProvisioningOption OPTION_JANDEX_THREADS = ProvisioningOption.builder("jboss-jandex-threads")
+            .setPersistent(false)
+            .build();
+    private static final ProvisioningOption OPTION_JANDEX_CACHE = ProvisioningOption.builder("jboss-jandex-cache")
+            .setPersistent(false)
+            .build();
+    private static final ProvisioningOption OPTION_JANDEX_CACHE_MAX_SIZE = ProvisioningOption.builder("jboss-jandex-cache-max-size")
+            .setPersistent(false)
+            .build();
+    private static final long DEFAULT_JANDEX_CACHE_MAX_SIZE_MB = 512;
+    private static final ProvisioningOption OPTION_INCREMENTAL = ProvisioningOption.builder("jboss-incremental-provisioning")
+            .setBooleanValueSet()
+            .build();
+    private static final ProvisioningOption OPTION_METRICS_REPORT = ProvisioningOption.builder("jboss-provisioning-metrics")
+            .setPersistent(false)
+            .build();
     private ProvisioningRuntime runtime;
     MessageWriter log;
 
@@ -159,8 +202,15 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
     private boolean thinServer;
 
     private Set<String> schemaGroups = Collections.emptySet();
+    // whether the artifacts of the schema groups contain schemas, recorded when the feature-packs were built
+    private Map<String, String> schemaArtifacts = Collections.emptyMap();
+    // schema groups of the feature-packs built without the schema artifacts
+    private Set<String> unindexedSchemaGroups = Collections.emptySet();
+    private SchemaExtractor schemaExtractor;
 
     private List<WildFlyPackageTask> finalizingTasks = Collections.emptyList();
+    // line endings and permissions collected while the tasks of a stage are executed
+    private final StagedDirTasks stagedDirTasks = new StagedDirTasks();
     private List<PackageRuntime> finalizingTasksPkgs = Collections.emptyList();
 
     private DocumentBuilderFactory docBuilderFactory;
@@ -186,11 +236,32 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
     private AbstractArtifactInstaller artifactInstaller;
     private ArtifactResolver artifactResolver;
 
+    private ProvisioningExecutor executor;
+    private ModuleCache moduleCache;
+    private TransformationCache transformationCache;
+    private TransformationExecutor transformationExecutor;
+    // keeps the Jakarta transformers and transformed entries for the provisioning
+    private JakartaTransformer.Session transformationSession;
+    private ProvisioningExecutor jandexExecutor;
+    private JandexCache jandexCache;
+    // artifacts of a thin server installed with their Jandex index, indexed while they are transformed
+    private final Set<String> jandexArtifacts = new HashSet<>();
+    // the modules installed by this provisioning and by the installation being updated, in incremental mode
+    private InstalledModules installedModules;
+    private InstalledModules previousModules;
+    private ProvisioningMetrics metrics;
+    private Path metricsReport;
+
     @Override
     protected List<ProvisioningOption> initPluginOptions() {
         return Arrays.asList(OPTION_MVN_DIST, OPTION_DUMP_CONFIG_SCRIPTS,
                 OPTION_FORK_EMBEDDED, OPTION_MVN_REPO, OPTION_JAKARTA_TRANSFORM_ARTIFACTS,
-                OPTION_MVN_PROVISIONING_REPO, OPTION_JAKARTA_TRANSFORM_ARTIFACTS_VERBOSE, OPTION_OVERRIDDEN_ARTIFACTS);
+                OPTION_MVN_PROVISIONING_REPO, OPTION_JAKARTA_TRANSFORM_ARTIFACTS_VERBOSE, OPTION_OVERRIDDEN_ARTIFACTS,
+                OPTION_PROVISIONING_THREADS, OPTION_MODULE_CACHE, OPTION_MODULE_CACHE_MAX_SIZE,
+                OPTION_LINK_ARTIFACTS, OPTION_INCREMENTAL, OPTION_METRICS_REPORT,
+                OPTION_JAKARTA_TRANSFORM_CACHE, OPTION_JAKARTA_TRANSFORM_CACHE_MAX_SIZE,
+                OPTION_JAKARTA_TRANSFORM_THREADS, OPTION_JAKARTA_TRANSFORM_MEMORY, OPTION_JANDEX_THREADS,
+                OPTION_JANDEX_CACHE, OPTION_JANDEX_CACHE_MAX_SIZE);
     }
 
     public ProvisioningRuntime getRuntime() {
@@ -245,6 +316,158 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
         return value == null ? true : Boolean.parseBoolean(value);
     }
 
+    private int getProvisioningThreads() throws ProvisioningException {
+        return getThreads(OPTION_PROVISIONING_THREADS, 1);
+    }
+
+    private int getThreads(ProvisioningOption option, int defaultThreads) throws ProvisioningException {
+        if (!runtime.isOptionSet(option)) {
+            return defaultThreads;
+        }
+        final String value = runtime.getOptionValue(option);
+        if (value == null) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        try {
+            final int threads = Integer.parseInt(value.trim());
+            if (threads > 0) {
+                return threads;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new ProvisioningException("Option " + option.getName()
+                + " expects a positive number of threads, got " + value);
+    }
+
+    private TransformationExecutor getTransformationExecutor(int provisioningThreads) throws ProvisioningException {
+        final int threads = getThreads(OPTION_JAKARTA_TRANSFORM_THREADS, provisioningThreads);
+        long memoryMb = Runtime.getRuntime().maxMemory() / 2 / (1024 * 1024);
+        if (runtime.isOptionSet(OPTION_JAKARTA_TRANSFORM_MEMORY)) {
+            final String memory = runtime.getOptionValue(OPTION_JAKARTA_TRANSFORM_MEMORY);
+            try {
+                memoryMb = memory == null ? -1 : Long.parseLong(memory.trim());
+            } catch (NumberFormatException e) {
+                memoryMb = -1;
+            }
+            if (memoryMb <= 0) {
+                throw new ProvisioningException("Option " + OPTION_JAKARTA_TRANSFORM_MEMORY.getName()
+                        + " expects the memory available to the Jakarta transformations in megabytes, got " + memory);
+            }
+        }
+        return new TransformationExecutor(threads, memoryMb * 1024 * 1024);
+    }
+
+    TransformationExecutor getTransformationExecutor() {
+        return transformationExecutor;
+    }
+
+    ProvisioningExecutor getJandexExecutor() {
+        return jandexExecutor;
+    }
+
+    private boolean isLinkArtifacts() throws ProvisioningException {
+        if (!runtime.isOptionSet(OPTION_LINK_ARTIFACTS)) {
+            return false;
+        }
+        final String value = runtime.getOptionValue(OPTION_LINK_ARTIFACTS);
+        return value == null ? true : Boolean.parseBoolean(value);
+    }
+
+    private boolean isIncremental() throws ProvisioningException {
+        if (!runtime.isOptionSet(OPTION_INCREMENTAL)) {
+            return false;
+        }
+        final String value = runtime.getOptionValue(OPTION_INCREMENTAL);
+        return value == null ? true : Boolean.parseBoolean(value);
+    }
+
+    private Path getMetricsReport() throws ProvisioningException {
+        if (!runtime.isOptionSet(OPTION_METRICS_REPORT)) {
+            return null;
+        }
+        final String value = runtime.getOptionValue(OPTION_METRICS_REPORT);
+        if (value == null) {
+            throw new ProvisioningException("Option " + OPTION_METRICS_REPORT.getName() + " expects the path to the metrics report file");
+        }
+        return Paths.get(value).toAbsolutePath();
+    }
+
+    private ModuleCache getModuleCache() throws ProvisioningException {
+        if (!runtime.isOptionSet(OPTION_MODULE_CACHE)) {
+            return null;
+        }
+        final String value = runtime.getOptionValue(OPTION_MODULE_CACHE);
+        if (value == null) {
+            throw new ProvisioningException("Option " + OPTION_MODULE_CACHE.getName() + " expects the path to the module cache directory");
+        }
+        final long maxSize = getMaxSize(OPTION_MODULE_CACHE_MAX_SIZE, DEFAULT_MODULE_CACHE_MAX_SIZE_MB, "module cache");
+        return new ModuleCache(Paths.get(value).toAbsolutePath(), maxSize, log);
+    }
+
+    /**
+     * @param option  an option setting the maximum size of a cache in megabytes
+     * @param defaultSizeMb  the size if the option is not set
+     * @param cacheName  the name of the cache, for the error message
+     * @return the maximum size in bytes
+     */
+    private long getMaxSize(ProvisioningOption option, long defaultSizeMb, String cacheName) throws ProvisioningException {
+        if (!runtime.isOptionSet(option)) {
+            return defaultSizeMb * 1024 * 1024;
+        }
+        final String value = runtime.getOptionValue(option);
+        long maxSizeMb;
+        try {
+            maxSizeMb = value == null ? -1 : Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            maxSizeMb = -1;
+        }
+        if (maxSizeMb < 0) {
+            throw new ProvisioningException("Option " + option.getName()
+                    + " expects the maximum size of the " + cacheName + " in megabytes, got " + value);
+        }
+        return maxSizeMb * 1024 * 1024;
+    }
+
+    private TransformationCache getTransformationCache(Path configsDir) throws ProvisioningException {
+        if (!runtime.isOptionSet(OPTION_JAKARTA_TRANSFORM_CACHE)) {
+            return null;
+        }
+        final String value = runtime.getOptionValue(OPTION_JAKARTA_TRANSFORM_CACHE);
+        final Path dir = value == null ? Paths.get(System.getProperty("user.home"), ".galleon", "jakarta-transform-cache") : Paths.get(value);
+        final long maxSize = getMaxSize(OPTION_JAKARTA_TRANSFORM_CACHE_MAX_SIZE, DEFAULT_JAKARTA_TRANSFORM_CACHE_MAX_SIZE_MB, "Jakarta transformation cache");
+        try {
+            return new TransformationCache(dir.toAbsolutePath(), maxSize, configsDir, log);
+        } catch (IOException e) {
+            throw new ProvisioningException(Errors.readDirectory(configsDir), e);
+        }
+    }
+
+    TransformationCache getTransformationCache() {
+        return transformationCache;
+    }
+
+    private JandexCache createJandexCache() throws ProvisioningException {
+        if (!runtime.isOptionSet(OPTION_JANDEX_CACHE)) {
+            return null;
+        }
+        final String value = runtime.getOptionValue(OPTION_JANDEX_CACHE);
+        final Path dir = value == null ? Paths.get(System.getProperty("user.home"), ".galleon", "jandex-cache") : Paths.get(value);
+        final long maxSize = getMaxSize(OPTION_JANDEX_CACHE_MAX_SIZE, DEFAULT_JANDEX_CACHE_MAX_SIZE_MB, "Jandex cache");
+        return new JandexCache(dir.toAbsolutePath(), maxSize, log);
+    }
+
+    JandexCache getJandexCache() {
+        return jandexCache;
+    }
+
+    /**
+     * @return true if the Jandex index of the artifact is installed to the generated maven repository
+     */
+    boolean isJandexArtifact(MavenArtifact artifact) {
+        return jandexArtifacts.contains(artifactKey(artifact));
+    }
+
     @Override
     public void preInstall(ProvisioningRuntime runtime) throws ProvisioningException {
         final FsDiff fsDiff = runtime.getFsDiff();
@@ -263,14 +486,37 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
      */
     @Override
     public void postInstall(ProvisioningRuntime runtime) throws ProvisioningException {
+        try {
+            doPostInstall(runtime);
+        } finally {
+            if (executor != null) {
+                executor.close();
+            }
+            if (transformationExecutor != null) {
+                transformationExecutor.close();
+            }
+            if (transformationSession != null) {
+                transformationSession.close();
+                transformationSession = null;
+            }
+            if (jandexExecutor != null) {
+                jandexExecutor.close();
+            }
+        }
+    }
+
+    private void doPostInstall(ProvisioningRuntime runtime) throws ProvisioningException {
 
         final long startTime = runtime.isLogTime() ? System.nanoTime() : -1;
         this.runtime = runtime;
         log = runtime.getMessageWriter();
         log.verbose("WildFly Galleon Installation Plugin");
+        metricsReport = getMetricsReport();
+        metrics = new ProvisioningMetrics(metricsReport != null);
 
         thinServer = isThinServer();
         generatedMavenRepo = getGeneratedMavenRepo();
+        jandexArtifacts.clear();
         if (generatedMavenRepo != null) {
             IoUtils.recursiveDelete(generatedMavenRepo);
         }
@@ -310,15 +556,27 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
             if(fp.containsPackage(WfConstants.DOCS_SCHEMA)) {
                 final Path schemaGroupsTxt = fp.getPackage(WfConstants.DOCS_SCHEMA).getResource(
                         WfConstants.PM, WfConstants.WILDFLY, WfConstants.SCHEMA_GROUPS_TXT);
+                final Path schemaArtifactsTxt = schemaGroupsTxt.resolveSibling(WfConstants.SCHEMA_ARTIFACTS_TXT);
+                final boolean indexed = Files.exists(schemaArtifactsTxt);
                 try(BufferedReader reader = Files.newBufferedReader(schemaGroupsTxt)) {
                     String line = reader.readLine();
                     while(line != null) {
                         schemaGroups = CollectionUtils.add(schemaGroups, line);
+                        if (!indexed) {
+                            unindexedSchemaGroups = CollectionUtils.add(unindexedSchemaGroups, line);
+                        }
                         line = reader.readLine();
                     }
                 } catch (IOException e) {
                     throw new ProvisioningException(Errors.readFile(schemaGroupsTxt), e);
                 }
+                if (indexed) {
+                    // the indexes of all the feature-packs are merged, an artifact referenced by the modules of
+                    // another feature-pack may be recorded by that feature-pack only
+                    for (Map.Entry<String, String> entry : Utils.readProperties(schemaArtifactsTxt).entrySet()) {
+                        schemaArtifacts = CollectionUtils.put(schemaArtifacts, entry.getKey(), entry.getValue());
+                    }
+                }
             }
             final Path excludedArtifacts = wfRes.resolve(WfConstants.WILDFLY_JAKARTA_TRANSFORM_EXCLUDES);
             if (Files.exists(excludedArtifacts)) {
@@ -345,9 +603,10 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
         // We must create resolver and installer at this point, prior to process the packges.
         // The CopyArtifact tasks could need the resolver and installer we are instantiating there.
         boolean transformableFeaturePack = Boolean.valueOf(mergedTaskProps.getOrDefault(JakartaTransformer.TRANSFORM_ARTIFACTS, "false"));
+        final boolean linkArtifacts = isLinkArtifacts();
         if (!transformableFeaturePack) {
-            artifactResolver = this::resolveMaven;
-            artifactInstaller = new SimpleArtifactInstaller(artifactResolver, generatedMavenRepo);
+            artifactResolver = sharedResolver(this::resolveMaven);
+            artifactInstaller = new SimpleArtifactInstaller(artifactResolver, generatedMavenRepo, linkArtifacts, metrics);
         } else {
             String jakartaTransformSuffix = mergedTaskProps.getOrDefault(JAKARTA_TRANSFORM_SUFFIX_KEY, "");
             boolean jakartaTransformVerbose = isVerboseTransformation();
@@ -363,6 +622,16 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
                 }
             };
             if (isTransformationEnabled()) {
+                transformationCache = getTransformationCache(jakartaTransformConfigsDir);
+                if (transformationCache != null) {
+                    log.verbose("Using Jakarta transformation cache %s", transformationCache.getDir());
+                }
+                transformationExecutor = getTransformationExecutor(getProvisioningThreads());
+                transformationSession = JakartaTransformer.openSession();
+                if (transformationExecutor.getParallelism() > 1) {
+                    log.verbose("Using %s Jakarta transformation threads within %s MB", transformationExecutor.getParallelism(),
+                            transformationExecutor.getMemoryBudget() / (1024 * 1024));
+                }
                 // Artifacts are transformed, no provisioning repository can be set
                 if (provisioningMavenRepo != null) {
                     throw new ProvisioningException("Jakarta transformation is enabled, option " +
@@ -372,8 +641,8 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
                     throw new ProvisioningException("Jakarta transformation is enabled for thin server, option " +
                             OPTION_MVN_REPO.getName() + " is required.");
                 }
-                artifactResolver = this::resolveMaven;
-                artifactInstaller = new EE9ArtifactTransformerInstaller(artifactResolver, generatedMavenRepo, transformExcluded, this,
+                artifactResolver = sharedResolver(this::resolveMaven);
+                artifactInstaller = new EE9ArtifactTransformerInstaller(artifactResolver, generatedMavenRepo, linkArtifacts, metrics, transformExcluded, this,
                         jakartaTransformSuffix, jakartaTransformConfigsDir, logHandler, jakartaTransformVerbose, runtime);
             } else {
                 // Disabled transformation, we must have a provisioning repository
@@ -381,17 +650,44 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
                     throw new ProvisioningException("Jakarta transformation is disabled, " +
                             OPTION_MVN_PROVISIONING_REPO.getName() +" must be set");
                 }
-                artifactResolver = new ArtifactResolver() {
+                artifactResolver = sharedResolver(new ArtifactResolver() {
                     @Override
                     public void resolve(MavenArtifact artifact) throws ProvisioningException {
                         resolveMaven(artifact, jakartaTransformSuffix);
                     }
-                };
-                artifactInstaller = new EE9ArtifactInstaller(artifactResolver, generatedMavenRepo, transformExcluded, this,
+                });
+                artifactInstaller = new EE9ArtifactInstaller(artifactResolver, generatedMavenRepo, linkArtifacts, metrics, transformExcluded, this,
                         jakartaTransformSuffix, jakartaTransformConfigsDir, logHandler, jakartaTransformVerbose, runtime, provisioningMavenRepo);
             }
         }
 
+        executor = new ProvisioningExecutor(getProvisioningThreads());
+        schemaExtractor = new SchemaExtractor(runtime.getStagedDir().resolve(WfConstants.DOCS).resolve(WfConstants.SCHEMA), log);
+        if (executor.isParallel()) {
+            log.verbose("Using %s provisioning threads", executor.getParallelism());
+        }
+        // separate from the provisioning executor, the modules being processed wait for their jars to be indexed
+        jandexExecutor = new ProvisioningExecutor(getThreads(OPTION_JANDEX_THREADS, executor.getParallelism()));
+        moduleCache = getModuleCache();
+        if (moduleCache != null) {
+            log.verbose("Using module cache %s", moduleCache.getDir());
+        }
+        jandexCache = createJandexCache();
+        if (jandexCache != null) {
+            log.verbose("Using Jandex cache %s", jandexCache.getDir());
+        }
+        if (isIncremental()) {
+            installedModules = new InstalledModules();
+            final FsDiff fsDiff = runtime.getFsDiff();
+            if (fsDiff != null) {
+                final Path home = fsDiff.getOtherRoot().getPath();
+                try {
+                    previousModules = InstalledModules.load(home, fsDiff.hasModifiedEntries() ? fsDiff.getModifiedPaths() : Collections.emptySet());
+                } catch (IOException e) {
+                    throw new ProvisioningException(Errors.readFile(home), e);
+                }
+            }
+        }
         final ProvisioningLayoutFactory layoutFactory = runtime.getLayout().getFactory();
         pkgProgressTracker = layoutFactory.getProgressTracker(ProvisioningLayoutFactory.TRACK_PACKAGES);
         long pkgsTotal = 0;
@@ -399,11 +695,13 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
             pkgsTotal += fp.getPackageNames().size();
         }
         pkgProgressTracker.starting(pkgsTotal);
-        for(FeaturePackRuntime fp : runtime.getFeaturePacks()) {
-            processPackages(fp);
-        }
+        metrics.startPhase(ProvisioningMetrics.PHASE_PACKAGES);
+        processPackages();
+        stagedDirTasks.apply(runtime.getStagedDir(), executor);
+        metrics.endPhase();
         pkgProgressTracker.complete();
         if (!jbossModules.isEmpty()) {
+            metrics.startPhase(ProvisioningMetrics.PHASE_MODULE_TEMPLATES);
             if (transformableFeaturePack && !exampleConfigs.isEmpty()) {
                 // Track where we store transformed artifacts so we can configure the embedded
                 // server to point there when we generate example configs
@@ -411,23 +709,55 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
             }
             final ProgressTracker<PackageRuntime> modulesTracker = layoutFactory.getProgressTracker("JBMODULES");
             modulesTracker.starting(jbossModules.size());
+            // Modules are independent from each other, the artifacts they share are resolved and installed once
+            // by the artifact resolver and installer.
+            final List<ProvisioningExecutor.Task<Void>> moduleTasks = new ArrayList<>(jbossModules.size());
             for (Map.Entry<Path, PackageRuntime> entry : jbossModules.entrySet()) {
                 final PackageRuntime pkg = entry.getValue();
-                modulesTracker.processing(pkg);
+                final Path moduleXml = entry.getKey();
+                moduleTasks.add(() -> {
+                    synchronized (modulesTracker) {
+                        modulesTracker.processing(pkg);
+                    }
+                    try {
+                        processModuleTemplate(pkg, moduleXml);
+                    } catch (IOException e) {
+                        throw new ProvisioningException("Failed to process JBoss module XML template for feature-pack "
+                                + pkg.getFeaturePackRuntime().getFPID() + " package " + pkg.getName(), e);
+                    }
+                    synchronized (modulesTracker) {
+                        modulesTracker.processed(pkg);
+                    }
+                    return null;
+                });
+            }
+            invokeAll(moduleTasks);
+            modulesTracker.complete();
+            if (moduleCache != null) {
+                moduleCache.evict();
+            }
+            if (transformationCache != null) {
+                transformationCache.evict();
+            }
+            if (jandexCache != null) {
+                jandexCache.evict();
+            }
+            if (installedModules != null) {
                 try {
-                    processModuleTemplate(pkg, entry.getKey());
+                    installedModules.store(runtime.getStagedDir());
                 } catch (IOException e) {
-                    throw new ProvisioningException("Failed to process JBoss module XML template for feature-pack "
-                            + pkg.getFeaturePackRuntime().getFPID() + " package " + pkg.getName(), e);
+                    throw new ProvisioningException("Failed to record the installed modules", e);
                 }
-                modulesTracker.processed(pkg);
             }
-            modulesTracker.complete();
+            metrics.endPhase();
         }
+        extractSchemas();
 
         final Path layersConf = runtime.getStagedDir().resolve(WfConstants.MODULES).resolve(WfConstants.LAYERS_CONF);
         if (Files.exists(layersConf)) {
+            metrics.startPhase(ProvisioningMetrics.PHASE_LAYERS_MERGE);
             mergeLayerConfs(runtime);
+            metrics.endPhase();
         }
 
         String originalMavenRepoLocal = System.getProperty(MAVEN_REPO_LOCAL);
@@ -453,6 +783,7 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
             }
         }
 
+        metrics.startPhase(ProvisioningMetrics.PHASE_CONFIG_GENERATION);
         try {
             generateConfigs(runtime);
         } finally {
@@ -462,6 +793,7 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
                 System.setProperty(MAVEN_REPO_LOCAL, originalMavenRepoLocal);
             }
         }
+        metrics.startPhase(ProvisioningMetrics.PHASE_FINALIZE_CLI);
         // TODO this needs to be revisited
         for(FeaturePackRuntime fp : runtime.getFeaturePacks()) {
             final Path finalizeCli = fp.getResource(WfConstants.WILDFLY, WfConstants.SCRIPTS, "finalize.cli");
@@ -469,15 +801,31 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
                 CliScriptRunner.runCliScript(runtime.getStagedDir(), finalizeCli, log);
             }
         }
+        metrics.endPhase();
 
         if(!finalizingTasks.isEmpty()) {
+            metrics.startPhase(ProvisioningMetrics.PHASE_FINALIZING_TASKS);
             for(int i = 0; i < finalizingTasks.size(); ++i) {
-                finalizingTasks.get(i).execute(this, finalizingTasksPkgs.get(i));
+                execute(finalizingTasks.get(i), finalizingTasksPkgs.get(i));
             }
+            stagedDirTasks.apply(runtime.getStagedDir(), executor);
+            metrics.endPhase();
+            extractSchemas();
         }
 
         if(!exampleConfigs.isEmpty()) {
+            metrics.startPhase(ProvisioningMetrics.PHASE_EXAMPLE_CONFIGS);
             provisionExampleConfigs(transformableFeaturePack);
+            metrics.endPhase();
+        }
+
+        if (metricsReport != null) {
+            try {
+                metrics.write(metricsReport);
+            } catch (IOException e) {
+                throw new ProvisioningException(Errors.writeFile(metricsReport), e);
+            }
+            log.verbose("Provisioning metrics written to %s", metricsReport);
         }
 
         if (startTime > 0) {
@@ -692,43 +1040,274 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
         }
     }
 
-    private void processPackages(final FeaturePackRuntime fp) throws ProvisioningException {
-        log.verbose("Processing %s packages", fp.getFPID());
-        for(PackageRuntime pkg : fp.getPackages()) {
-            pkgProgressTracker.processing(pkg);
-            final Path pmWfDir = pkg.getResource(WfConstants.PM, WfConstants.WILDFLY);
-            if(!Files.exists(pmWfDir)) {
-                pkgProgressTracker.processed(pkg);
+    private void processPackages() throws ProvisioningException {
+        final List<ProvisioningExecutor.Task<PackageContent>> scans = new ArrayList<>();
+        for(FeaturePackRuntime fp : runtime.getFeaturePacks()) {
+            for(PackageRuntime pkg : fp.getPackages()) {
+                scans.add(() -> PackageContent.scan(pkg));
+            }
+        }
+        final List<PackageContent> pkgs = invokeAll(scans);
+        registerModuleTemplates(pkgs);
+        prefetchArtifacts(pkgs);
+
+        final Path stagedDir = runtime.getStagedDir();
+        try {
+            Files.createDirectories(stagedDir);
+        } catch (IOException e) {
+            throw new ProvisioningException(Errors.mkdirs(stagedDir), e);
+        }
+        FPID currentFp = null;
+        int i = 0;
+        while(i < pkgs.size()) {
+            final PackageContent content = pkgs.get(i);
+            final FPID fpid = content.getPackage().getFeaturePackRuntime().getFPID();
+            if(!fpid.equals(currentFp)) {
+                log.verbose("Processing %s packages", fpid);
+                currentFp = fpid;
+            }
+            if(content.hasTasks()) {
+                processPackage(content);
+                ++i;
                 continue;
             }
-            final Path moduleDir = pmWfDir.resolve(WfConstants.MODULE);
-            if(Files.exists(moduleDir)) {
-                processModules(pkg, moduleDir);
-            }
-            final Path tasksXml = pmWfDir.resolve(WfConstants.TASKS_XML);
-            if (Files.exists(tasksXml)) {
-                final WildFlyPackageTasks pkgTasks = WildFlyPackageTasks.load(tasksXml);
-                if (pkgTasks.hasTasks()) {
-                    log.verbose("Processing %s package %s tasks", fp.getFPID(), pkg.getName());
-                    for (WildFlyPackageTask task : pkgTasks.getTasks()) {
-                        if (task.getPhase() == WildFlyPackageTask.Phase.PROCESSING) {
-                            task.execute(this, pkg);
-                        } else {
-                            finalizingTasks = CollectionUtils.add(finalizingTasks, task);
-                            finalizingTasksPkgs = CollectionUtils.add(finalizingTasksPkgs, pkg);
-                        }
+            // Packages that come without tasks only contribute JBoss Modules content, they can be copied concurrently
+            int end = i + 1;
+            while(end < pkgs.size() && !pkgs.get(end).hasTasks()
+                    && fpid.equals(pkgs.get(end).getPackage().getFeaturePackRuntime().getFPID())) {
+                ++end;
+            }
+            stagedDirTasks.apply(stagedDir, executor);
+            copyModules(pkgs.subList(i, end));
+            i = end;
+        }
+    }
+
+    /**
+     * Resolves the artifacts referenced by the module templates and the copy-artifact tasks (and their pom files
+     * when the installer needs them) concurrently, before the content is installed. The resolved artifacts are
+     * memoized by the artifact resolver. All the artifacts that could not be resolved are reported at once.
+     */
+    private void prefetchArtifacts(List<PackageContent> pkgs) throws ProvisioningException {
+        final Map<String, MavenArtifact> artifacts = new LinkedHashMap<>();
+        final List<String> errors = new ArrayList<>();
+        for (Map.Entry<Path, PackageRuntime> entry : jbossModules.entrySet()) {
+            final PackageRuntime pkg = entry.getValue();
+            final Map<String, String> versionProps = fpArtifactVersions.get(pkg.getFeaturePackRuntime().getFPID().getProducer());
+            final Path moduleTemplateFile = pkg.getResource(WfConstants.PM, WfConstants.WILDFLY, WfConstants.MODULE).resolve(entry.getKey());
+            final List<String> artifactNames;
+            try {
+                final ModuleTemplate moduleTemplate = ModuleTemplate.load(pkg, moduleTemplateFile, null);
+                final String moduleKey = getModuleKey(pkg, moduleTemplateFile, moduleTemplate);
+                if (moduleKey != null && (moduleCache != null && moduleCache.contains(moduleKey)
+                        || previousModules != null && previousModules.getReusableFiles(toModulePath(entry.getKey()), moduleKey) != null)) {
+                    // the artifacts of a reused module are not needed, unless it can't be restored after all
+                    continue;
+                }
+                artifactNames = moduleTemplate.isModule() ? moduleTemplate.getArtifactNames() : Collections.emptyList();
+            } catch (IOException e) {
+                throw new ProvisioningException("Failed to process JBoss module XML template for feature-pack "
+                        + pkg.getFeaturePackRuntime().getFPID() + " package " + pkg.getName(), e);
+            }
+            for (String artifactName : artifactNames) {
+                final String coords = AbstractModuleTemplateProcessor.getArtifactCoords(artifactName, versionProps);
+                if (coords != null) {
+                    final MavenArtifact artifact = addPrefetchedArtifact(versionProps, coords, false, artifacts, errors);
+                    if (artifact != null && thinServer && generatedMavenRepo != null
+                            && AbstractModuleTemplateProcessor.isJandex(artifactName)) {
+                        jandexArtifacts.add(artifactKey(artifact));
                     }
                 }
-                if (pkgTasks.hasMkDirs()) {
-                    mkdirs(pkgTasks, this.runtime.getStagedDir());
+            }
+        }
+        for (PackageContent content : pkgs) {
+            if (!content.hasTasks()) {
+                continue;
+            }
+            for (WildFlyPackageTask task : content.getTasks().getTasks()) {
+                if (task instanceof CopyArtifact) {
+                    final CopyArtifact copyArtifact = (CopyArtifact) task;
+                    addPrefetchedArtifact(copyArtifact.isFeaturePackVersion()
+                            ? fpArtifactVersions.get(content.getPackage().getFeaturePackRuntime().getFPID().getProducer())
+                            : mergedArtifactVersions, copyArtifact.getArtifact(), copyArtifact.isOptional(), artifacts, errors);
                 }
+            }
+        }
+        for (MavenArtifact artifact : new ArrayList<>(artifacts.values())) {
+            if (artifactInstaller.isPomRequired(artifact)) {
+                final MavenArtifact pomArtifact = AbstractArtifactInstaller.getPomArtifact(artifact);
+                artifacts.putIfAbsent(artifactKey(pomArtifact), pomArtifact);
+            }
+        }
+        log.verbose("Resolving %s artifacts", artifacts.size());
+        final List<ProvisioningExecutor.Task<String>> resolutions = new ArrayList<>(artifacts.size());
+        for (MavenArtifact artifact : artifacts.values()) {
+            resolutions.add(() -> {
+                try {
+                    artifactResolver.resolve(artifact);
+                } catch (ProvisioningException e) {
+                    return artifact + ": " + e.getLocalizedMessage();
+                }
+                return null;
+            });
+        }
+        for (String error : invokeAll(resolutions)) {
+            if (error != null) {
+                errors.add(error);
+            }
+        }
+        if (!errors.isEmpty()) {
+            final StringBuilder buf = new StringBuilder("Failed to resolve artifacts:");
+            for (String error : errors) {
+                buf.append(System.lineSeparator()).append(" - ").append(error);
+            }
+            throw new ProvisioningException(buf.toString());
+        }
+    }
+
+    /**
+     * @return the artifact or null if it is optional and not found or its coordinates are invalid
+     */
+    private static MavenArtifact addPrefetchedArtifact(Map<String, String> versionProps, String coords, boolean optional,
+            Map<String, MavenArtifact> artifacts, List<String> errors) {
+        final MavenArtifact artifact;
+        try {
+            artifact = Utils.toArtifactCoords(versionProps, coords, optional);
+        } catch (ProvisioningException e) {
+            errors.add(coords + ": " + e.getLocalizedMessage());
+            return null;
+        }
+        if (artifact != null) {
+            artifacts.putIfAbsent(artifactKey(artifact), artifact);
+        }
+        return artifact;
+    }
+
+    private void registerModuleTemplates(List<PackageContent> pkgs) {
+        for(PackageContent content : pkgs) {
+            final PackageRuntime pkg = content.getPackage();
+            for(Path moduleXml : content.getModuleTemplates()) {
+                final PackageRuntime overriddenPkg = jbossModules.put(moduleXml, pkg);
+                if (overriddenPkg != null) {
+                    if(log.isVerboseEnabled()) {
+                        log.verbose("Feature-pack " + pkg.getFeaturePackRuntime().getFPID() + " package " + pkg.getName() +
+                        " override jboss-module from feature-pack " + overriddenPkg.getFeaturePackRuntime().getFPID() +
+                        " package " + overriddenPkg.getName());
+                    }
+                }
+            }
+        }
+    }
+
+    private void processPackage(PackageContent content) throws ProvisioningException {
+        final PackageRuntime pkg = content.getPackage();
+        pkgProcessing(pkg);
+        if (content.hasModules()) {
+            stagedDirTasks.apply(runtime.getStagedDir(), executor);
+            copyModules(content, content.getModuleFiles());
+        }
+        final WildFlyPackageTasks pkgTasks = content.getTasks();
+        if (pkgTasks.hasTasks()) {
+            log.verbose("Processing %s package %s tasks", pkg.getFeaturePackRuntime().getFPID(), pkg.getName());
+            for (WildFlyPackageTask task : pkgTasks.getTasks()) {
+                if (task.getPhase() == WildFlyPackageTask.Phase.PROCESSING) {
+                    execute(task, pkg);
+                } else {
+                    finalizingTasks = CollectionUtils.add(finalizingTasks, task);
+                    finalizingTasksPkgs = CollectionUtils.add(finalizingTasksPkgs, pkg);
+                }
+            }
+        }
+        if (pkgTasks.hasMkDirs()) {
+            stagedDirTasks.apply(runtime.getStagedDir(), executor);
+            mkdirs(pkgTasks, this.runtime.getStagedDir());
+        }
+
+        stagedDirTasks.addLineEndings(pkgTasks.getUnixLineEndFilters(), pkgTasks.getWindowsLineEndFilters());
+        pkgProcessed(pkg);
+    }
+
+    /**
+     * Executes a package task. The line endings and file permissions collected so far are applied first,
+     * unless the task only adds file permissions, so that they apply to the files existing before the task.
+     */
+    private void execute(WildFlyPackageTask task, PackageRuntime pkg) throws ProvisioningException {
+        if (!(task instanceof FilePermissions)) {
+            stagedDirTasks.apply(runtime.getStagedDir(), executor);
+        }
+        task.execute(this, pkg);
+    }
 
-                changeLineEndings(pkgTasks, this.runtime.getStagedDir());
+    /**
+     * Copies the module content of packages that don't have tasks. When several packages provide the same file,
+     * only the last one is copied, which is what copying the packages one after the other would result in.
+     */
+    private void copyModules(List<PackageContent> pkgs) throws ProvisioningException {
+        final Map<Path, PackageContent> fileOwners = new HashMap<>();
+        for(PackageContent content : pkgs) {
+            for(Path file : content.getModuleFiles()) {
+                fileOwners.put(file, content);
             }
+        }
+        final List<ProvisioningExecutor.Task<Void>> copies = new ArrayList<>(pkgs.size());
+        for(PackageContent content : pkgs) {
+            final List<Path> files = new ArrayList<>(content.getModuleFiles().size());
+            for(Path file : content.getModuleFiles()) {
+                if(fileOwners.get(file) == content) {
+                    files.add(file);
+                }
+            }
+            copies.add(() -> {
+                final PackageRuntime pkg = content.getPackage();
+                pkgProcessing(pkg);
+                if(content.hasModules()) {
+                    copyModules(content, files);
+                }
+                pkgProcessed(pkg);
+                return null;
+            });
+        }
+        invokeAll(copies);
+    }
+
+    private void copyModules(PackageContent content, List<Path> files) throws ProvisioningException {
+        final Path stagedDir = runtime.getStagedDir();
+        try {
+            for(Path dir : content.getModuleDirs()) {
+                final Path targetDir = stagedDir.resolve(dir.toString());
+                if(!Files.isDirectory(targetDir)) {
+                    Files.createDirectories(targetDir);
+                }
+            }
+            for(Path file : files) {
+                Files.copy(content.getModuleDir().resolve(file), stagedDir.resolve(file.toString()), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            final PackageRuntime pkg = content.getPackage();
+            throw new ProvisioningException("Failed to process modules from package " + pkg.getName() + " from feature-pack " + pkg.getFeaturePackRuntime().getFPID(), e);
+        }
+    }
+
+    private void pkgProcessing(PackageRuntime pkg) {
+        synchronized (pkgProgressTracker) {
+            pkgProgressTracker.processing(pkg);
+        }
+    }
+
+    private void pkgProcessed(PackageRuntime pkg) {
+        synchronized (pkgProgressTracker) {
             pkgProgressTracker.processed(pkg);
         }
     }
 
+    private <T> List<T> invokeAll(List<ProvisioningExecutor.Task<T>> tasks) throws ProvisioningException {
+        try {
+            return executor.invokeAll(tasks);
+        } catch (IOException e) {
+            throw new ProvisioningException(e.getLocalizedMessage(), e);
+        }
+    }
+
     public void xslTransform(PackageRuntime pkg, XslTransform xslt) throws ProvisioningException {
 
         final Path src = runtime.getStagedDir().resolve(xslt.getSrc());
@@ -797,58 +1376,35 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
         }
     }
 
-    private void processModules(PackageRuntime pkg, Path fpModuleDir) throws ProvisioningException {
-        try {
-            final Path stagedDir = runtime.getStagedDir();
-            if(!Files.exists(stagedDir)) {
-                Files.createDirectories(stagedDir);
-            }
-            Files.walkFileTree(fpModuleDir, new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
-                    throws IOException {
-                    final Path targetDir = stagedDir.resolve(fpModuleDir.relativize(dir).toString());
-                    try {
-                        Files.copy(dir, targetDir);
-                    } catch (FileAlreadyExistsException e) {
-                         if (!Files.isDirectory(targetDir)) {
-                             throw e;
-                         }
-                    }
-                    return FileVisitResult.CONTINUE;
-                }
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
-                    throws IOException {
-                    if(file.getFileName().toString().equals(WfConstants.MODULE_XML)) {
-                        final PackageRuntime overriddenPkg = jbossModules.put(fpModuleDir.relativize(file), pkg);
-                        if (overriddenPkg != null) {
-                            if(log.isVerboseEnabled()) {
-                                log.verbose("Feature-pack " + pkg.getFeaturePackRuntime().getFPID() + " package " + pkg.getName() +
-                                " override jboss-module from feature-pack " + overriddenPkg.getFeaturePackRuntime().getFPID() +
-                                " package " + overriddenPkg.getName());
-                            }
-                        }
-                    } else {
-                        Files.copy(file, stagedDir.resolve(fpModuleDir.relativize(file).toString()), StandardCopyOption.REPLACE_EXISTING);
-                    }
-                    return FileVisitResult.CONTINUE;
-                }
-            });
-        } catch (IOException e) {
-            throw new ProvisioningException("Failed to process modules from package " + pkg.getName() + " from feature-pack " + pkg.getFeaturePackRuntime().getFPID(), e);
-        }
-    }
-
     private void processModuleTemplate(PackageRuntime pkg, Path moduleXmlRelativePath) throws ProvisioningException, IOException {
         final Path moduleTemplateFile = pkg.getResource(WfConstants.PM, WfConstants.WILDFLY, WfConstants.MODULE).resolve(moduleXmlRelativePath);
         final Path targetPath = runtime.getStagedDir().resolve(moduleXmlRelativePath.toString());
-        ModuleTemplate moduleTemplate = new ModuleTemplate(pkg, moduleTemplateFile, targetPath);
+        ModuleTemplate moduleTemplate = ModuleTemplate.load(pkg, moduleTemplateFile, targetPath);
         if (!moduleTemplate.isModule()) {
             Files.copy(moduleTemplateFile, targetPath, StandardCopyOption.REPLACE_EXISTING);
             return;
         }
 
+        final String moduleKey = getModuleKey(pkg, moduleTemplateFile, moduleTemplate);
+        final String modulePath = toModulePath(moduleXmlRelativePath);
+        if (moduleKey != null) {
+            List<String> files = reuseInstalledModule(modulePath, moduleKey, targetPath.getParent());
+            if (files != null) {
+                log.verbose("Reused module %s from the installation", moduleXmlRelativePath.getParent());
+            } else if (moduleCache != null) {
+                files = moduleCache.restore(moduleKey, targetPath.getParent());
+                if (files != null) {
+                    log.verbose("Restored module %s from the module cache", moduleXmlRelativePath.getParent());
+                }
+            }
+            if (files != null) {
+                if (installedModules != null) {
+                    installedModules.add(modulePath, moduleKey, files);
+                }
+                return;
+            }
+        }
+
         AbstractModuleTemplateProcessor processor;
         final Map<String, String> versionProps = fpArtifactVersions.get(pkg.getFeaturePackRuntime().getFPID().getProducer());
         final Path targetDir = runtime.getStagedDir().resolve(moduleXmlRelativePath.toString());
@@ -863,6 +1419,94 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
         }
         processor.process();
         moduleTemplate.store();
+        if (moduleKey != null) {
+            final List<String> files = new ArrayList<>(((FatModuleTemplateProcessor) processor).getInstalledFiles());
+            files.add(targetPath.getFileName().toString());
+            if (moduleCache != null) {
+                moduleCache.store(moduleKey, targetPath.getParent(), files);
+            }
+            if (installedModules != null) {
+                installedModules.add(modulePath, moduleKey, files);
+            }
+        }
+    }
+
+    private static String toModulePath(Path moduleXmlRelativePath) {
+        return moduleXmlRelativePath.toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Copies the files of a module from the installation being updated, if the module did not change.
+     *
+     * @return the names of the copied files or null if the module has to be installed
+     */
+    private List<String> reuseInstalledModule(String modulePath, String moduleKey, Path moduleDir) {
+        if (previousModules == null) {
+            return null;
+        }
+        final List<String> files = previousModules.getReusableFiles(modulePath, moduleKey);
+        if (files == null) {
+            return null;
+        }
+        final Path installedModuleDir = previousModules.getHome().resolve(modulePath).getParent();
+        try {
+            Files.createDirectories(moduleDir);
+            for (String file : files) {
+                artifactInstaller.installFile(installedModuleDir.resolve(file), moduleDir.resolve(file));
+            }
+        } catch (IOException e) {
+            log.verbose("Failed to reuse module %s: %s", modulePath, e.getLocalizedMessage());
+            return null;
+        }
+        return files;
+    }
+
+    /**
+     * Computes the key of a module from the content of its template, the artifacts it references and the way
+     * the artifacts are installed. Modules with the same key are installed with the same content.
+     *
+     * @return the key of the module or null if the module can't be reused from the module cache or from
+     * the installation being updated
+     */
+    private String getModuleKey(PackageRuntime pkg, Path moduleTemplateFile, ModuleTemplate template) throws IOException, ProvisioningException {
+        // thin servers and the jakarta transformation repository are populated as a side effect of the installation
+        if (moduleCache == null && installedModules == null || thinServer || transformationMavenRepo != null || !template.isModule()) {
+            return null;
+        }
+        final String installationKey = artifactInstaller.getInstallationKey();
+        if (installationKey == null) {
+            return null;
+        }
+        final Map<String, String> versionProps = fpArtifactVersions.get(pkg.getFeaturePackRuntime().getFPID().getProducer());
+        final MessageDigest digest = Digests.newSha256();
+        Digests.update(digest, ModuleCache.FORMAT_VERSION);
+        Digests.update(digest, installationKey);
+        digest.update(Files.readAllBytes(moduleTemplateFile));
+        if (template.getVersion() != null) {
+            Digests.update(digest, AbstractModuleTemplateProcessor.getArtifactCoords(template.getVersion(), versionProps));
+        }
+        for (String artifactName : template.getArtifactNames()) {
+            final String coords = AbstractModuleTemplateProcessor.getArtifactCoords(artifactName, versionProps);
+            if (coords == null) {
+                Digests.update(digest, null);
+                continue;
+            }
+            final MavenArtifact artifact;
+            try {
+                artifact = Utils.toArtifactCoords(versionProps, coords, false);
+            } catch (ProvisioningException e) {
+                // reported when the module is processed
+                return null;
+            }
+            // snapshots can change without changing the coordinates, overridden artifacts
+            // and schema artifacts are installed with side effects
+            if (artifact.getVersion().endsWith("-SNAPSHOT") || isOverriddenArtifact(artifact)
+                    || hasSchemas(artifact)) {
+                return null;
+            }
+            Digests.update(digest, artifactKey(artifact));
+        }
+        return Digests.toHex(digest.digest());
     }
 
     public void addExampleConfigs(FeaturePackRuntime fp, ExampleFpConfigs exampleConfigs) throws ProvisioningException {
@@ -880,15 +1524,42 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
         }
     }
 
-    private void extractSchemas(Path moduleArtifact) throws IOException {
-        final Path targetSchemasDir = this.runtime.getStagedDir().resolve(WfConstants.DOCS).resolve(WfConstants.SCHEMA);
-        Files.createDirectories(targetSchemasDir);
-        try (FileSystem jarFS = FileSystems.newFileSystem(moduleArtifact, null)) {
-            final Path schemaSrc = jarFS.getPath(WfConstants.SCHEMA);
-            if (Files.exists(schemaSrc)) {
-                ZipUtils.copyFromZip(schemaSrc.toAbsolutePath(), targetSchemasDir);
-            }
+    /**
+     * Extracts the schemas of the artifacts installed so far, in a metrics phase of its own.
+     */
+    private void extractSchemas() throws ProvisioningException {
+        if (schemaExtractor.isEmpty()) {
+            return;
+        }
+        metrics.startPhase(ProvisioningMetrics.PHASE_SCHEMAS);
+        try {
+            schemaExtractor.extract(executor);
+        } catch (IOException e) {
+            throw new ProvisioningException("Failed to extract schemas", e);
+        }
+        metrics.endPhase();
+    }
+
+    /**
+     * Whether an artifact may contain schemas. The artifacts of the schema groups recorded by the feature-packs
+     * are opened only if they contain schemas, the artifacts that are not recorded (e.g. overridden, or at a
+     * version other than the one the feature-packs were built with) are opened.
+     */
+    private boolean hasSchemas(MavenArtifact artifact) throws ProvisioningException {
+        if (!schemaGroups.contains(artifact.getGroupId())) {
+            return false;
+        }
+        if (unindexedSchemaGroups.contains(artifact.getGroupId()) || isOverriddenArtifact(artifact)) {
+            return true;
         }
+        final StringBuilder key = new StringBuilder();
+        key.append(artifact.getGroupId()).append(':').append(artifact.getArtifactId()).append(':')
+                .append(artifact.getVersion()).append(':');
+        if (artifact.getClassifier() != null) {
+            key.append(artifact.getClassifier());
+        }
+        final String recorded = schemaArtifacts.get(key.toString());
+        return recorded == null || Boolean.parseBoolean(recorded);
     }
 
     public void copyArtifact(CopyArtifact copyArtifact, PackageRuntime pkg) throws ProvisioningException {
@@ -922,19 +1593,20 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
             if (copyArtifact.isExtract()) {
                 Utils.extractArtifact(jarSrc, jarTarget, copyArtifact);
             } else {
-                IoUtils.copy(jarSrc, jarTarget);
-            }
-            if(schemaGroups.contains(artifact.getGroupId())) {
-                extractSchemas(jarSrc);
+                artifactInstaller.installFile(jarSrc, jarTarget);
             }
+            processSchemas(artifact, jarSrc);
         } catch (IOException e) {
             throw new ProvisioningException("Failed to copy artifact " + artifact, e);
         }
     }
 
-    void processSchemas(String groupId, Path artifactPath) throws IOException {
-        if (schemaGroups.contains(groupId)) {
-            extractSchemas(artifactPath);
+    /**
+     * Registers the artifact for the extraction of its schemas, if it contains any.
+     */
+    void processSchemas(MavenArtifact artifact, Path artifactPath) throws ProvisioningException {
+        if (hasSchemas(artifact)) {
+            schemaExtractor.add(artifactPath);
         }
     }
 
@@ -986,6 +1658,14 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
         }
     }
 
+    /**
+     * Registers file permissions to set, with the line endings and file permissions registered before them,
+     * before the staged directory is next changed.
+     */
+    public void addFilePermissions(List<FilePermission> permissions) {
+        stagedDirTasks.addPermissions(permissions);
+    }
+
     public void deletePath(DeletePath deletePath) throws ProvisioningException {
         final Path path = runtime.getStagedDir().resolve(deletePath.getPath());
         if (!Files.exists(path)) {
@@ -1025,64 +1705,36 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
         }
     }
 
-    private static void changeLineEndings(final WildFlyPackageTasks tasks, final Path installDir) throws ProvisioningException {
-        // If not line end filters are present no need to walk the directory
-        if (tasks.getUnixLineEndFilters().isEmpty() && tasks.getWindowsLineEndFilters().isEmpty()) {
-            return;
-        }
-        try {
-            Files.walkFileTree(installDir, new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
-                    final String relative = installDir.relativize(file).toString();
-                    for (FileFilter filter : tasks.getUnixLineEndFilters()) {
-                        if (filter.matches(relative)) {
-                            try {
-                                changeLineEndings(file, false);
-                            } catch (IOException e) {
-                                throw new UncheckedIOException(String.format("Failed to convert %s to Unix line endings.", file), e);
-                            }
-                        }
-                    }
-                    for (FileFilter filter : tasks.getWindowsLineEndFilters()) {
-                        if (filter.matches(relative)) {
-                            try {
-                                changeLineEndings(file, true);
-                            } catch (IOException e) {
-                                throw new UncheckedIOException(String.format("Failed to convert %s to Windows line endings.", file), e);
-                            }
-                        }
-                    }
-                    return FileVisitResult.CONTINUE;
+    /**
+     * Wraps a resolver so that an artifact referenced several times (possibly concurrently)
+     * is resolved only once per provisioning.
+     */
+    private ArtifactResolver sharedResolver(ArtifactResolver resolver) {
+        final MemoizedTasks<String, Path> resolved = new MemoizedTasks<>();
+        return new ArtifactResolver() {
+            @Override
+            public void resolve(MavenArtifact artifact) throws ProvisioningException {
+                try {
+                    artifact.setPath(resolved.get(artifactKey(artifact), () -> {
+                        final long start = System.nanoTime();
+                        resolver.resolve(artifact);
+                        metrics.record(artifact.getPath(), ProvisioningMetrics.Operation.RESOLVE, start);
+                        return artifact.getPath();
+                    }));
+                } catch (IOException e) {
+                    throw new ProvisioningException("Failed to resolve " + artifact, e);
                 }
-            });
-        } catch (UncheckedIOException e) {
-            throw new ProvisioningException(e.getMessage(), e.getCause());
-        } catch (IOException e) {
-            throw new ProvisioningException(String.format("Failed to process %s for files that require line ending changes.", installDir), e);
-        }
-    }
-
-    private static void changeLineEndings(final Path file, final boolean isWindows) throws IOException {
-        final String eol = (isWindows ? "\r\n" : "\n");
-        final Path temp = Files.createTempFile(file.getFileName().toString(), ".tmp");
-        // Copy the original file to the temporary file, replacing it and copying the attributes. Note that the order of
-        // REPLACE_EXISTING and COPY_ATTRIBUTES is important.
-        Files.copy(file, temp, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
-        try (
-                BufferedReader reader = Files.newBufferedReader(temp, StandardCharsets.UTF_8);
-                BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.TRUNCATE_EXISTING)
-        ) {
-            // Process each line and write a eol string
-            String line;
-            while ((line = reader.readLine()) != null) {
-                writer.write(line);
-                writer.write(eol);
             }
+        };
+    }
 
-        } finally {
-            Files.delete(temp);
+    private static String artifactKey(MavenArtifact artifact) {
+        final StringBuilder key = new StringBuilder();
+        key.append(artifact.getGroupId()).append(':').append(artifact.getArtifactId()).append(':').append(artifact.getVersion()).append(':');
+        if (artifact.getClassifier() != null) {
+            key.append(artifact.getClassifier());
         }
+        return key.append(':').append(artifact.getExtension()).toString();
     }
 
     void resolveMaven(MavenArtifact artifact) throws ProvisioningException {
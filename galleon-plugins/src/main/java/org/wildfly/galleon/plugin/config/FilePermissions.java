@@ -17,12 +17,6 @@
 
 package org.wildfly.galleon.plugin.config;
 
-import java.io.IOException;
-import java.nio.file.FileVisitResult;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collections;
 import java.util.List;
 
@@ -61,34 +55,7 @@ public class FilePermissions implements WildFlyPackageTask {
             return;
         }
 
-        try {
-            final Path installDir = plugin.getRuntime().getStagedDir();
-            Files.walkFileTree(installDir, new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                    final String relative = installDir.relativize(dir).toString();
-                    for (FilePermission perm : permissions) {
-                        if (perm.includeFile(relative)) {
-                            Files.setPosixFilePermissions(dir, perm.getPermission());
-                            continue;
-                        }
-                    }
-                    return FileVisitResult.CONTINUE;
-                }
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    final String relative = installDir.relativize(file).toString();
-                    for (FilePermission perm : permissions) {
-                        if (perm.includeFile(relative)) {
-                            Files.setPosixFilePermissions(file, perm.getPermission());
-                            continue;
-                        }
-                    }
-                    return FileVisitResult.CONTINUE;
-                }
-            });
-        } catch (IOException e) {
-            throw new ProvisioningException("Failed to set file permissions", e);
-        }
+        // applied with the other file tasks in a single walk of the staged directory
+        plugin.addFilePermissions(permissions);
     }
 }
@@ -38,7 +38,15 @@ public class WildFlyPackageTasksParser {
     private static final QName ROOT_2_0 = new QName(NAMESPACE_2_0, WildFlyPackageTasksParser20.Element.TASKS.getLocalName());
     private static final QName ROOT_3_0 = new QName(NAMESPACE_3_0, WildFlyPackageTasksParser30.Element.TASKS.getLocalName());
 
-    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+    // The factory is configured once, so that packages can be parsed concurrently
+    private static final XMLInputFactory INPUT_FACTORY;
+
+    static {
+        final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        setIfSupported(inputFactory, XMLInputFactory.IS_VALIDATING, Boolean.FALSE);
+        setIfSupported(inputFactory, XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        INPUT_FACTORY = inputFactory;
+    }
 
     private final XMLMapper mapper;
 
@@ -50,16 +58,13 @@ public class WildFlyPackageTasksParser {
 
     public WildFlyPackageTasks parse(final InputStream input) throws XMLStreamException {
 
-        final XMLInputFactory inputFactory = INPUT_FACTORY;
-        setIfSupported(inputFactory, XMLInputFactory.IS_VALIDATING, Boolean.FALSE);
-        setIfSupported(inputFactory, XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
-        final XMLStreamReader streamReader = inputFactory.createXMLStreamReader(input);
+        final XMLStreamReader streamReader = INPUT_FACTORY.createXMLStreamReader(input);
         final WildFlyPackageTasks.Builder builder = WildFlyPackageTasks.builder();
         mapper.parseDocument(builder, streamReader);
         return builder.build();
     }
 
-    private void setIfSupported(final XMLInputFactory inputFactory, final String property, final Object value) {
+    private static void setIfSupported(final XMLInputFactory inputFactory, final String property, final Object value) {
         if (inputFactory.isPropertySupported(property)) {
             inputFactory.setProperty(property, value);
         }
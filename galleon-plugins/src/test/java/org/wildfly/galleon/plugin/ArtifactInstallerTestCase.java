@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.jboss.galleon.util.IoUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ArtifactInstallerTestCase {
+
+    private Path dir;
+    private Path repoFile;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("artifact-installer");
+        repoFile = dir.resolve("repo/acme-1.0.jar");
+        Files.createDirectories(repoFile.getParent());
+        Files.write(repoFile, "repository".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() {
+        IoUtils.recursiveDelete(dir);
+    }
+
+    @Test
+    public void testCopiedByDefault() throws Exception {
+        Assume.assumeTrue(Files.getFileStore(dir).supportsFileAttributeView("unix"));
+        final Path target = dir.resolve("acme-1.0.jar");
+        new SimpleArtifactInstaller(null, null, false, new ProvisioningMetrics(false)).installFile(repoFile, target);
+        Assert.assertEquals(1, links(repoFile));
+        Assert.assertEquals("repository", read(target));
+    }
+
+    @Test
+    public void testRepositoryFileUnchangedByLaterWrites() throws Exception {
+        Assume.assumeTrue(Files.getFileStore(dir).supportsFileAttributeView("unix"));
+        final AbstractArtifactInstaller installer = new SimpleArtifactInstaller(null, null, true, new ProvisioningMetrics(false));
+        final Path target = dir.resolve("acme-1.0.jar");
+        installer.installFile(repoFile, target);
+        Assert.assertEquals(2, links(repoFile));
+
+        // the same target installed from another artifact, e.g. a transformed one
+        final Path other = dir.resolve("other.jar");
+        Files.write(other, "transformed".getBytes(StandardCharsets.UTF_8));
+        installer.installFile(other, target);
+        Assert.assertEquals("repository", read(repoFile));
+
+        // the target restored from a cache
+        installer.installFile(repoFile, target);
+        Digests.copy(other, target);
+        Assert.assertEquals("transformed", read(target));
+        Assert.assertEquals("repository", read(repoFile));
+        Assert.assertEquals(1, links(repoFile));
+    }
+
+    private static int links(Path file) throws IOException {
+        return ((Number) Files.getAttribute(file, "unix:nlink")).intValue();
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
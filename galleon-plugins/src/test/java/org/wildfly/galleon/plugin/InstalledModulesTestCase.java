@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.jboss.galleon.util.IoUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A module installed by a previous provisioning is reused only if the transformation it went through is
+ * unchanged.
+ */
+public class InstalledModulesTestCase {
+
+    private static final String MODULE = "modules/system/layers/base/org/acme/main/module.xml";
+
+    private Path home;
+    private Path configsDir;
+
+    @Before
+    public void setUp() throws IOException {
+        home = Files.createTempDirectory("installed-modules");
+        configsDir = Files.createTempDirectory("transform-configs");
+        write(configsDir.resolve("jakarta-renames.properties"), "javax.servlet=jakarta.servlet\n");
+        final Path moduleDir = home.resolve(MODULE).getParent();
+        Files.createDirectories(moduleDir);
+        write(moduleDir.resolve("module.xml"), "<module name=\"org.acme\"/>");
+        write(moduleDir.resolve("acme-1.0-ee9.jar"), "jar");
+    }
+
+    @After
+    public void tearDown() {
+        IoUtils.recursiveDelete(home);
+        IoUtils.recursiveDelete(configsDir);
+    }
+
+    @Test
+    public void testUnchangedTransformationReused() throws Exception {
+        final String key = installationKey(Collections.singleton("org.acme:excluded"));
+        record(key);
+
+        Assert.assertEquals(key, installationKey(Collections.singleton("org.acme:excluded")));
+        Assert.assertEquals(Arrays.asList("module.xml", "acme-1.0-ee9.jar"),
+                InstalledModules.load(home, Collections.emptySet()).getReusableFiles(MODULE, key));
+    }
+
+    @Test
+    public void testChangedRulesReinstalled() throws Exception {
+        final String key = installationKey(Collections.emptySet());
+        record(key);
+
+        write(configsDir.resolve("jakarta-renames.properties"), "javax.servlet=jakarta.servlet\njavax.ejb=jakarta.ejb\n");
+        final String changed = installationKey(Collections.emptySet());
+        Assert.assertNotEquals(key, changed);
+        Assert.assertNull(InstalledModules.load(home, Collections.emptySet()).getReusableFiles(MODULE, changed));
+    }
+
+    @Test
+    public void testChangedExclusionsReinstalled() throws Exception {
+        final String key = installationKey(Collections.emptySet());
+        record(key);
+
+        final String changed = installationKey(new HashSet<>(Arrays.asList("org.acme:acme")));
+        Assert.assertNotEquals(key, changed);
+        Assert.assertNull(InstalledModules.load(home, Collections.emptySet()).getReusableFiles(MODULE, changed));
+    }
+
+    @Test
+    public void testProvisioningRepoNotReused() throws Exception {
+        // the content of the provisioning repository is not part of the key
+        Assert.assertNull(new EE9ArtifactInstaller(null, null, false, null, Collections.emptySet(), new WfInstallPlugin(),
+                "-ee9", configsDir, null, false, null, home).getInstallationKey());
+    }
+
+    private String installationKey(Set<String> excluded) throws IOException {
+        return new EE9ArtifactTransformerInstaller(null, null, false, null, excluded, new WfInstallPlugin(),
+                "-ee9", configsDir, null, false, null).getInstallationKey();
+    }
+
+    private void record(String key) throws IOException {
+        final InstalledModules installed = InstalledModules.load(home, Collections.emptySet());
+        installed.add(MODULE, key, Arrays.asList("module.xml", "acme-1.0-ee9.jar"));
+        installed.store(home);
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
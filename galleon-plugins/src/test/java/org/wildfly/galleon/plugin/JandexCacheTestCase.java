@@ -0,0 +1,157 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.jboss.galleon.DefaultMessageWriter;
+import org.jboss.galleon.util.IoUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JandexCacheTestCase {
+
+    private Path dir;
+    private Path cacheDir;
+    private final AtomicInteger indexings = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("jandex-cache");
+        cacheDir = dir.resolve("cache");
+    }
+
+    @After
+    public void tearDown() {
+        IoUtils.recursiveDelete(dir);
+    }
+
+    @Test
+    public void testMissThenHit() throws Exception {
+        final JandexCache cache = newCache(Long.MAX_VALUE);
+        final Path src = write("acme.jar", "classes");
+        index(cache, src, dir.resolve("first/acme-jandex.jar"));
+        Assert.assertEquals(1, indexings.get());
+
+        final Path second = dir.resolve("second/acme-jandex.jar");
+        index(cache, src, second);
+        Assert.assertEquals(1, indexings.get());
+        Assert.assertEquals("index of classes", read(second));
+
+        // keyed by the content of the artifact, not by its location
+        final Path copy = write("copy/acme.jar", "classes");
+        index(newCache(Long.MAX_VALUE), copy, dir.resolve("third/acme-jandex.jar"));
+        Assert.assertEquals(1, indexings.get());
+
+        index(cache, write("acme.jar", "other classes"), dir.resolve("fourth/acme-jandex.jar"));
+        Assert.assertEquals(2, indexings.get());
+    }
+
+    @Test
+    public void testCorruptedEntryDiscarded() throws Exception {
+        final JandexCache cache = newCache(Long.MAX_VALUE);
+        final Path src = write("acme.jar", "classes");
+        index(cache, src, dir.resolve("first/acme-jandex.jar"));
+        final List<Path> entries = entries();
+        Assert.assertEquals(1, entries.size());
+        Files.write(entries.get(0).resolve("index.jar"), "corrupted".getBytes(StandardCharsets.UTF_8));
+
+        final Path second = dir.resolve("second/acme-jandex.jar");
+        index(cache, src, second);
+        Assert.assertEquals(2, indexings.get());
+        Assert.assertEquals("index of classes", read(second));
+        // stored again
+        index(cache, src, dir.resolve("third/acme-jandex.jar"));
+        Assert.assertEquals(2, indexings.get());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws Exception {
+        final JandexCache cache = newCache(Long.MAX_VALUE);
+        final Path a = write("a.jar", "classes a");
+        final Path b = write("b.jar", "classes b");
+        final Path c = write("c.jar", "classes c");
+        index(cache, a, dir.resolve("first/a-jandex.jar"));
+        final Path entryA = entries().get(0);
+        index(cache, b, dir.resolve("first/b-jandex.jar"));
+        index(cache, c, dir.resolve("first/c-jandex.jar"));
+        final List<Path> entries = entries();
+        Assert.assertEquals(3, entries.size());
+        long entrySize = 0;
+        for (Path entry : entries) {
+            entrySize = Math.max(entrySize, Files.size(entry.resolve("index.properties")) + Files.size(entry.resolve("index.jar")));
+        }
+        final long now = System.currentTimeMillis();
+        for (Path entry : entries) {
+            Files.setLastModifiedTime(entry.resolve("index.properties"), FileTime.fromMillis(entry.equals(entryA) ? now - 30000 : now));
+        }
+
+        newCache(2 * entrySize).evict();
+        Assert.assertEquals(2, entries().size());
+        Assert.assertFalse(Files.exists(entryA));
+        indexings.set(0);
+        index(cache, b, dir.resolve("second/b-jandex.jar"));
+        index(cache, c, dir.resolve("second/c-jandex.jar"));
+        Assert.assertEquals(0, indexings.get());
+        index(cache, a, dir.resolve("second/a-jandex.jar"));
+        Assert.assertEquals(1, indexings.get());
+
+        newCache(0).evict();
+        Assert.assertTrue(entries().isEmpty());
+    }
+
+    private JandexCache newCache(long maxSize) {
+        return new JandexCache(cacheDir, maxSize, new DefaultMessageWriter());
+    }
+
+    private void index(JandexCache cache, Path src, Path target) throws Exception {
+        Files.createDirectories(target.getParent());
+        cache.index(src, target, t -> {
+            indexings.incrementAndGet();
+            Files.write(t, ("index of " + read(src)).getBytes(StandardCharsets.UTF_8));
+        });
+    }
+
+    private List<Path> entries() throws IOException {
+        final List<Path> entries = new ArrayList<>();
+        try (Stream<Path> stream = Files.list(cacheDir)) {
+            stream.filter(p -> !p.getFileName().toString().startsWith(".")).forEach(entries::add);
+        }
+        return entries;
+    }
+
+    private Path write(String name, String content) throws IOException {
+        final Path file = dir.resolve("repo").resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.jboss.galleon.DefaultMessageWriter;
+import org.jboss.galleon.util.IoUtils;
+import org.jboss.jandex.AnnotationInstance;
+import org.jboss.jandex.ClassInfo;
+import org.jboss.jandex.DotName;
+import org.jboss.jandex.Index;
+import org.jboss.jandex.IndexReader;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JandexIndexerTestCase {
+
+    private static final int CLASSES = 1500;
+    private static final String PACKAGE = "org/acme/";
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("jandex-indexer");
+    }
+
+    @After
+    public void tearDown() {
+        IoUtils.recursiveDelete(dir);
+    }
+
+    @Test
+    public void testConcurrentIndexMatchesSingleIndexer() throws Exception {
+        final Path jar = dir.resolve("classes.jar");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(jar))) {
+            zip.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            zip.write("Manifest-Version: 1.0\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < CLASSES; i++) {
+                zip.putNextEntry(new ZipEntry(PACKAGE + "Class" + i + ".class"));
+                zip.write(classFile(i));
+            }
+        }
+
+        final Index single = index(jar, null);
+        final Index concurrent;
+        try (ProvisioningExecutor executor = new ProvisioningExecutor(4)) {
+            concurrent = index(jar, executor);
+        }
+
+        Assert.assertEquals(CLASSES, single.getKnownClasses().size());
+        Assert.assertEquals(names(single.getKnownClasses()), names(concurrent.getKnownClasses()));
+        for (int i = 0; i < 3; i++) {
+            final DotName annotation = name("Annotation" + i);
+            Assert.assertEquals(targets(single.getAnnotations(annotation)), targets(concurrent.getAnnotations(annotation)));
+            Assert.assertFalse(targets(single.getAnnotations(annotation)).isEmpty());
+            final DotName superClass = name("Base" + i);
+            Assert.assertEquals(names(single.getKnownDirectSubclasses(superClass)), names(concurrent.getKnownDirectSubclasses(superClass)));
+        }
+        for (int i = 0; i < 5; i++) {
+            final DotName iface = name("Interface" + i);
+            Assert.assertEquals(names(single.getKnownDirectImplementors(iface)), names(concurrent.getKnownDirectImplementors(iface)));
+        }
+    }
+
+    private Index index(Path jar, ProvisioningExecutor executor) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JandexIndexer.createIndex(jar.toFile(), out, new DefaultMessageWriter(), executor);
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.getName().equals("META-INF/jandex.idx")) {
+                    return new IndexReader(copy(zip)).read();
+                }
+            }
+        }
+        throw new AssertionError("META-INF/jandex.idx not found");
+    }
+
+    private static InputStream copy(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    private static DotName name(String simpleName) {
+        return DotName.createSimple(PACKAGE.replace('/', '.') + simpleName);
+    }
+
+    private static Set<String> names(Collection<ClassInfo> classes) {
+        final Set<String> names = new TreeSet<>();
+        for (ClassInfo clazz : classes) {
+            names.add(clazz.name().toString());
+        }
+        return names;
+    }
+
+    /**
+     * @return the annotated classes, in the order of the index
+     */
+    private static List<String> targets(List<AnnotationInstance> annotations) {
+        final List<String> targets = new ArrayList<>(annotations.size());
+        for (AnnotationInstance annotation : annotations) {
+            targets.add(annotation.target().asClass().name().toString());
+        }
+        return targets;
+    }
+
+    /**
+     * A public class extending a base class, implementing an interface and annotated with a runtime retention
+     * annotation, all of them chosen by the index of the class.
+     */
+    private static byte[] classFile(int i) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(52);
+        // constant pool
+        out.writeShort(9);
+        utf8(out, PACKAGE + "Class" + i);
+        classRef(out, 1);
+        utf8(out, PACKAGE + "Base" + i % 3);
+        classRef(out, 3);
+        utf8(out, PACKAGE + "Interface" + i % 5);
+        classRef(out, 5);
+        utf8(out, "RuntimeVisibleAnnotations");
+        utf8(out, "L" + PACKAGE + "Annotation" + i % 3 + ";");
+        // public super class
+        out.writeShort(0x0021);
+        out.writeShort(2);
+        out.writeShort(4);
+        out.writeShort(1);
+        out.writeShort(6);
+        // no fields, no methods
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(1);
+        out.writeShort(7);
+        out.writeInt(6);
+        out.writeShort(1);
+        out.writeShort(8);
+        out.writeShort(0);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void utf8(DataOutputStream out, String value) throws IOException {
+        out.writeByte(1);
+        out.writeUTF(value);
+    }
+
+    private static void classRef(DataOutputStream out, int nameIndex) throws IOException {
+        out.writeByte(7);
+        out.writeShort(nameIndex);
+    }
+}
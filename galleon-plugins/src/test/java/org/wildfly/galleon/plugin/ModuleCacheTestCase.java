@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.jboss.galleon.DefaultMessageWriter;
+import org.jboss.galleon.util.IoUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ModuleCacheTestCase {
+
+    private static final List<String> FILES = Arrays.asList("module.xml", "acme-1.0.jar", "acme-spi-1.0.jar");
+
+    private Path dir;
+    private ModuleCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("module-cache");
+        cache = new ModuleCache(dir.resolve("cache"), Long.MAX_VALUE, new DefaultMessageWriter());
+    }
+
+    @After
+    public void tearDown() {
+        IoUtils.recursiveDelete(dir);
+    }
+
+    @Test
+    public void testRestore() throws Exception {
+        cache.store("key", processModule(dir.resolve("first/org/acme/main")), FILES);
+
+        final Path moduleDir = dir.resolve("second/org/acme/main");
+        Assert.assertEquals(sorted(FILES), sorted(cache.restore("key", moduleDir)));
+        for (String name : FILES) {
+            Assert.assertEquals(name, read(moduleDir.resolve(name)));
+        }
+        Assert.assertEquals(sorted(FILES), list(moduleDir));
+        Assert.assertEquals(Arrays.asList("main"), list(moduleDir.getParent()));
+    }
+
+    @Test
+    public void testCorruptedEntryRegenerated() throws Exception {
+        cache.store("key", processModule(dir.resolve("first/org/acme/main")), FILES);
+        Files.write(dir.resolve("cache/key/acme-spi-1.0.jar"), "corrupted".getBytes(StandardCharsets.UTF_8));
+
+        final Path moduleDir = dir.resolve("second/org/acme/main");
+        Assert.assertNull(cache.restore("key", moduleDir));
+        // none of the files copied before the corrupted one is left behind
+        Assert.assertEquals(Arrays.asList(), list(moduleDir));
+        Assert.assertEquals(Arrays.asList("main"), list(moduleDir.getParent()));
+        Assert.assertFalse(cache.contains("key"));
+
+        // the module is processed again and stored
+        processModule(moduleDir);
+        cache.store("key", moduleDir, FILES);
+        final Path third = dir.resolve("third/org/acme/main");
+        Assert.assertEquals(sorted(FILES), sorted(cache.restore("key", third)));
+        for (String name : FILES) {
+            Assert.assertEquals(name, read(third.resolve(name)));
+        }
+    }
+
+    private static Path processModule(Path moduleDir) throws IOException {
+        Files.createDirectories(moduleDir);
+        for (String name : FILES) {
+            Files.write(moduleDir.resolve(name), name.getBytes(StandardCharsets.UTF_8));
+        }
+        return moduleDir;
+    }
+
+    private static List<String> list(Path dir) throws IOException {
+        try (Stream<Path> stream = Files.list(dir)) {
+            return sorted(stream.map(p -> p.getFileName().toString()).collect(Collectors.toList()));
+        }
+    }
+
+    private static List<String> sorted(List<String> names) {
+        return names.stream().sorted().collect(Collectors.toList());
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.galleon.ProvisioningException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProvisioningExecutorTestCase {
+
+    @Test
+    public void testSubmissionOrder() throws Exception {
+        final List<ProvisioningExecutor.Task<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            final int index = i;
+            tasks.add(() -> {
+                // the first tasks complete last
+                sleep(16 - index);
+                return index;
+            });
+        }
+        final List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            expected.add(i);
+        }
+        try (ProvisioningExecutor executor = new ProvisioningExecutor(4)) {
+            Assert.assertEquals(expected, executor.invokeAll(tasks));
+        }
+        try (ProvisioningExecutor executor = new ProvisioningExecutor(1)) {
+            Assert.assertEquals(expected, executor.invokeAll(tasks));
+        }
+    }
+
+    @Test
+    public void testProvisioningExceptionPropagated() throws Exception {
+        final ProvisioningException failure = new ProvisioningException("failed");
+        final List<ProvisioningExecutor.Task<String>> tasks = new ArrayList<>();
+        tasks.add(() -> "first");
+        tasks.add(() -> {
+            throw failure;
+        });
+        tasks.add(() -> "last");
+        try (ProvisioningExecutor executor = new ProvisioningExecutor(2)) {
+            executor.invokeAll(tasks);
+            Assert.fail("the failure was not propagated");
+        } catch (ProvisioningException e) {
+            Assert.assertSame(failure, e);
+        }
+    }
+
+    @Test
+    public void testIOExceptionPropagated() throws Exception {
+        final IOException failure = new IOException("failed");
+        final List<ProvisioningExecutor.Task<String>> tasks = new ArrayList<>();
+        tasks.add(() -> {
+            throw failure;
+        });
+        tasks.add(() -> "last");
+        try (ProvisioningExecutor executor = new ProvisioningExecutor(2)) {
+            executor.invokeAll(tasks);
+            Assert.fail("the failure was not propagated");
+        } catch (IOException e) {
+            Assert.assertSame(failure, e);
+        }
+    }
+
+    @Test
+    public void testRunningTasksAwaitedOnFailure() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicBoolean running = new AtomicBoolean();
+        final AtomicInteger executed = new AtomicInteger();
+        final List<ProvisioningExecutor.Task<String>> tasks = new ArrayList<>();
+        tasks.add(() -> {
+            // fails once the second task is running
+            await(started);
+            throw new IOException("failed");
+        });
+        tasks.add(() -> {
+            running.set(true);
+            started.countDown();
+            sleep(200);
+            running.set(false);
+            return "slow";
+        });
+        for (int i = 0; i < 8; i++) {
+            tasks.add(() -> {
+                executed.incrementAndGet();
+                return "skipped";
+            });
+        }
+        try (ProvisioningExecutor executor = new ProvisioningExecutor(2)) {
+            executor.invokeAll(tasks);
+            Assert.fail("the failure was not propagated");
+        } catch (IOException e) {
+            Assert.assertEquals("failed", e.getMessage());
+        }
+        Assert.assertFalse("a task is still running", running.get());
+        Assert.assertTrue(executed.get() < 8);
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            if (!latch.await(10, TimeUnit.SECONDS)) {
+                throw new IOException("timed out");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+}
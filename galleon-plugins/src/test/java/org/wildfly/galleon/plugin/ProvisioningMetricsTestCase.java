@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.jboss.galleon.util.IoUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProvisioningMetricsTestCase {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("provisioning-metrics");
+    }
+
+    @After
+    public void tearDown() {
+        IoUtils.recursiveDelete(dir);
+    }
+
+    @Test
+    public void testArtifactsWithSameFileName() throws Exception {
+        final Path first = write("org/acme/api/1.0/api-1.0.jar", "first");
+        final Path second = write("com/acme/api/1.0/api-1.0.jar", "second artifact");
+
+        final ProvisioningMetrics metrics = new ProvisioningMetrics(true);
+        metrics.startPhase(ProvisioningMetrics.PHASE_PACKAGES);
+        metrics.record(first, ProvisioningMetrics.Operation.COPY, System.nanoTime());
+        metrics.record(second, ProvisioningMetrics.Operation.LINK, System.nanoTime());
+        metrics.endPhase();
+        final Path report = dir.resolve("metrics.json");
+        metrics.write(report);
+
+        final String json = new String(Files.readAllBytes(report), StandardCharsets.UTF_8);
+        Assert.assertTrue(json, json.contains("\"name\": \"" + escape(first) + "\", \"copy\": { \"count\": 1"));
+        Assert.assertTrue(json, json.contains("\"name\": \"" + escape(second) + "\", \"link\": { \"count\": 1"));
+        Assert.assertTrue(json, json.contains("\"bytes\": 5 }"));
+        Assert.assertTrue(json, json.contains("\"bytes\": 15 }"));
+    }
+
+    @Test
+    public void testNothingRecordedOutsideOfPhase() throws Exception {
+        final Path artifact = write("org/acme/api/1.0/api-1.0.jar", "content");
+        final ProvisioningMetrics metrics = new ProvisioningMetrics(true);
+        metrics.record(artifact, ProvisioningMetrics.Operation.COPY, System.nanoTime());
+        final Path report = dir.resolve("metrics.json");
+        metrics.write(report);
+        Assert.assertFalse(new String(Files.readAllBytes(report), StandardCharsets.UTF_8).contains("api-1.0.jar"));
+    }
+
+    private Path write(String path, String content) throws IOException {
+        final Path file = dir.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String escape(Path path) {
+        return path.toAbsolutePath().toString().replace("\\", "\\\\");
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.jboss.galleon.util.IoUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.wildfly.galleon.plugin.config.FileFilter;
+import org.wildfly.galleon.plugin.config.FilePermission;
+
+public class StagedDirTasksTestCase {
+
+    private Path dir;
+    private Path stagedDir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("staged-dir-tasks");
+        stagedDir = Files.createDirectory(dir.resolve("staged"));
+    }
+
+    @After
+    public void tearDown() {
+        IoUtils.recursiveDelete(dir);
+    }
+
+    @Test
+    public void testLinkedFileUpdatedAlone() throws Exception {
+        Assume.assumeTrue(Files.getFileStore(dir).supportsFileAttributeView("posix"));
+        final Path repoFile = dir.resolve("repo.txt");
+        Files.write(repoFile, "first\nsecond\n".getBytes(StandardCharsets.UTF_8));
+        Files.setPosixFilePermissions(repoFile, PosixFilePermissions.fromString("rw-r--r--"));
+        final Path linked = stagedDir.resolve("linked.txt");
+        Files.createLink(linked, repoFile);
+
+        final StagedDirTasks tasks = new StagedDirTasks();
+        tasks.addLineEndings(Collections.emptyList(), Collections.singletonList(filter("linked.txt")));
+        tasks.addPermissions(Collections.singletonList(permission("755", "linked.txt")));
+        try (ProvisioningExecutor executor = new ProvisioningExecutor(2)) {
+            tasks.apply(stagedDir, executor);
+        }
+
+        Assert.assertEquals("first\r\nsecond\r\n", read(linked));
+        Assert.assertEquals("rwxr-xr-x", PosixFilePermissions.toString(Files.getPosixFilePermissions(linked)));
+        Assert.assertEquals("first\nsecond\n", read(repoFile));
+        Assert.assertEquals("rw-r--r--", PosixFilePermissions.toString(Files.getPosixFilePermissions(repoFile)));
+        Assert.assertEquals(1, ((Number) Files.getAttribute(repoFile, "unix:nlink")).intValue());
+    }
+
+    @Test
+    public void testLineEndingsInPackageOrder() throws Exception {
+        final Path windowsThenUnix = stagedDir.resolve("windows-then-unix.txt");
+        final Path unixThenWindows = stagedDir.resolve("unix-then-windows.txt");
+        final Path samePackage = stagedDir.resolve("same-package.txt");
+        for (Path file : new Path[] {windowsThenUnix, unixThenWindows, samePackage}) {
+            Files.write(file, "first\r\nsecond\n".getBytes(StandardCharsets.UTF_8));
+        }
+
+        final StagedDirTasks tasks = new StagedDirTasks();
+        // first package
+        tasks.addLineEndings(Arrays.asList(filter("unix-then-windows.txt"), filter("same-package.txt")),
+                Arrays.asList(filter("windows-then-unix.txt"), filter("same-package.txt")));
+        // second package
+        tasks.addLineEndings(Collections.singletonList(filter("windows-then-unix.txt")),
+                Collections.singletonList(filter("unix-then-windows.txt")));
+        try (ProvisioningExecutor executor = new ProvisioningExecutor(2)) {
+            tasks.apply(stagedDir, executor);
+        }
+
+        Assert.assertEquals("first\nsecond\n", read(windowsThenUnix));
+        Assert.assertEquals("first\r\nsecond\r\n", read(unixThenWindows));
+        Assert.assertEquals("first\r\nsecond\r\n", read(samePackage));
+        Assert.assertTrue(tasks.isEmpty());
+    }
+
+    @Test
+    public void testSubdirectoriesUpdatedBeforeTheirPermissions() throws Exception {
+        Assume.assumeTrue(Files.getFileStore(dir).supportsFileAttributeView("posix"));
+        final Path top = stagedDir.resolve("top.txt");
+        final Path nested = Files.createDirectories(stagedDir.resolve("a/b")).resolve("nested.txt");
+        final Path other = Files.createDirectories(stagedDir.resolve("c")).resolve("other.txt");
+        for (Path file : new Path[] {top, nested, other}) {
+            Files.write(file, "first\nsecond\n".getBytes(StandardCharsets.UTF_8));
+        }
+
+        final StagedDirTasks tasks = new StagedDirTasks();
+        tasks.addLineEndings(Collections.emptyList(), Arrays.asList(filter("top.txt"), filter("a/b/nested.txt")));
+        tasks.addPermissions(Arrays.asList(permission("500", "a/b"), permission("700", "c/other.txt")));
+        try (ProvisioningExecutor executor = new ProvisioningExecutor(2)) {
+            tasks.apply(stagedDir, executor);
+        }
+
+        Assert.assertEquals("first\r\nsecond\r\n", read(top));
+        Assert.assertEquals("first\r\nsecond\r\n", read(nested));
+        Assert.assertEquals("first\nsecond\n", read(other));
+        Assert.assertEquals("r-x------", PosixFilePermissions.toString(Files.getPosixFilePermissions(nested.getParent())));
+        Assert.assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(other)));
+        Files.setPosixFilePermissions(nested.getParent(), PosixFilePermissions.fromString("rwx------"));
+    }
+
+    @Test
+    public void testAppliedToExistingFilesOnly() throws Exception {
+        final Path existing = stagedDir.resolve("existing.txt");
+        Files.write(existing, "first\nsecond\n".getBytes(StandardCharsets.UTF_8));
+
+        final StagedDirTasks tasks = new StagedDirTasks();
+        tasks.addLineEndings(Collections.emptyList(), Arrays.asList(filter("existing.txt"), filter("created.txt")));
+        try (ProvisioningExecutor executor = new ProvisioningExecutor(2)) {
+            tasks.apply(stagedDir, executor);
+            // a file created by a later task is not converted by the filters applied before it
+            final Path created = stagedDir.resolve("created.txt");
+            Files.write(created, "first\nsecond\n".getBytes(StandardCharsets.UTF_8));
+            tasks.apply(stagedDir, executor);
+            Assert.assertEquals("first\nsecond\n", read(created));
+        }
+        Assert.assertEquals("first\r\nsecond\r\n", read(existing));
+    }
+
+    private static FileFilter filter(String pattern) {
+        final FileFilter filter = new FileFilter();
+        filter.setPatternString(pattern);
+        filter.setInclude();
+        return filter;
+    }
+
+    private static FilePermission permission(String value, String pattern) {
+        final FilePermission permission = new FilePermission();
+        permission.setValue(value);
+        permission.addFilter(filter(pattern));
+        return permission;
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.jboss.galleon.util.IoUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The streaming processing of a module template produces the bytes the document processing does.
+ */
+public class StreamingModuleTemplateTestCase {
+
+    private static final String LICENSE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<!--\n  ~ JBoss, Home of Professional Open Source.\n  ~ Copyright 2021, Red Hat, Inc.\n  -->\n\n";
+
+    private static final String MODULE = LICENSE
+            + "<module name=\"org.acme\" xmlns=\"urn:jboss:module:1.9\" version=\"${org.acme:acme}\">\n"
+            + "    <properties>\n"
+            + "        <property name=\"jboss.api\" value=\"private\"/>\n"
+            + "    </properties>\n"
+            + "\n"
+            + "    <resources>\n"
+            + "        <!-- the implementation -->\n"
+            + "        <artifact name=\"${org.acme:acme}\"/>\n"
+            + "        <artifact name=\"${org.acme:acme-legacy}\"></artifact>\n"
+            + "        <resource-root path=\"lib\"/>\n"
+            + "    </resources>\n"
+            + "\n"
+            + "    <dependencies>\n"
+            + "        <module name=\"javax.api\"/>\n"
+            + "        <module name=\"org.acme.spi\" optional=\"true\" services=\"export\">\n"
+            + "            <imports><include path=\"META-INF\"/></imports>\n"
+            + "        </module>\n"
+            + "    </dependencies>\n"
+            + "</module>\n";
+
+    private static final String ALIAS = LICENSE
+            + "<module-alias xmlns=\"urn:jboss:module:1.9\" name=\"org.acme.alias\" target-name=\"org.acme\"/>\n";
+
+    private static final String ESCAPED = "<?xml version=\"1.0\"?>\n"
+            + "<module xmlns=\"urn:jboss:module:1.9\" name=\"org.acme\">\n"
+            + "    <properties>\n"
+            + "        <property name=\"description\" value=\"a &amp; b &lt; c &gt; d &quot;e&quot; 'f'&#9;g&#10;h\"/>\n"
+            + "        <property name=\"text\">x &amp; y &lt; z &gt; w \"v\" 'u' &#xE9;</property>\n"
+            + "        <property name=\"cdata\"><![CDATA[a < b & c]]></property>\n"
+            + "    </properties>\n"
+            + "    <?acme keep?>\n"
+            + "    <resources>\n"
+            + "        <artifact name=\"${org.acme:acme}\"/>\n"
+            + "    </resources>\n"
+            + "</module>\n"
+            + "<!-- trailer -->\n";
+
+    private static final String NAMESPACES = "<module xmlns=\"urn:jboss:module:1.9\" name=\"org.acme\">\n"
+            + "    <resources>\n"
+            + "        <artifact name=\"${org.acme:acme}\"/>\n"
+            + "        <filter xmlns=\"urn:acme:filter:1.0\">\n"
+            + "            <exclude path=\"org/acme/impl\"/>\n"
+            + "            <nested xmlns=\"urn:jboss:module:1.9\"/>\n"
+            + "        </filter>\n"
+            + "        <artifact xmlns=\"urn:acme:other:1.0\" name=\"not-an-artifact\"/>\n"
+            + "    </resources>\n"
+            + "    <resources>\n"
+            + "        <artifact name=\"${org.acme:ignored}\"/>\n"
+            + "    </resources>\n"
+            + "</module>";
+
+    private static final ModuleTemplate.Processor PROCESSOR = new ModuleTemplate.Processor() {
+        @Override
+        public String processVersion(String version) {
+            return "1.0.0.Final";
+        }
+
+        @Override
+        public void processArtifact(ModuleTemplate.ArtifactElement artifact) {
+            if (artifact.getName().contains("legacy")) {
+                artifact.setResourceRoot("acme-legacy-1.0.0.Final.jar");
+            } else if (artifact.getName().contains("acme")) {
+                artifact.setCoords("org.acme:acme:1.0.0.Final");
+            }
+        }
+    };
+
+    private static final ModuleTemplate.Processor IDENTITY = new ModuleTemplate.Processor() {
+        @Override
+        public String processVersion(String version) {
+            return null;
+        }
+
+        @Override
+        public void processArtifact(ModuleTemplate.ArtifactElement artifact) {
+        }
+    };
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("module-template");
+    }
+
+    @After
+    public void tearDown() {
+        IoUtils.recursiveDelete(dir);
+    }
+
+    @Test
+    public void testModule() throws Exception {
+        final Path template = write(MODULE);
+        final StreamingModuleTemplate streaming = StreamingModuleTemplate.scan(template, dir.resolve("streaming.xml"));
+        Assert.assertNotNull(streaming);
+        Assert.assertTrue(streaming.isModule());
+        Assert.assertEquals("${org.acme:acme}", streaming.getVersion());
+        Assert.assertEquals(Arrays.asList("${org.acme:acme}", "${org.acme:acme-legacy}"), streaming.getArtifactNames());
+        assertSameOutput(MODULE, PROCESSOR);
+        assertSameOutput(MODULE, IDENTITY);
+    }
+
+    @Test
+    public void testModuleAlias() throws Exception {
+        final StreamingModuleTemplate streaming = StreamingModuleTemplate.scan(write(ALIAS), dir.resolve("streaming.xml"));
+        Assert.assertNotNull(streaming);
+        Assert.assertTrue(streaming.isModule());
+        Assert.assertNull(streaming.getVersion());
+        Assert.assertEquals(Collections.emptyList(), streaming.getArtifactNames());
+        assertSameOutput(ALIAS, PROCESSOR);
+    }
+
+    @Test
+    public void testEscaping() throws Exception {
+        assertSameOutput(ESCAPED, PROCESSOR);
+    }
+
+    @Test
+    public void testNamespaces() throws Exception {
+        final StreamingModuleTemplate streaming = StreamingModuleTemplate.scan(write(NAMESPACES), dir.resolve("streaming.xml"));
+        Assert.assertNotNull(streaming);
+        Assert.assertEquals(Collections.singletonList("${org.acme:acme}"), streaming.getArtifactNames());
+        assertSameOutput(NAMESPACES, PROCESSOR);
+    }
+
+    @Test
+    public void testPrefixedNamesLoadedAsDocument() throws Exception {
+        final Path template = write("<m:module xmlns:m=\"urn:jboss:module:1.9\" name=\"org.acme\"/>");
+        Assert.assertNull(StreamingModuleTemplate.scan(template, dir.resolve("streaming.xml")));
+    }
+
+    @Test
+    public void testEncodingDeclaration() throws Exception {
+        final String content = "<module xmlns=\"urn:jboss:module:1.9\" name=\"org.acme\">\n"
+                + "    <properties><property name=\"author\" value=\"Ren\u00e9\"/></properties>\n"
+                + "</module>\n";
+        final Path utf8Target = dir.resolve("utf-8.xml");
+        final StreamingModuleTemplate utf8 = StreamingModuleTemplate.scan(write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + content), utf8Target);
+        utf8.process(IDENTITY);
+        utf8.store();
+
+        final Path template = dir.resolve("module.xml");
+        Files.write(template, ("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n" + content).getBytes(StandardCharsets.ISO_8859_1));
+        final Path latin1Target = dir.resolve("iso-8859-1.xml");
+        final StreamingModuleTemplate latin1 = StreamingModuleTemplate.scan(template, latin1Target);
+        Assert.assertNotNull(latin1);
+        latin1.process(IDENTITY);
+        latin1.store();
+
+        // the output is always UTF-8
+        Assert.assertTrue(new String(Files.readAllBytes(latin1Target), StandardCharsets.UTF_8).contains("value=\"Ren\u00e9\""));
+        Assert.assertArrayEquals(Files.readAllBytes(utf8Target), Files.readAllBytes(latin1Target));
+    }
+
+    private void assertSameOutput(String content, ModuleTemplate.Processor processor) throws Exception {
+        final Path template = write(content);
+        final Path streamingTarget = dir.resolve("streaming.xml");
+        final Path domTarget = dir.resolve("dom.xml");
+
+        final StreamingModuleTemplate streaming = StreamingModuleTemplate.scan(template, streamingTarget);
+        Assert.assertNotNull(streaming);
+        streaming.process(processor);
+        streaming.store();
+
+        final DomModuleTemplate dom = new DomModuleTemplate(null, template, domTarget);
+        Assert.assertEquals(dom.isModule(), streaming.isModule());
+        Assert.assertEquals(dom.getVersion(), streaming.getVersion());
+        Assert.assertEquals(dom.getArtifactNames(), streaming.getArtifactNames());
+        dom.process(processor);
+        dom.store();
+
+        Assert.assertEquals(new String(Files.readAllBytes(domTarget), StandardCharsets.UTF_8),
+                new String(Files.readAllBytes(streamingTarget), StandardCharsets.UTF_8));
+        Assert.assertArrayEquals(Files.readAllBytes(domTarget), Files.readAllBytes(streamingTarget));
+    }
+
+    private Path write(String content) throws IOException {
+        final Path template = dir.resolve("module.xml");
+        Files.write(template, content.getBytes(StandardCharsets.UTF_8));
+        return template;
+    }
+}
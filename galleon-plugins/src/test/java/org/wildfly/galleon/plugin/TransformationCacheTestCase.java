@@ -0,0 +1,236 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.jboss.galleon.DefaultMessageWriter;
+import org.jboss.galleon.util.IoUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.wildfly.galleon.plugin.transformer.TransformedArtifact;
+
+public class TransformationCacheTestCase {
+
+    private Path dir;
+    private Path cacheDir;
+    private final AtomicInteger transformations = new AtomicInteger();
+    private final AtomicInteger installations = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("transformation-cache");
+        cacheDir = dir.resolve("cache");
+    }
+
+    @After
+    public void tearDown() {
+        IoUtils.recursiveDelete(dir);
+    }
+
+    @Test
+    public void testMissThenHit() throws Exception {
+        final TransformationCache cache = newCache(Long.MAX_VALUE);
+        final Path src = write("acme.jar", "javax");
+
+        final Path first = dir.resolve("first/acme.jar");
+        TransformedArtifact artifact = cache.transform(src, first, transformation(src, first, true), this::install);
+        Assert.assertTrue(artifact.isTransformed());
+        Assert.assertEquals(1, transformations.get());
+
+        final Path target = dir.resolve("second/acme.jar");
+        artifact = cache.transform(src, target, transformation(src, target, true), this::install);
+        Assert.assertTrue(artifact.isTransformed());
+        Assert.assertEquals(1, transformations.get());
+        Assert.assertEquals("transformed javax", read(target));
+
+        // a new cache instance, e.g. another provisioning, reads the same entries
+        final Path third = dir.resolve("third/acme.jar");
+        newCache(Long.MAX_VALUE).transform(src, third, transformation(src, third, true), this::install);
+        Assert.assertEquals(1, transformations.get());
+        Assert.assertEquals("transformed javax", read(third));
+
+        final Path other = write("other.jar", "javax.other");
+        final Path otherTarget = dir.resolve("second/other.jar");
+        cache.transform(other, otherTarget, transformation(other, otherTarget, true), this::install);
+        Assert.assertEquals(2, transformations.get());
+    }
+
+    @Test
+    public void testUnchangedRestoredByInstallation() throws Exception {
+        final TransformationCache cache = newCache(Long.MAX_VALUE);
+        final Path src = write("acme.jar", "unchanged");
+        final Path first = dir.resolve("first/acme.jar");
+        Assert.assertFalse(cache.transform(src, first, transformation(src, first, false), this::install).isTransformed());
+        Assert.assertEquals(0, installations.get());
+
+        final Path second = dir.resolve("second/acme.jar");
+        Assert.assertFalse(cache.transform(src, second, transformation(src, second, false), this::install).isTransformed());
+        Assert.assertEquals(1, transformations.get());
+        Assert.assertEquals(1, installations.get());
+        Assert.assertEquals("unchanged", read(second));
+    }
+
+    @Test
+    public void testCorruptedEntryDiscarded() throws Exception {
+        final TransformationCache cache = newCache(Long.MAX_VALUE);
+        final Path src = write("acme.jar", "javax");
+        final Path first = dir.resolve("first/acme.jar");
+        cache.transform(src, first, transformation(src, first, true), this::install);
+
+        final List<Path> entries = entries();
+        Assert.assertEquals(1, entries.size());
+        Files.write(entries.get(0).resolve("artifact"), "corrupted".getBytes(StandardCharsets.UTF_8));
+
+        final Path second = dir.resolve("second/acme.jar");
+        cache.transform(src, second, transformation(src, second, true), this::install);
+        Assert.assertEquals(2, transformations.get());
+        Assert.assertEquals("transformed javax", read(second));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws Exception {
+        final TransformationCache cache = newCache(Long.MAX_VALUE);
+        final Path a = write("a.jar", "javax.a");
+        final Path b = write("b.jar", "javax.b");
+        final Path c = write("c.jar", "javax.c");
+        final long now = System.currentTimeMillis();
+        long entrySize = 0;
+        for (Path src : new Path[] {a, b, c}) {
+            final Path target = dir.resolve("first").resolve(src.getFileName());
+            cache.transform(src, target, transformation(src, target, true), this::install);
+        }
+        final List<Path> entries = entries();
+        Assert.assertEquals(3, entries.size());
+        for (Path entry : entries) {
+            entrySize = Math.max(entrySize, size(entry));
+        }
+        // a is the least recently used, then c, then b
+        setLastUsed(a, now - 30000);
+        setLastUsed(b, now - 10000);
+        setLastUsed(c, now - 20000);
+
+        newCache(2 * entrySize).evict();
+        Assert.assertEquals(2, entries().size());
+        transformations.set(0);
+        for (Path src : new Path[] {b, c}) {
+            final Path target = dir.resolve("second").resolve(src.getFileName());
+            cache.transform(src, target, transformation(src, target, true), this::install);
+        }
+        Assert.assertEquals(0, transformations.get());
+        final Path target = dir.resolve("second/a.jar");
+        cache.transform(a, target, transformation(a, target, true), this::install);
+        Assert.assertEquals(1, transformations.get());
+
+        newCache(0).evict();
+        Assert.assertEquals(0, entries().size());
+    }
+
+    @Test
+    public void testLockFilesBounded() throws Exception {
+        final TransformationCache cache = newCache(Long.MAX_VALUE);
+        for (int i = 0; i < 300; i++) {
+            final Path src = write("acme-" + i + ".jar", "javax " + i);
+            final Path target = dir.resolve("target").resolve(src.getFileName());
+            cache.transform(src, target, transformation(src, target, true), this::install);
+        }
+        newCache(0).evict();
+        try (Stream<Path> stream = Files.list(cacheDir)) {
+            Assert.assertEquals(".locks", stream.map(p -> p.getFileName().toString()).collect(Collectors.joining(",")));
+        }
+        try (Stream<Path> stream = Files.list(cacheDir.resolve(".locks"))) {
+            Assert.assertTrue(stream.count() <= 256);
+        }
+    }
+
+    private TransformationCache newCache(long maxSize) throws IOException {
+        return new TransformationCache(cacheDir, maxSize, null, new DefaultMessageWriter());
+    }
+
+    private TransformationCache.Transformation transformation(Path src, Path target, boolean transform) {
+        return () -> {
+            transformations.incrementAndGet();
+            Files.createDirectories(target.getParent());
+            if (transform) {
+                Files.write(target, ("transformed " + read(src)).getBytes(StandardCharsets.UTF_8));
+            } else {
+                Files.copy(src, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return new TransformedArtifact(src, target, transform, false, false);
+        };
+    }
+
+    private void install(Path src, Path target) throws IOException {
+        installations.incrementAndGet();
+        Files.copy(src, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void setLastUsed(Path src, long millis) throws IOException {
+        // the entry restored last is the one of src
+        final Path target = dir.resolve("touch").resolve(src.getFileName());
+        newCache(Long.MAX_VALUE).transform(src, target, transformation(src, target, true), this::install);
+        Path latest = null;
+        for (Path entry : entries()) {
+            if (latest == null || Files.getLastModifiedTime(entry.resolve("transformation.properties"))
+                    .compareTo(Files.getLastModifiedTime(latest.resolve("transformation.properties"))) > 0) {
+                latest = entry;
+            }
+        }
+        Files.setLastModifiedTime(latest.resolve("transformation.properties"), FileTime.fromMillis(millis));
+    }
+
+    private List<Path> entries() throws IOException {
+        final List<Path> entries = new ArrayList<>();
+        try (Stream<Path> stream = Files.list(cacheDir)) {
+            stream.filter(p -> !p.getFileName().toString().startsWith(".")).forEach(entries::add);
+        }
+        return entries;
+    }
+
+    private static long size(Path entry) throws IOException {
+        long size = 0;
+        try (Stream<Path> stream = Files.list(entry)) {
+            for (Path file : stream.collect(Collectors.toList())) {
+                size += Files.size(file);
+            }
+        }
+        return size;
+    }
+
+    private Path write(String name, String content) throws IOException {
+        final Path file = dir.resolve("repo").resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
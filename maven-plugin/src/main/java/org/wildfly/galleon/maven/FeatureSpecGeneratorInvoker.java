@@ -275,22 +275,25 @@ public class FeatureSpecGeneratorInvoker {
             }
             final List<Artifact> hardcodedArtifacts = new ArrayList<>(); // this one includes also the hardcoded artifact versions into module.xml
             final Path targetModules = wildflyHome.resolve(MODULES);
-            for(Map.Entry<String, Map<String, Artifact>> entry : moduleTemplates.entrySet()) {
-                try {
-                    ModuleXmlVersionResolver.convertModule(moduleTemplatesDir.resolve(entry.getKey()), targetModules.resolve(entry.getKey()), entry.getValue(), hardcodedArtifacts, log);
-                } catch (Exception e) {
-                    throw new MojoExecutionException("Failed to process " + moduleTemplatesDir.resolve(entry.getKey()), e);
-                }
-                if (jakartaTransform) {
-                    for (Artifact toTransform : entry.getValue().values()) {
-                        if (transformed.add(toTransform)) {
-                            transformArtifact(jakartaTransformConfigsDir, toTransform, logHandler);
+            // the transformers and the transformed entries are reused by the transformations of all the artifacts
+            try (JakartaTransformer.Session transformations = JakartaTransformer.openSession()) {
+                for(Map.Entry<String, Map<String, Artifact>> entry : moduleTemplates.entrySet()) {
+                    try {
+                        ModuleXmlVersionResolver.convertModule(moduleTemplatesDir.resolve(entry.getKey()), targetModules.resolve(entry.getKey()), entry.getValue(), hardcodedArtifacts, log);
+                    } catch (Exception e) {
+                        throw new MojoExecutionException("Failed to process " + moduleTemplatesDir.resolve(entry.getKey()), e);
+                    }
+                    if (jakartaTransform) {
+                        for (Artifact toTransform : entry.getValue().values()) {
+                            if (transformed.add(toTransform)) {
+                                transformArtifact(jakartaTransformConfigsDir, toTransform, logHandler);
+                            }
                         }
                     }
                 }
-            }
-            for (Artifact art : hardcodedArtifacts) {
-                findArtifact(art, transformed, logHandler);
+                for (Artifact art : hardcodedArtifacts) {
+                    findArtifact(art, transformed, logHandler);
+                }
             }
         }
 
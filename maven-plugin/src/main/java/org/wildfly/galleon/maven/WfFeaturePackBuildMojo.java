@@ -29,11 +29,18 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collections;
+import java.util.Enumeration;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
 
+import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
@@ -336,6 +343,75 @@ public class WfFeaturePackBuildMojo extends AbstractFeaturePackBuildMojo {
                 }
             }
         }
+        addSchemaArtifacts(schemaGroupsTxt.getParent().resolve(WfConstants.SCHEMA_ARTIFACTS_TXT));
+    }
+
+    /**
+     * Records, for the artifacts of the schema groups, whether they contain schemas, so that only the artifacts
+     * containing schemas are opened to extract the schemas at provisioning time. The artifacts are recorded
+     * with their version, an artifact that is not recorded (e.g. at another version) is opened.
+     */
+    private void addSchemaArtifacts(Path schemaArtifactsTxt) throws MojoExecutionException {
+        final Map<String, String> schemaArtifacts = new TreeMap<>();
+        for (Artifact artifact : project.getArtifacts()) {
+            if (!buildConfig.isSchemaGroup(artifact.getGroupId()) || artifact.getFile() == null) {
+                continue;
+            }
+            final Path file = artifact.getFile().toPath();
+            final boolean hasSchemas;
+            try {
+                if (Files.isDirectory(file)) {
+                    // a module of the reactor, not packaged
+                    hasSchemas = containsFiles(file.resolve(WfConstants.SCHEMA));
+                } else {
+                    hasSchemas = containsSchemas(file);
+                }
+            } catch (ZipException e) {
+                debug("Not recording the schemas of %s, %s is not a zip file", artifact, file);
+                continue;
+            } catch (IOException e) {
+                throw new MojoExecutionException(Errors.readFile(file), e);
+            }
+            final StringBuilder buf = new StringBuilder();
+            buf.append(artifact.getGroupId()).append(':').append(artifact.getArtifactId()).append(':')
+                    .append(artifact.getVersion()).append(':');
+            if (artifact.getClassifier() != null) {
+                buf.append(artifact.getClassifier());
+            }
+            schemaArtifacts.put(buf.toString(), String.valueOf(hasSchemas));
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(schemaArtifactsTxt)) {
+            for (Map.Entry<String, String> entry : schemaArtifacts.entrySet()) {
+                writer.write(entry.getKey());
+                writer.write('=');
+                writer.write(entry.getValue());
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException(Errors.writeFile(schemaArtifactsTxt), e);
+        }
+    }
+
+    private static boolean containsSchemas(Path file) throws IOException {
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            final Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && entry.getName().startsWith(WfConstants.SCHEMA + '/')) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsFiles(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return false;
+        }
+        try (Stream<Path> stream = Files.walk(dir)) {
+            return stream.anyMatch(Files::isRegularFile);
+        }
     }
 
     private void packageContent(FeaturePackDescription.Builder fpBuilder, Path contentDir, Path packagesDir) throws IOException, MojoExecutionException {
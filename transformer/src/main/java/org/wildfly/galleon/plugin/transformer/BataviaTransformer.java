@@ -16,12 +16,23 @@
  */
 package org.wildfly.galleon.plugin.transformer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import org.wildfly.extras.transformer.ArchiveTransformer;
 import org.wildfly.extras.transformer.TransformerBuilder;
+import org.wildfly.galleon.plugin.transformer.JakartaTransformer.EntryListener;
 import org.wildfly.galleon.plugin.transformer.JakartaTransformer.LogHandler;
 import org.wildfly.extras.transformer.TransformerFactory;
 
@@ -32,16 +43,49 @@ import org.wildfly.extras.transformer.TransformerFactory;
  */
 public class BataviaTransformer {
 
+    // Built transformers per configs dir and verbosity. Building a transformer parses the rules, a transformer
+    // is used by one thread at a time and returned to the pool once done. The pools are bound by the number of
+    // processors and only filled while a session is open, they are emptied when the last session is closed.
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors();
+    private static final Map<String, BlockingQueue<ArchiveTransformer>> TRANSFORMERS = new ConcurrentHashMap<>();
+
     static TransformedArtifact transform(Path configsDir, Path src, Path target, boolean verbose, LogHandler log) throws IOException {
+        return transform(configsDir, src, target, verbose, log, null);
+    }
+
+    /**
+     * Transforms src to target. Archive files are read once, their entries are transformed, unsigned and passed
+     * to the listener in a single pass. The archives that can't be transformed that way are transformed by
+     * Batavia, then unsigned and the transformed archive is read again for the listener.
+     */
+    static TransformedArtifact transform(Path configsDir, Path src, Path target, boolean verbose, LogHandler log,
+            EntryListener listener) throws IOException {
+        final String configs = configsDir != null ? configsDir.toString() : null;
+        if (Files.isRegularFile(src) && StreamingTransformer.isArchive(src.getFileName().toString())) {
+            final ArchiveTransformer transformer = acquire(configs, verbose);
+            TransformedArtifact transformed = null;
+            try {
+                transformed = RawArchiveTransformer.transform(transformer, EntryCache.get(configs, verbose), src, target, listener, log);
+            } catch (RawZip.Unsupported e) {
+                // transformed by Batavia
+            }
+            // a transformer that failed is not reused
+            release(configs, verbose, transformer);
+            if (transformed != null) {
+                if (transformed.isTransformed()) {
+                    log.print("EE9: transformed %s", target.getFileName().toString());
+                }
+                return transformed;
+            }
+        }
         boolean transformed;
-        boolean signed = false;
+        boolean signed;
         boolean unsigned = false;
         try {
-            transformed = transform(configsDir != null ? configsDir.toString() : null, src.toString(), target.toString(), verbose);
-            // TODO Only check for jar not for exploded for now
-            if (src.getFileName().toString().endsWith(".jar")) {
-                signed = JarUtils.isSignedJar(src);
-            }
+            final ArchiveTransformer transformer = acquire(configs, verbose);
+            transformed = transformer.transform(src.toFile(), target.toFile());
+            release(configs, verbose, transformer);
+            signed = JakartaTransformer.isSignedArchive(src);
             if (transformed) {
                 log.print("EE9: transformed %s", target.getFileName().toString());
             }
@@ -50,19 +94,87 @@ public class BataviaTransformer {
                 JarUtils.unsign(target);
                 unsigned = true;
             }
-
+            if (listener != null && Files.isRegularFile(target)) {
+                visitEntries(target, listener);
+            }
         } catch (Exception ex) {
             throw new RuntimeException(ex);
         }
         return new TransformedArtifact(src, target, transformed, signed, unsigned);
     }
 
-    static boolean transform(final String configsDir, final String source, final String target, boolean verbose) throws Exception {
+    static boolean transform(final String configsDir, final String source, final String target, boolean verbose, LogHandler log) throws Exception {
+        final ArchiveTransformer transformer = acquire(configsDir, verbose);
+        final boolean transformed = transform(transformer, EntryCache.get(configsDir, verbose), new File(source), new File(target), log);
+        // a transformer that failed is not reused
+        release(configsDir, verbose, transformer);
+        return transformed;
+    }
+
+    private static boolean transform(ArchiveTransformer transformer, EntryCache cache, File source, File target, LogHandler log) throws IOException {
+        if (source.isFile() && StreamingTransformer.isArchive(source.getName())) {
+            try {
+                return RawArchiveTransformer.transform(transformer, cache, source.toPath(), target.toPath(), null, log).isTransformed();
+            } catch (RawZip.Unsupported e) {
+                // transformed by Batavia
+            }
+        }
+        return transformer.transform(source, target);
+    }
+
+    /**
+     * Passes the entries of an archive to the listener.
+     */
+    static void visitEntries(Path archive, EntryListener listener) throws IOException {
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            final Enumeration<? extends ZipEntry> entries = zip.entries();
+            final byte[] buffer = new byte[8192];
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                final ByteArrayOutputStream data = new ByteArrayOutputStream();
+                try (InputStream in = zip.getInputStream(entry)) {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        data.write(buffer, 0, read);
+                    }
+                }
+                listener.entry(entry.getName(), data.toByteArray());
+            }
+        }
+    }
+
+    /**
+     * Returns a transformer for the rules of the configs dir, reusing a transformer released by another
+     * transformation if any. The transformer should be released once done.
+     */
+    static ArchiveTransformer acquire(String configsDir, boolean verbose) {
+        final BlockingQueue<ArchiveTransformer> pool = TRANSFORMERS.get(poolKey(configsDir, verbose));
+        final ArchiveTransformer transformer = pool == null ? null : pool.poll();
+        if (transformer != null) {
+            return transformer;
+        }
         final TransformerBuilder builder = TransformerFactory.getInstance().newTransformer();
         builder.setVerbose(verbose);
         if (configsDir != null) builder.setConfigsDir(configsDir);
-        final ArchiveTransformer transformer = builder.build();
-        return transformer.transform(new File(source), new File(target));
+        return builder.build();
+    }
+
+    static void release(String configsDir, boolean verbose, ArchiveTransformer transformer) {
+        if (JakartaTransformer.isSessionOpen()) {
+            // dropped if the pool is full
+            TRANSFORMERS.computeIfAbsent(poolKey(configsDir, verbose), k -> new LinkedBlockingQueue<>(POOL_SIZE)).offer(transformer);
+        }
+    }
+
+    static void clear() {
+        TRANSFORMERS.clear();
+    }
+
+    private static String poolKey(String configsDir, boolean verbose) {
+        return configsDir + "|" + verbose;
     }
 
 }
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin.transformer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.wildfly.galleon.plugin.transformer.JakartaTransformer.LogHandler;
+
+/**
+ * Transforms the jars of a maven repository to another repository, to be used as the provisioning
+ * repository of a provisioning with transformation disabled.
+ *
+ * A transformed jar is written with the version suffixed, along with its pom, which is the layout the
+ * provisioning looks for in the provisioning repository:
+ * {@code <group path>/<artifactId>/<version><suffix>/<artifactId>-<version><suffix>[-<classifier>].jar}.
+ * Jars left unchanged by the transformation are written the same way, as is: a provisioning with
+ * transformation disabled references the suffixed version of every artifact not excluded from the
+ * transformation. The jars are transformed concurrently, a jar that fails to be transformed doesn't stop
+ * the others. The status of each jar is written to {@link #SUMMARY} in the target repository.
+ */
+class BatchTransformer {
+
+    static final String SUMMARY = "jakarta-transform-summary.txt";
+
+    static final String TRANSFORMED = "transformed";
+    static final String UNSIGNED = "transformed-unsigned";
+    static final String UNCHANGED = "unchanged";
+    static final String FAILED = "failed";
+
+    private static final String JAR = ".jar";
+    private static final String POM = ".pom";
+
+    private final Path sourceRepo;
+    private final Path targetRepo;
+    private final String suffix;
+    private final Path configsDir;
+    private final boolean verbose;
+    private final int threads;
+    private final LogHandler log;
+
+    BatchTransformer(Path sourceRepo, Path targetRepo, String suffix, Path configsDir, boolean verbose, int threads, LogHandler log) {
+        this.sourceRepo = sourceRepo.toAbsolutePath().normalize();
+        this.targetRepo = targetRepo.toAbsolutePath().normalize();
+        this.suffix = suffix;
+        this.configsDir = configsDir;
+        this.verbose = verbose;
+        this.threads = threads;
+        this.log = log;
+    }
+
+    /**
+     * Transforms the jars of the source repository.
+     *
+     * @return the status of the transformed jars per artifact coordinates
+     */
+    Map<String, String> transform() throws IOException {
+        final List<Path> jars;
+        try (Stream<Path> stream = Files.walk(sourceRepo)) {
+            jars = stream.filter(p -> !p.startsWith(targetRepo) && isArtifactJar(p)).sorted().collect(Collectors.toList());
+        }
+        final Map<String, String> summary = new TreeMap<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (JakartaTransformer.Session session = JakartaTransformer.openSession()) {
+            final List<Future<String>> results = new ArrayList<>(jars.size());
+            for (Path jar : jars) {
+                results.add(executor.submit(() -> {
+                    try {
+                        return transform(jar);
+                    } catch (Exception e) {
+                        log.print("Failed to transform %s: %s", jar, e);
+                        return FAILED;
+                    }
+                }));
+            }
+            for (int i = 0; i < jars.size(); i++) {
+                summary.put(getCoordinates(jars.get(i)), join(results.get(i), jars.get(i)));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Files.createDirectories(targetRepo);
+        try (BufferedWriter writer = Files.newBufferedWriter(targetRepo.resolve(SUMMARY), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> entry : summary.entrySet()) {
+                writer.write(entry.getValue());
+                writer.write(' ');
+                writer.write(entry.getKey());
+                writer.newLine();
+            }
+        }
+        return summary;
+    }
+
+    private String transform(Path jar) throws IOException {
+        final Path versionDir = jar.getParent();
+        final String version = versionDir.getFileName().toString();
+        final Path targetDir = targetRepo.resolve(sourceRepo.relativize(versionDir.getParent())).resolve(version + suffix);
+        Files.createDirectories(targetDir);
+        final String fileName = jar.getFileName().toString();
+        final Path target = targetDir.resolve(transformedFileName(version, fileName));
+        final Path tmp = targetDir.resolve('.' + fileName + ".tmp");
+        Files.deleteIfExists(tmp);
+        boolean written = false;
+        try {
+            String status = UNCHANGED;
+            if (JakartaTransformer.isTransformable(configsDir, jar)) {
+                final TransformedArtifact transformed = JakartaTransformer.transform(configsDir, jar, tmp, verbose, log);
+                if (transformed.isTransformed()) {
+                    status = transformed.isUnsigned() ? UNSIGNED : TRANSFORMED;
+                }
+            }
+            if (status == UNCHANGED) {
+                Files.copy(jar, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            written = true;
+            final Path pom = versionDir.resolve(getArtifactId(jar) + '-' + version + POM);
+            if (Files.exists(pom)) {
+                // the jars of an artifact share its pom and may be written concurrently, the pom is renamed in place
+                Files.copy(pom, tmp, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(tmp, targetDir.resolve(transformedFileName(version, pom.getFileName().toString())),
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+            return status;
+        } finally {
+            Files.deleteIfExists(tmp);
+            if (!written) {
+                deleteIfEmpty(targetDir);
+            }
+        }
+    }
+
+    private static void deleteIfEmpty(Path dir) {
+        try {
+            Files.deleteIfExists(dir);
+        } catch (IOException e) {
+            // not empty, another jar of the artifact has been written
+        }
+    }
+
+    private String transformedFileName(String version, String fileName) {
+        final int endVersionIndex = fileName.lastIndexOf(version) + version.length();
+        return fileName.substring(0, endVersionIndex) + suffix + fileName.substring(endVersionIndex);
+    }
+
+    /**
+     * @return true if the path is a jar stored in the maven layout, sources and javadoc excluded
+     */
+    private boolean isArtifactJar(Path path) {
+        final String fileName = path.getFileName().toString();
+        if (!fileName.endsWith(JAR) || fileName.endsWith("-sources.jar") || fileName.endsWith("-javadoc.jar")
+                || !Files.isRegularFile(path)) {
+            return false;
+        }
+        final Path versionDir = path.getParent();
+        if (versionDir == null || versionDir.getParent() == null || !versionDir.getParent().startsWith(sourceRepo)
+                || versionDir.getParent().equals(sourceRepo)) {
+            return false;
+        }
+        final String version = versionDir.getFileName().toString();
+        if (!suffix.isEmpty() && version.endsWith(suffix)) {
+            // already transformed
+            return false;
+        }
+        final String prefix = getArtifactId(path) + '-' + version;
+        return fileName.equals(prefix + JAR) || fileName.startsWith(prefix + '-');
+    }
+
+    private static String getArtifactId(Path jar) {
+        return jar.getParent().getParent().getFileName().toString();
+    }
+
+    /**
+     * @return groupId:artifactId:version[:classifier]
+     */
+    private String getCoordinates(Path jar) {
+        final Path versionDir = jar.getParent();
+        final Path artifactDir = versionDir.getParent();
+        final String groupId = sourceRepo.relativize(artifactDir.getParent()).toString().replace(artifactDir.getFileSystem().getSeparator(), ".");
+        final String version = versionDir.getFileName().toString();
+        final String fileName = jar.getFileName().toString();
+        final String prefix = artifactDir.getFileName() + "-" + version;
+        final String classifier = fileName.length() > prefix.length() + JAR.length()
+                ? fileName.substring(prefix.length() + 1, fileName.length() - JAR.length()) : null;
+        return groupId + ':' + artifactDir.getFileName() + ':' + version + (classifier == null ? "" : ":" + classifier);
+    }
+
+    private static String join(Future<String> result, Path jar) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while transforming " + jar, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to transform " + jar, e.getCause());
+        }
+    }
+}
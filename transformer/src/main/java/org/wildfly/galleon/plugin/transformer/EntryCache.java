@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin.transformer;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.wildfly.extras.transformer.Resource;
+import org.wildfly.extras.transformer.ResourceTransformer;
+
+/**
+ * The results of the transformation of archive entries, keyed by the SHA-256 of the entry name and content.
+ * Artifacts often contain identical entries (shaded classes, service files, schemas), an entry seen
+ * again is not transformed again. Whether the entry was left unchanged is cached too.
+ *
+ * There is a cache per transformation rules, held in memory while a {@link JakartaTransformer.Session} is open
+ * and bound by the size of the cached content. Outside of a session nothing is cached. The least recently used results are dropped first. The maximum size in
+ * megabytes is read from the {@link JakartaTransformer#TRANSFORM_ENTRY_CACHE_SIZE} system property,
+ * 0 disables the cache. Verbose transformations are not cached so that their traces are complete.
+ */
+class EntryCache {
+
+    private static final long DEFAULT_MAX_SIZE_MB = 64;
+    // approximate memory used by a cached result besides its content
+    private static final int ENTRY_OVERHEAD = 128;
+    private static final Resource UNCHANGED = new Resource("", new byte[0]);
+    private static final EntryCache DISABLED = new EntryCache(0);
+    private static final Map<String, EntryCache> CACHES = new ConcurrentHashMap<>();
+
+    static EntryCache get(String configsDir, boolean verbose) {
+        if (verbose || !JakartaTransformer.isSessionOpen()) {
+            return DISABLED;
+        }
+        return CACHES.computeIfAbsent(String.valueOf(configsDir), k -> {
+            final long maxSize = getMaxSize();
+            return maxSize <= 0 ? DISABLED : new EntryCache(maxSize);
+        });
+    }
+
+    /**
+     * Releases the caches, once the last session is closed.
+     */
+    static void clear() {
+        CACHES.clear();
+    }
+
+    private static long getMaxSize() {
+        final String value = System.getProperty(JakartaTransformer.TRANSFORM_ENTRY_CACHE_SIZE);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim()) * 1024 * 1024;
+            } catch (NumberFormatException e) {
+                // default size
+            }
+        }
+        return DEFAULT_MAX_SIZE_MB * 1024 * 1024;
+    }
+
+    private final long maxSize;
+    private final LinkedHashMap<String, Resource> results = new LinkedHashMap<>(256, 0.75f, true);
+    private long size;
+
+    private EntryCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Transforms an entry or returns the cached result of the transformation of an identical entry.
+     *
+     * @return the transformed entry or null if the entry is not transformed
+     */
+    Resource transform(ResourceTransformer transformer, String name, byte[] data) {
+        if (maxSize <= 0 || data.length > maxSize / 16) {
+            return transformer.transform(new Resource(name, data));
+        }
+        final String key = key(name, data);
+        Resource result;
+        synchronized (results) {
+            result = results.get(key);
+        }
+        if (result == null) {
+            result = transformer.transform(new Resource(name, data));
+            if (result == null) {
+                result = UNCHANGED;
+            }
+            put(key, result);
+        }
+        return result == UNCHANGED ? null : result;
+    }
+
+    private void put(String key, Resource result) {
+        final long resultSize = sizeOf(result);
+        synchronized (results) {
+            if (results.put(key, result) == null) {
+                size += resultSize;
+            }
+            final Iterator<Resource> i = results.values().iterator();
+            while (size > maxSize && i.hasNext()) {
+                size -= sizeOf(i.next());
+                i.remove();
+            }
+        }
+    }
+
+    private static long sizeOf(Resource result) {
+        return result == UNCHANGED ? ENTRY_OVERHEAD : ENTRY_OVERHEAD + 2L * result.getName().length() + result.getData().length;
+    }
+
+    private static String key(String name, byte[] data) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(name.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(data);
+        return new String(digest.digest(), StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin.transformer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.wildfly.extras.transformer.ArchiveTransformer;
+import org.wildfly.extras.transformer.Resource;
+import org.wildfly.galleon.plugin.transformer.JakartaTransformer.LogHandler;
+
+/**
+ * Transforms an exploded artifact in place. The tree is not copied: the files of the tree are transformed
+ * concurrently, each file on its own, archives as a whole, to a temporary directory. Once all of them are
+ * transformed, the changes, including the renames, are applied one after the other in the order of the files.
+ * Before a file is replaced or a transformed file is renamed over another one, the original file is moved to
+ * a backup directory. Only the files that change are backed up. If applying the changes fails, the written
+ * files are removed and the backed up files are moved back. The temporary directory, created outside of the
+ * exploded artifact and of its parent, is deleted once done.
+ */
+class ExplodedTransformer {
+
+    private static final String TMP_DIR = ".transformed";
+    private static final String BACKUP_DIR = "backup";
+
+    /**
+     * The transformed content of a file, to move to the target path.
+     */
+    private static class Change {
+
+        final Path file;
+        final Path target;
+        final Path tmp;
+
+        Change(Path file, Path target, Path tmp) {
+            this.file = file;
+            this.target = target;
+            this.tmp = tmp;
+        }
+    }
+
+    private final Path dir;
+    private Path workDir;
+    private final Path configsDir;
+    private final String configs;
+    private final boolean verbose;
+    private final LogHandler log;
+    // original file and its backup, then the written files, in the order of the changes
+    private final List<Path[]> backups = new ArrayList<>();
+    private final Set<Path> backedUp = new HashSet<>();
+    private final List<Path> written = new ArrayList<>();
+    // set once a file failed to be transformed, the files not transformed yet are skipped
+    private volatile boolean failed;
+
+    private ExplodedTransformer(Path dir, Path configsDir, boolean verbose, LogHandler log) {
+        this.dir = dir;
+        this.configsDir = configsDir;
+        this.configs = configsDir == null ? null : configsDir.toString();
+        this.verbose = verbose;
+        this.log = log;
+    }
+
+    /**
+     * Transforms the exploded artifact in place.
+     */
+    static TransformedArtifact transform(Path configsDir, Path dir, boolean verbose, LogHandler log) throws IOException {
+        final ExplodedTransformer transformer = new ExplodedTransformer(dir, configsDir, verbose, log);
+        final boolean transformed;
+        // the files share the transformers and the transformed entries
+        try (JakartaTransformer.Session session = JakartaTransformer.openSession()) {
+            transformed = transformer.transform();
+        }
+        if (transformed) {
+            log.print("EE9: transformed %s", dir.getFileName());
+        }
+        return new TransformedArtifact(dir, dir, transformed, false, false);
+    }
+
+    private boolean transform() throws IOException {
+        final List<Path> files;
+        try (Stream<Path> stream = Files.walk(dir)) {
+            files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        if (files.isEmpty()) {
+            return false;
+        }
+        workDir = Files.createTempDirectory("jakartaee-" + dir.getFileName() + "-backup");
+        try {
+            final List<Change> changes = transform(files);
+            try {
+                for (Change change : changes) {
+                    apply(change);
+                }
+            } catch (IOException | RuntimeException e) {
+                log.print("Exception occured, reverting the changes made to %s", dir);
+                revert();
+                throw e;
+            }
+            return !changes.isEmpty();
+        } finally {
+            Utils.recursiveDelete(workDir);
+        }
+    }
+
+    /**
+     * Transforms the files concurrently, without changing the tree.
+     *
+     * @return the changes to apply, in the order of the files
+     */
+    private List<Change> transform(List<Path> files) throws IOException {
+        final List<Change> changes = new ArrayList<>();
+        boolean interrupted = false;
+        Throwable failure = null;
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(files.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            final List<Future<Change>> results = new ArrayList<>(files.size());
+            for (Path file : files) {
+                results.add(executor.submit(() -> {
+                    if (failed) {
+                        return null;
+                    }
+                    try {
+                        return transformFile(file);
+                    } catch (IOException | RuntimeException e) {
+                        failed = true;
+                        throw e;
+                    }
+                }));
+            }
+            // all the tasks are awaited, none of them should write once the temporary directory is deleted
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    final Change change = results.get(i).get();
+                    if (change != null) {
+                        changes.add(change);
+                    }
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                } catch (InterruptedException e) {
+                    failed = true;
+                    if (failure == null) {
+                        failure = e;
+                    }
+                    // the task is awaited again, the interrupt status is restored once all the tasks are done
+                    interrupted = true;
+                    --i;
+                }
+            }
+        } finally {
+            executor.shutdown();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure != null) {
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            }
+            throw new IOException(failure);
+        }
+        return changes;
+    }
+
+    /**
+     * @return the change to apply or null if the file is not transformed
+     */
+    private Change transformFile(Path file) throws IOException {
+        final String name = dir.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+        // named after the original file, two files can be renamed to the same target
+        final Path tmp = tmpFile(name);
+        if (StreamingTransformer.isArchive(name)) {
+            if (!JakartaTransformer.isTransformable(configsDir, file)
+                    || !BataviaTransformer.transform(configsDir, file, tmp, verbose, log).isTransformed()) {
+                return null;
+            }
+            return new Change(file, file, tmp);
+        }
+        final ArchiveTransformer transformer = BataviaTransformer.acquire(configs, verbose);
+        final Resource resource = EntryCache.get(configs, verbose).transform(transformer, name, Files.readAllBytes(file));
+        // a transformer that failed is not reused
+        BataviaTransformer.release(configs, verbose, transformer);
+        if (resource == null) {
+            return null;
+        }
+        Files.write(tmp, resource.getData());
+        return new Change(file, dir.resolve(resource.getName()), tmp);
+    }
+
+    private void apply(Change change) throws IOException {
+        backup(change.file);
+        if (!change.target.equals(change.file)) {
+            backup(change.target);
+            Files.createDirectories(change.target.getParent());
+        }
+        written.add(change.target);
+        Files.move(change.tmp, change.target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @return a path in the temporary directory to write the transformed content of a file to
+     */
+    private Path tmpFile(String name) throws IOException {
+        final Path tmp = workDir.resolve(TMP_DIR).resolve(name);
+        Files.createDirectories(tmp.getParent());
+        return tmp;
+    }
+
+    /**
+     * Moves the original file, if it exists and it is not backed up yet, to the backup directory.
+     */
+    private void backup(Path file) throws IOException {
+        if (!backedUp.add(file) || !Files.exists(file)) {
+            return;
+        }
+        final Path backup = workDir.resolve(BACKUP_DIR).resolve(dir.relativize(file).toString());
+        Files.createDirectories(backup.getParent());
+        Files.move(file, backup);
+        backups.add(new Path[] {file, backup});
+    }
+
+    private void revert() throws IOException {
+        for (Path file : written) {
+            Files.deleteIfExists(file);
+        }
+        for (Path[] backup : backups) {
+            Files.createDirectories(backup[0].getParent());
+            Files.move(backup[1], backup[0], StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
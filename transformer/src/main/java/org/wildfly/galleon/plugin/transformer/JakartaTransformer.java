@@ -16,15 +16,23 @@
  */
 package org.wildfly.galleon.plugin.transformer;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.wildfly.extras.transformer.ArchiveTransformer;
 
 /**
  *
@@ -32,21 +40,54 @@ import java.nio.file.Paths;
  */
 public class JakartaTransformer {
 
-    static class WrappedInputStream extends FileInputStream {
+    static class TransformedInputStream extends FilterInputStream {
 
-        private final Path dir;
+        volatile Throwable failure;
 
-        public WrappedInputStream(File file, Path dir) throws FileNotFoundException {
-            super(file);
-            this.dir = dir;
+        TransformedInputStream(InputStream in) {
+            super(in);
         }
 
         @Override
-        public void close() throws IOException {
-            super.close();
-            Utils.recursiveDelete(dir);
+        public int read() throws IOException {
+            int b;
+            try {
+                b = super.read();
+            } catch (IOException e) {
+                checkFailure(e);
+                throw e;
+            }
+            if (b == -1) {
+                checkFailure(null);
+            }
+            return b;
         }
 
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read;
+            try {
+                read = super.read(b, off, len);
+            } catch (IOException e) {
+                checkFailure(e);
+                throw e;
+            }
+            if (read == -1) {
+                checkFailure(null);
+            }
+            return read;
+        }
+
+        private void checkFailure(IOException e) throws IOException {
+            final Throwable t = failure;
+            if (t != null) {
+                final IOException ex = t instanceof IOException ? (IOException) t : new IOException(t);
+                if (e != null) {
+                    ex.addSuppressed(e);
+                }
+                throw ex;
+            }
+        }
     }
 
     public interface LogHandler {
@@ -54,9 +95,53 @@ public class JakartaTransformer {
         void print(String format, Object... args);
     }
 
+    /**
+     * Notified of the entries of a transformed archive while it is written, so that the content of the
+     * archive can be processed without reading it again. The signature files removed from a signed archive
+     * are not notified.
+     */
+    public interface EntryListener {
+
+        /**
+         * @param name  name of the entry
+         * @param data  content of the entry in the transformed archive
+         */
+        void entry(String name, byte[] data);
+    }
+
+    /**
+     * A transformation session, see {@link JakartaTransformer#openSession()}.
+     */
+    public static final class Session implements AutoCloseable {
+
+        private boolean closed;
+
+        private Session() {
+        }
+
+        @Override
+        public void close() {
+            synchronized (Session.class) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                if (--sessions == 0) {
+                    BataviaTransformer.clear();
+                    EntryCache.clear();
+                    SCANNERS.clear();
+                }
+            }
+        }
+    }
+
     public static final String TRANSFORM_ARTIFACTS = "jakarta.transform.artifacts";
     public static final String TRANSFORM_CONFIGS_DIR = "jakarta.transform.configs.dir";
     public static final String TRANSFORM_VERBOSE = "jakarta.transform.verbose";
+    /**
+     * System property, maximum size in megabytes of the in-memory cache of transformed archive entries, 0 disables it.
+     */
+    public static final String TRANSFORM_ENTRY_CACHE_SIZE = "jakarta.transform.entry.cache.size";
 
     private static final LogHandler DEFAULT_LOG_HANDLER = new LogHandler() {
         @Override
@@ -65,9 +150,20 @@ public class JakartaTransformer {
         }
     };
 
+    private static final int PIPE_SIZE = 64 * 1024;
+
+    // scanners per configs dir, the rules are read once per session
+    private static final Map<String, ReferenceScanner> SCANNERS = new ConcurrentHashMap<>();
+    // number of open sessions, updated while holding the Session class lock
+    private static volatile int sessions;
+
     private static final String CONFIGS_DIR_PARAM = "--configs-dir=";
     private static final String VERBOSE_PARAM = "--verbose";
     private static final String HELP_PARAM = "--help";
+    private static final String SOURCE_REPO_PARAM = "--source-repo=";
+    private static final String TARGET_REPO_PARAM = "--target-repo=";
+    private static final String SUFFIX_PARAM = "--suffix=";
+    private static final String THREADS_PARAM = "--threads=";
 
     // POC entry point to use galleon-plugins to transform artifacts offline.
     public static void main(String[] args) throws Exception {
@@ -75,12 +171,27 @@ public class JakartaTransformer {
         boolean verbose = false;
         String source = null;
         String target = null;
+        String sourceRepo = null;
+        String targetRepo = null;
+        String suffix = "";
+        int threads = Runtime.getRuntime().availableProcessors();
         for (String arg : args) {
             if (arg.equals(HELP_PARAM)) {
                 printHelp();
                 return;
             } else if (arg.startsWith(CONFIGS_DIR_PARAM)) {
                 configsDir = arg.substring(CONFIGS_DIR_PARAM.length());
+            } else if (arg.startsWith(SOURCE_REPO_PARAM)) {
+                sourceRepo = arg.substring(SOURCE_REPO_PARAM.length());
+            } else if (arg.startsWith(TARGET_REPO_PARAM)) {
+                targetRepo = arg.substring(TARGET_REPO_PARAM.length());
+            } else if (arg.startsWith(SUFFIX_PARAM)) {
+                suffix = arg.substring(SUFFIX_PARAM.length());
+            } else if (arg.startsWith(THREADS_PARAM)) {
+                threads = Integer.parseInt(arg.substring(THREADS_PARAM.length()));
+                if (threads < 1) {
+                    throw new Exception("Invalid number of threads " + threads);
+                }
             } else {
                 if (arg.equals(VERBOSE_PARAM)) {
                     verbose = true;
@@ -103,11 +214,25 @@ public class JakartaTransformer {
                 }
             }
         }
+        if (sourceRepo != null || targetRepo != null) {
+            if (sourceRepo == null || targetRepo == null) {
+                throw new Exception("Source and target repository must be set.");
+            }
+            if (source != null) {
+                throw new Exception("Invalid argument " + source);
+            }
+            if (Files.notExists(Paths.get(sourceRepo))) {
+                throw new Exception("Source repository " + sourceRepo + " doesn't exist.");
+            }
+            transformRepository(Paths.get(sourceRepo), Paths.get(targetRepo), suffix,
+                    configsDir == null ? null : Paths.get(configsDir), verbose, threads);
+            return;
+        }
         if (source == null || target == null) {
             throw new Exception("Source and target artifact must be set.");
         }
 
-        boolean ret = BataviaTransformer.transform(configsDir, source, target, verbose);
+        boolean ret = BataviaTransformer.transform(configsDir, source, target, verbose, DEFAULT_LOG_HANDLER);
         if (ret) {
             System.out.println("Artifact has been transformed.");
         } else {
@@ -115,43 +240,185 @@ public class JakartaTransformer {
         }
     }
 
+    private static void transformRepository(Path sourceRepo, Path targetRepo, String suffix, Path configsDir, boolean verbose, int threads) throws Exception {
+        final Map<String, String> summary = new BatchTransformer(sourceRepo, targetRepo, suffix, configsDir, verbose, threads, DEFAULT_LOG_HANDLER).transform();
+        final Map<String, Integer> counts = new TreeMap<>();
+        for (String status : summary.values()) {
+            counts.merge(status, 1, Integer::sum);
+        }
+        System.out.println(summary.size() + " artifacts processed " + counts + ", summary written to " + targetRepo.resolve(BatchTransformer.SUMMARY));
+        if (counts.containsKey(BatchTransformer.FAILED)) {
+            throw new Exception(counts.get(BatchTransformer.FAILED) + " artifacts failed to be transformed.");
+        }
+    }
+
     private static void printHelp() {
         StringBuilder builder = new StringBuilder();
         builder.append("WildFly Galleon EE9 transformer usage:\n");
         builder.append("java -jar <transformer jar> <source file> <target file> [ARGUMENTS]\n");
-        builder.append("If the target file already exists, it will be first deleted.");
+        builder.append("If the target file already exists, it will be first deleted.\n");
+        builder.append("java -jar <transformer jar> --source-repo=<maven repo> --target-repo=<maven repo> [--suffix=<version suffix>] [--threads=<n>] [ARGUMENTS]\n");
+        builder.append("Transforms the jars of the source repository, the jars, transformed or unchanged, and their pom are written to the target ");
+        builder.append("repository with the version suffixed. A summary of the transformation is written to the target repository.\n");
         builder.append("Arguments:\n");
         builder.append("  --help : print this help\n");
         builder.append("  --verbose : print transformation traces\n");
         builder.append("  --configs-dir=<rules dir> : path to a directory containing transformation rules\n");
+        builder.append("  --source-repo=<maven repo> : path to the maven repository to transform\n");
+        builder.append("  --target-repo=<maven repo> : path to the maven repository the transformed jars are written to\n");
+        builder.append("  --suffix=<version suffix> : suffix appended to the version of the transformed jars, none by default\n");
+        builder.append("  --threads=<n> : number of jars transformed concurrently, the number of processors by default\n");
         builder.append("To redirect traces into a file: java -jar <transformer jar> <source> <target> --verbose &> traces.txt\n");
         System.out.println(builder.toString());
     }
 
+    /**
+     * Transforms the content read from in. The transformation runs in a new daemon thread.
+     *
+     * @see #transform(Path, InputStream, String, boolean, LogHandler, Executor)
+     */
     public static InputStream transform(Path configsDir, InputStream in, String name, boolean verbose, LogHandler log) throws IOException {
+        return transform(configsDir, in, name, verbose, log, task -> {
+            final Thread thread = new Thread(task, "jakarta-transform-" + name);
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    /**
+     * Transforms the content read from in. The transformation runs on the executor, writing to the returned
+     * stream, no temporary files are involved. The executor must not run the transformation in the thread
+     * reading the returned stream. A failure of the transformation is thrown by the read of the returned
+     * stream that reaches the end of the content written before the failure.
+     *
+     * @param name  name of the content, an archive unless the name ends with .xml
+     * @return the transformed content
+     */
+    public static InputStream transform(Path configsDir, InputStream in, String name, boolean verbose, LogHandler log,
+            Executor executor) throws IOException {
+        final LogHandler logHandler = log == null ? DEFAULT_LOG_HANDLER : log;
+        final PipedInputStream pipeIn = new PipedInputStream(PIPE_SIZE);
+        final PipedOutputStream pipeOut = new PipedOutputStream(pipeIn);
+        final TransformedInputStream result = new TransformedInputStream(pipeIn);
+        try {
+            executor.execute(() -> {
+                try {
+                    transform(configsDir, in, pipeOut, name, verbose, logHandler);
+                } catch (Throwable t) {
+                    // set before the pipe is closed so that the reader doesn't take the end of the pipe for the end of the content
+                    result.failure = t;
+                } finally {
+                    try {
+                        pipeOut.close();
+                    } catch (IOException e) {
+                        // the reader closed the stream
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pipeIn.close();
+            throw new IOException("Failed to start the transformation of " + name, e);
+        }
+        return result;
+    }
+
+    /**
+     * Transforms the content read from in and writes the transformed content to out, without temporary files.
+     * Archives are transformed entry by entry, the memory required is bound by the size of the largest entry.
+     * The streams are not closed.
+     *
+     * @param name  name of the content, an archive unless the name ends with .xml
+     * @return true if the content has been transformed
+     */
+    public static boolean transform(Path configsDir, InputStream in, OutputStream out, String name, boolean verbose, LogHandler log) throws IOException {
         if (log == null) {
             log = DEFAULT_LOG_HANDLER;
         }
-        if (!name.endsWith(".war") && !name.endsWith(".ear")
-                && !name.endsWith(".rar") && !name.endsWith(".jar") && !name.endsWith(".xml")) {
-            name = name + ".war";
+        final String configs = configsDir == null ? null : configsDir.toString();
+        final ArchiveTransformer archiveTransformer = BataviaTransformer.acquire(configs, verbose);
+        final StreamingTransformer transformer = new StreamingTransformer(archiveTransformer, EntryCache.get(configs, verbose), log);
+        final boolean transformed;
+        if (name.endsWith(".xml")) {
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            final byte[] bytes = new byte[PIPE_SIZE];
+            int read;
+            while ((read = in.read(bytes)) != -1) {
+                buffer.write(bytes, 0, read);
+            }
+            final byte[] data = transformer.transformResource(name, buffer.toByteArray());
+            transformed = data != null;
+            out.write(transformed ? data : buffer.toByteArray());
+        } else {
+            transformed = transformer.transformArchive(name, in, out);
+        }
+        // a transformer that failed is not reused
+        BataviaTransformer.release(configs, verbose, archiveTransformer);
+        out.flush();
+        if (transformed) {
+            log.print("EE9: transformed %s", name);
         }
-        Path dir = Files.createTempDirectory("jakarta-transform");
-        Path src = dir.resolve("jakartaee-" + name);
-        Path target = dir.resolve(name);
+        return transformed;
+    }
 
-        FileOutputStream out = new FileOutputStream(src.toFile());
-        byte[] buffer = new byte[1024];
-        int size;
-        while ((size = in.read(buffer)) != -1) {
-            out.write(buffer, 0, size);
+    /**
+     * Opens a session during which the transformers built and the results of the transformation of archive entries
+     * are kept to be reused by the following transformations, until the session is closed. Outside of a session,
+     * every transformation builds its own transformer and nothing is retained. Sessions can be nested, what they
+     * retained is released when the last one is closed.
+     *
+     * @return the session to close once the transformations are done
+     */
+    public static Session openSession() {
+        synchronized (Session.class) {
+            ++sessions;
         }
-        out.close();
-        BataviaTransformer.transform(configsDir, src, target, verbose, log);
-        return new WrappedInputStream(target.toFile(), dir);
+        return new Session();
+    }
+
+    static boolean isSessionOpen() {
+        return sessions > 0;
+    }
+
+    /**
+     * Searches an artifact for the names the transformation rules may apply to. This is much cheaper than
+     * a transformation, an artifact for which false is returned would be left unchanged by the transformation.
+     * Exploded artifacts are not searched.
+     *
+     * @return false if the transformation is known to leave the artifact unchanged
+     */
+    public static boolean isTransformable(Path configsDir, Path src) throws IOException {
+        if (Files.isDirectory(src)) {
+            return true;
+        }
+        final String key = String.valueOf(configsDir);
+        ReferenceScanner scanner = SCANNERS.get(key);
+        if (scanner == null) {
+            scanner = new ReferenceScanner(configsDir);
+            if (isSessionOpen()) {
+                SCANNERS.putIfAbsent(key, scanner);
+            }
+        }
+        return scanner.mayTransform(src);
+    }
+
+    /**
+     * Whether an artifact is a signed archive, as reported by {@link TransformedArtifact#isSrcSigned()}. Callers that
+     * don't transform an artifact, e.g. because it is not transformable, report it the same way.
+     */
+    public static boolean isSignedArchive(Path src) throws IOException {
+        return Files.isRegularFile(src) && StreamingTransformer.isArchive(src.getFileName().toString()) && JarUtils.isSignedJar(src);
     }
 
     public static TransformedArtifact transform(Path configsDir, Path src, Path target, boolean verbose, LogHandler log) throws IOException {
+        return transform(configsDir, src, target, verbose, log, null);
+    }
+
+    /**
+     * Transforms src to target. The listener, if any, is notified of the non directory entries of the
+     * transformed archive, it is not notified for exploded artifacts.
+     */
+    public static TransformedArtifact transform(Path configsDir, Path src, Path target, boolean verbose, LogHandler log,
+            EntryListener listener) throws IOException {
         if (log == null) {
             log = DEFAULT_LOG_HANDLER;
         }
@@ -159,16 +426,11 @@ public class JakartaTransformer {
         Path actualTarget = null;
         Path safeCopy = null;
         boolean failed = false;
-        boolean isExploded = false;
         if (Files.isDirectory(src)) {
             // Exploded
-            isExploded = true;
             if (target.equals(src)) {
-                safeCopy = target.getParent().resolve("jakartaee-" + target.getFileName().toString());
-                log.print("Transformation target is equal to src, moving src artifact directory to %s", safeCopy);
-                Utils.copy(src, safeCopy);
-                Utils.recursiveDelete(src);
-                src = safeCopy;
+                // transformed in place, only the changed files are backed up
+                return ExplodedTransformer.transform(configsDir, src, verbose, log);
             }
             actualTarget = target;
         } else {
@@ -193,7 +455,14 @@ public class JakartaTransformer {
             throw new IOException("Transformation target " + actualTarget + " already exist");
         }
         try {
-            return BataviaTransformer.transform(configsDir, src, actualTarget, verbose, log);
+            if (!isTransformable(configsDir, src)) {
+                Files.copy(src, actualTarget);
+                if (listener != null) {
+                    BataviaTransformer.visitEntries(actualTarget, listener);
+                }
+                return new TransformedArtifact(src, actualTarget, false, isSignedArchive(src), false);
+            }
+            return BataviaTransformer.transform(configsDir, src, actualTarget, verbose, log, listener);
         } catch (Throwable ex) {
             failed = true;
             if (ex instanceof IOException) {
@@ -206,19 +475,11 @@ public class JakartaTransformer {
                 // revert
                 if (safeCopy != null) {
                     log.print("Exception occured, reverting original src artifact");
-                    if (isExploded) {
-                        Utils.copy(safeCopy, originalSrc);
-                    } else {
-                        Files.copy(safeCopy, originalSrc);
-                    }
+                    Files.copy(safeCopy, originalSrc);
                 }
             }
             if (safeCopy != null) {
-                if (isExploded) {
-                    Utils.recursiveDelete(safeCopy);
-                } else {
-                    Files.delete(safeCopy);
-                }
+                Files.delete(safeCopy);
             }
         }
     }
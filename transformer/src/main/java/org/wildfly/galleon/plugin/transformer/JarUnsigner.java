@@ -0,0 +1,155 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin.transformer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Removes the signature of a jar in a single pass, without extracting it.
+ *
+ * The signature files are dropped and the digests are removed from the manifest. The other entries are
+ * copied as is, their local header and compressed data are copied without being inflated, only the offsets
+ * recorded in the central directory are updated. The jars {@link RawZip} doesn't support are rewritten
+ * entry by entry instead.
+ */
+class JarUnsigner {
+
+    private static final String META_INF = "META-INF/";
+
+    /**
+     * Unsigns the jar in place.
+     */
+    static void unsign(Path jarFile) throws IOException {
+        final Path tmp = jarFile.resolveSibling(jarFile.getFileName() + ".unsigned");
+        try {
+            try (FileChannel in = FileChannel.open(jarFile, StandardOpenOption.READ);
+                    FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.TRUNCATE_EXISTING)) {
+                try {
+                    copyRaw(in, out);
+                } catch (RawZip.Unsupported e) {
+                    out.truncate(0);
+                    rewrite(jarFile, Channels.newOutputStream(out));
+                }
+            }
+            Files.move(tmp, jarFile, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    static boolean isSignatureFile(String name) {
+        final String upper = name.toUpperCase(Locale.ENGLISH);
+        return upper.startsWith(META_INF) && upper.indexOf('/', META_INF.length()) < 0
+                && (upper.endsWith(".SF") || upper.endsWith(".RSA") || upper.endsWith(".DSA") || upper.endsWith(".EC"));
+    }
+
+    static Manifest removeDigests(Manifest manifest) {
+        final Manifest result = new Manifest();
+        result.getMainAttributes().putAll(manifest.getMainAttributes());
+        for (Map.Entry<String, Attributes> entry : manifest.getEntries().entrySet()) {
+            if (!hasDigest(entry.getValue())) {
+                result.getEntries().put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    static boolean hasDigest(Attributes attributes) {
+        for (Object attrkey : attributes.keySet()) {
+            if (attrkey instanceof Attributes.Name
+                    && ((Attributes.Name) attrkey).toString().indexOf("-Digest") != -1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void copyRaw(FileChannel in, FileChannel out) throws IOException {
+        final RawZip.Archive archive = RawZip.read(in);
+        final RawZip.Writer writer = new RawZip.Writer(out);
+        for (RawZip.Entry entry : archive.entries) {
+            if (isSignatureFile(entry.getName())) {
+                continue;
+            }
+            if (JarFile.MANIFEST_NAME.equalsIgnoreCase(entry.getName())) {
+                final ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+                removeDigests(new Manifest(new ByteArrayInputStream(RawZip.readData(in, entry)))).write(manifest);
+                writer.write(entry, entry.getName(), manifest.toByteArray());
+            } else {
+                writer.copy(in, entry);
+            }
+        }
+        writer.finish(archive);
+    }
+
+    /**
+     * Rewrites the jar entry by entry, for the jars that can't be copied raw.
+     */
+    private static void rewrite(Path jarFile, OutputStream target) throws IOException {
+        try (ZipFile zip = new ZipFile(jarFile.toFile());
+                ZipOutputStream out = new ZipOutputStream(target)) {
+            final Enumeration<? extends ZipEntry> entries = zip.entries();
+            final byte[] buffer = new byte[8192];
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                if (isSignatureFile(entry.getName())) {
+                    continue;
+                }
+                final ZipEntry copy = new ZipEntry(entry.getName());
+                copy.setTime(entry.getTime());
+                if (entry.getMethod() == ZipEntry.STORED && !JarFile.MANIFEST_NAME.equalsIgnoreCase(entry.getName())) {
+                    copy.setMethod(ZipEntry.STORED);
+                    copy.setSize(entry.getSize());
+                    copy.setCompressedSize(entry.getSize());
+                    copy.setCrc(entry.getCrc());
+                }
+                out.putNextEntry(copy);
+                try (InputStream in = zip.getInputStream(entry)) {
+                    if (JarFile.MANIFEST_NAME.equalsIgnoreCase(entry.getName())) {
+                        removeDigests(new Manifest(in)).write(out);
+                    } else {
+                        int read;
+                        while ((read = in.read(buffer)) != -1) {
+                            out.write(buffer, 0, read);
+                        }
+                    }
+                }
+                out.closeEntry();
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin.transformer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import org.wildfly.extras.transformer.ArchiveTransformer;
+import org.wildfly.extras.transformer.Resource;
+import org.wildfly.galleon.plugin.transformer.JakartaTransformer.EntryListener;
+import org.wildfly.galleon.plugin.transformer.JakartaTransformer.LogHandler;
+
+/**
+ * Transforms an archive file entry by entry, copying the entries left unchanged by the transformation
+ * without compressing them again: their local header and compressed data are copied from the source
+ * archive. Only the transformed entries are compressed. Nested archives are transformed in memory.
+ * The transformation of the entries goes through the {@link EntryCache}.
+ *
+ * The source is read once, everything else derived from its content is computed in the same pass: the
+ * signature of a signed archive is removed while the archive is transformed, the SHA-256 of the transformed
+ * archive is computed while it is written, and the content of the written entries is passed to an optional
+ * {@link EntryListener}, e.g. to index the transformed classes. If a signed archive turns out not to be
+ * transformed, it is copied as is.
+ */
+class RawArchiveTransformer {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Transforms src to target. If the archive is not supported by {@link RawZip}, target is not created.
+     *
+     * @param listener  notified of the content of the entries written to target, may be null
+     * @return the transformed archive
+     * @throws RawZip.Unsupported if the archive can't be transformed at the level of its records
+     */
+    static TransformedArtifact transform(ArchiveTransformer transformer, EntryCache cache, Path src, Path target,
+            EntryListener listener, LogHandler log) throws IOException {
+        final MessageDigest digest = newSha256();
+        boolean transformed = false;
+        final boolean signed;
+        // an existing target is not ours to delete
+        boolean created = false;
+        try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            created = true;
+            final RawZip.Archive archive = RawZip.read(in);
+            final RawZip.Entry manifest = getManifest(archive);
+            signed = manifest != null && isSigned(RawZip.readData(in, manifest));
+            final RawZip.Writer writer = new RawZip.Writer(out, digest);
+            final StreamingTransformer nestedTransformer = new StreamingTransformer(transformer, cache, log);
+            for (RawZip.Entry entry : archive.entries) {
+                if (entry.isDirectory()) {
+                    writer.copy(in, entry);
+                    continue;
+                }
+                final byte[] data = RawZip.readData(in, entry);
+                if (signed && JarUnsigner.isSignatureFile(entry.getName())) {
+                    // removed, the archive is copied as is if it is not transformed
+                    continue;
+                }
+                String name = entry.getName();
+                byte[] written = data;
+                if (StreamingTransformer.isArchive(entry.getName())) {
+                    final ByteArrayOutputStream nested = new ByteArrayOutputStream(data.length);
+                    if (nestedTransformer.transformArchive(entry.getName(), new ByteArrayInputStream(data), nested)) {
+                        written = nested.toByteArray();
+                        writer.write(entry, name, written);
+                        transformed = true;
+                    } else {
+                        writer.copy(in, entry);
+                    }
+                } else {
+                    final Resource resource = cache.transform(transformer, entry.getName(), data);
+                    if (resource != null) {
+                        name = resource.getName();
+                        written = resource.getData();
+                        transformed = true;
+                    }
+                    if (signed && entry == manifest) {
+                        final ByteArrayOutputStream unsigned = new ByteArrayOutputStream();
+                        JarUnsigner.removeDigests(new Manifest(new ByteArrayInputStream(written))).write(unsigned);
+                        written = unsigned.toByteArray();
+                        writer.write(entry, name, written);
+                    } else if (resource == null) {
+                        writer.copy(in, entry);
+                    } else {
+                        writer.write(entry, name, written);
+                    }
+                }
+                if (listener != null) {
+                    listener.entry(name, written);
+                }
+            }
+            if (signed && !transformed) {
+                out.truncate(0);
+                digest.reset();
+                copy(in, out, digest);
+            } else {
+                writer.finish(archive);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (created) {
+                Files.deleteIfExists(target);
+            }
+            throw e;
+        }
+        if (signed && transformed) {
+            log.print("WARNING: EE9: unsigning transformed %s", target.getFileName());
+        }
+        return new TransformedArtifact(src, target, transformed, signed, signed && transformed, toHex(digest.digest()));
+    }
+
+    private static RawZip.Entry getManifest(RawZip.Archive archive) {
+        for (RawZip.Entry entry : archive.entries) {
+            if (JarFile.MANIFEST_NAME.equalsIgnoreCase(entry.getName())) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isSigned(byte[] manifest) throws IOException {
+        for (Map.Entry<String, Attributes> entry : new Manifest(new ByteArrayInputStream(manifest)).getEntries().entrySet()) {
+            if (JarUnsigner.hasDigest(entry.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void copy(FileChannel in, FileChannel out, MessageDigest digest) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long position = 0;
+        int read;
+        while ((read = in.read(buffer, position)) > 0) {
+            position += read;
+            buffer.flip();
+            digest.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
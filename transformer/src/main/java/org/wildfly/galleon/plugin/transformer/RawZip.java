@@ -0,0 +1,422 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin.transformer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Reads and writes zip files at the level of their records, so that entries can be copied from one
+ * archive to another without being inflated and deflated again.
+ *
+ * Only the archives that don't use the zip64 format and that start with their first entry are supported,
+ * {@link Unsupported} is thrown for the others so that the callers fall back to java.util.zip.
+ */
+class RawZip {
+
+    /**
+     * Thrown when an archive can't be read or written at the level of its records.
+     */
+    static class Unsupported extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        Unsupported(String message) {
+            super(message);
+        }
+    }
+
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+    private static final int UTF8_FLAG = 0x800;
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * An entry, as recorded in the central directory.
+     */
+    static class Entry {
+        private final byte[] header;
+        private final String name;
+        private final long localOffset;
+        // end of the entry data, including its data descriptor if any
+        private long end;
+
+        private Entry(byte[] header) {
+            this.header = header;
+            this.name = new String(header, CENTRAL_HEADER_SIZE, nameLength(),
+                    (flags() & UTF8_FLAG) != 0 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+            this.localOffset = buffer().getInt(42) & 0xffffffffL;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        int getMethod() {
+            return buffer().getShort(10) & 0xffff;
+        }
+
+        long getSize() {
+            return buffer().getInt(24) & 0xffffffffL;
+        }
+
+        private ByteBuffer buffer() {
+            return ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private int flags() {
+            return buffer().getShort(8) & 0xffff;
+        }
+
+        private int nameLength() {
+            return buffer().getShort(28) & 0xffff;
+        }
+
+        private boolean isZip64() {
+            final ByteBuffer buf = buffer();
+            return buf.getInt(20) == -1 || buf.getInt(24) == -1 || buf.getInt(42) == -1;
+        }
+    }
+
+    /**
+     * The content of a zip file: its entries in the order of the central directory and its end record.
+     */
+    static class Archive {
+        final List<Entry> entries;
+        private final byte[] end;
+
+        private Archive(List<Entry> entries, byte[] end) {
+            this.entries = entries;
+            this.end = end;
+        }
+    }
+
+    static Archive read(FileChannel in) throws IOException {
+        final long size = in.size();
+        final int tailSize = (int) Math.min(size, END_SIZE + MAX_COMMENT_SIZE);
+        final ByteBuffer tail = read(in, size - tailSize, tailSize);
+        int endPos = -1;
+        for (int i = tailSize - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIG) {
+                endPos = i;
+                break;
+            }
+        }
+        if (endPos < 0) {
+            throw new Unsupported("End of central directory not found");
+        }
+        final int entryCount = tail.getShort(endPos + 10) & 0xffff;
+        final long cdSize = tail.getInt(endPos + 12) & 0xffffffffL;
+        final long cdOffset = tail.getInt(endPos + 16) & 0xffffffffL;
+        if (entryCount == 0xffff || cdSize == 0xffffffffL || cdOffset == 0xffffffffL) {
+            throw new Unsupported("zip64 archive");
+        }
+        if (cdOffset + cdSize > size) {
+            throw new Unsupported("Invalid central directory");
+        }
+        final ByteBuffer cd = read(in, cdOffset, (int) cdSize);
+        final List<Entry> entries = new ArrayList<>(entryCount);
+        int pos = 0;
+        for (int i = 0; i < entryCount; i++) {
+            if (pos + CENTRAL_HEADER_SIZE > cdSize || cd.getInt(pos) != CENTRAL_HEADER_SIG) {
+                throw new Unsupported("Invalid central directory");
+            }
+            final int length = CENTRAL_HEADER_SIZE + (cd.getShort(pos + 28) & 0xffff) + (cd.getShort(pos + 30) & 0xffff)
+                    + (cd.getShort(pos + 32) & 0xffff);
+            final byte[] header = new byte[length];
+            cd.position(pos);
+            cd.get(header);
+            final Entry entry = new Entry(header);
+            if (entry.isZip64()) {
+                throw new Unsupported("zip64 entry " + entry.name);
+            }
+            entries.add(entry);
+            pos += length;
+        }
+        // the data of an entry spans up to the next entry
+        final List<Entry> byOffset = new ArrayList<>(entries);
+        byOffset.sort(Comparator.comparingLong(e -> e.localOffset));
+        if (!byOffset.isEmpty() && byOffset.get(0).localOffset != 0) {
+            throw new Unsupported("Data before the first entry");
+        }
+        for (int i = 0; i < byOffset.size(); i++) {
+            byOffset.get(i).end = i + 1 < byOffset.size() ? byOffset.get(i + 1).localOffset : cdOffset;
+        }
+        final byte[] end = new byte[tailSize - endPos];
+        tail.position(endPos);
+        tail.get(end);
+        return new Archive(entries, end);
+    }
+
+    /**
+     * Reads the uncompressed content of an entry.
+     */
+    static byte[] readData(FileChannel in, Entry entry) throws IOException {
+        final ByteBuffer local = read(in, entry.localOffset, LOCAL_HEADER_SIZE);
+        if (local.getInt(0) != LOCAL_HEADER_SIG) {
+            throw new IOException("Invalid local header for " + entry.name);
+        }
+        final long dataOffset = entry.localOffset + LOCAL_HEADER_SIZE + (local.getShort(26) & 0xffff) + (local.getShort(28) & 0xffff);
+        final byte[] compressed = read(in, dataOffset, entry.buffer().getInt(20)).array();
+        final int method = entry.getMethod();
+        if (method == ZipEntry.STORED) {
+            return compressed;
+        }
+        if (method != ZipEntry.DEFLATED) {
+            throw new Unsupported("Compression method " + method + " of " + entry.name);
+        }
+        final Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(entry.getSize(), Integer.MAX_VALUE - 8));
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            boolean dummyByte = false;
+            while (!inflater.finished()) {
+                final int inflated = inflater.inflate(buffer);
+                if (inflated == 0 && inflater.needsInput() && !dummyByte) {
+                    // without the zlib wrapper, the inflater may need an extra byte to complete, e.g. for empty entries
+                    inflater.setInput(new byte[1]);
+                    dummyByte = true;
+                    continue;
+                }
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated data for " + entry.name);
+                }
+                out.write(buffer, 0, inflated);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid data for " + entry.name, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Writes an archive record by record. The central directory is written by {@link #finish(Archive)}.
+     */
+    static class Writer {
+
+        private final FileChannel out;
+        private final MessageDigest digest;
+        private final ByteArrayOutputStream centralDir = new ByteArrayOutputStream();
+        private int count;
+
+        Writer(FileChannel out) {
+            this(out, null);
+        }
+
+        /**
+         * @param digest  updated with the bytes written, if not null
+         */
+        Writer(FileChannel out, MessageDigest digest) {
+            this.out = out;
+            this.digest = digest;
+        }
+
+        /**
+         * Copies an entry of the source archive, without inflating it.
+         */
+        void copy(FileChannel in, Entry entry) throws IOException {
+            final long offset = offset();
+            long position = entry.localOffset;
+            if (digest == null) {
+                while (position < entry.end) {
+                    position += in.transferTo(position, entry.end - position, out);
+                }
+            } else {
+                // the copied bytes go through the digest
+                final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE * 8, entry.end - position));
+                while (position < entry.end) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), entry.end - position));
+                    final int read = in.read(buffer, position);
+                    if (read < 0) {
+                        throw new IOException("Unexpected end of file");
+                    }
+                    position += read;
+                    buffer.flip();
+                    write(buffer);
+                }
+            }
+            final byte[] header = entry.header.clone();
+            ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN).putInt(42, (int) offset);
+            addCentralHeader(header);
+        }
+
+        /**
+         * Writes new content for an entry of the source archive. The entry is compressed if the original
+         * entry was, its time and attributes are preserved.
+         *
+         * @param entry  the original entry
+         * @param name  name of the written entry
+         * @param data  uncompressed content
+         */
+        void write(Entry entry, String name, byte[] data) throws IOException {
+            final long offset = offset();
+            final boolean stored = entry.getMethod() == ZipEntry.STORED;
+            final CRC32 crc = new CRC32();
+            crc.update(data);
+            final byte[] compressed = stored ? data : deflate(data);
+            final byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            final short method = (short) (stored ? ZipEntry.STORED : ZipEntry.DEFLATED);
+            final short flags = (short) (isAscii(nameBytes) ? 0 : UTF8_FLAG);
+            final ByteBuffer original = entry.buffer();
+
+            final ByteBuffer local = ByteBuffer.allocate(LOCAL_HEADER_SIZE + nameBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+            local.putInt(LOCAL_HEADER_SIG);
+            local.putShort((short) 20);
+            local.putShort(flags);
+            local.putShort(method);
+            local.putShort(original.getShort(12));
+            local.putShort(original.getShort(14));
+            local.putInt((int) crc.getValue());
+            local.putInt(compressed.length);
+            local.putInt(data.length);
+            local.putShort((short) nameBytes.length);
+            local.putShort((short) 0);
+            local.put(nameBytes);
+            local.flip();
+            write(local);
+            write(ByteBuffer.wrap(compressed));
+
+            final ByteBuffer central = ByteBuffer.allocate(CENTRAL_HEADER_SIZE + nameBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+            central.putInt(CENTRAL_HEADER_SIG);
+            central.putShort(original.getShort(4));
+            central.putShort((short) 20);
+            central.putShort(flags);
+            central.putShort(method);
+            central.putShort(original.getShort(12));
+            central.putShort(original.getShort(14));
+            central.putInt((int) crc.getValue());
+            central.putInt(compressed.length);
+            central.putInt(data.length);
+            central.putShort((short) nameBytes.length);
+            // no extra field, comment, disk number
+            central.putShort((short) 0);
+            central.putShort((short) 0);
+            central.putShort((short) 0);
+            central.putShort(original.getShort(36));
+            central.putInt(original.getInt(38));
+            central.putInt((int) offset);
+            central.put(nameBytes);
+            addCentralHeader(central.array());
+        }
+
+        /**
+         * Writes the central directory and the end record, the comment of the source archive is preserved.
+         */
+        void finish(Archive source) throws IOException {
+            final long cdOffset = offset();
+            final byte[] cd = centralDir.toByteArray();
+            if (cdOffset + cd.length > 0xffffffffL) {
+                throw new Unsupported("zip64 required");
+            }
+            write(ByteBuffer.wrap(cd));
+            final ByteBuffer end = ByteBuffer.wrap(source.end.clone()).order(ByteOrder.LITTLE_ENDIAN);
+            end.putShort(8, (short) count);
+            end.putShort(10, (short) count);
+            end.putInt(12, cd.length);
+            end.putInt(16, (int) cdOffset);
+            write(end);
+        }
+
+        private long offset() throws IOException {
+            final long offset = out.position();
+            if (offset >= 0xffffffffL || count == 0xfffe) {
+                throw new Unsupported("zip64 required");
+            }
+            return offset;
+        }
+
+        private void write(ByteBuffer buf) throws IOException {
+            if (digest != null) {
+                digest.update(buf.duplicate());
+            }
+            writeFully(out, buf);
+        }
+
+        private void addCentralHeader(byte[] header) {
+            centralDir.write(header, 0, header.length);
+            ++count;
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static boolean isAscii(byte[] bytes) {
+        for (byte b : bytes) {
+            if (b < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ByteBuffer read(FileChannel in, long position, int length) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (in.read(buf, position + buf.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin.transformer;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Looks for the names the transformation rules may apply to in an artifact, without transforming it.
+ *
+ * The default rules rename javax packages and rewrite the Java EE XML namespaces, hosted at xmlns.jcp.org and
+ * java.sun.com. The keys of the properties files found in the configs directory, if any, are searched too, in
+ * their dotted and internal (slashed) forms. An artifact whose entry names and content contain none of them is
+ * left unchanged by the transformation.
+ *
+ * Only the UTF-8 constants of the constant pool of a class file are searched: they hold all the names and
+ * strings of the class, the rest of the class file is skipped. A class file that can't be parsed is searched
+ * as a whole. Other entries are searched as a whole, nested archives while they are read.
+ */
+class ReferenceScanner {
+
+    private static final String[] DEFAULT_PATTERNS = {"javax", "xmlns.jcp.org", "java.sun.com"};
+    private static final int BUFFER_SIZE = 8192;
+    private static final int CLASS_MAGIC = 0xCAFEBABE;
+
+    private final byte[][] patterns;
+    private final int maxLength;
+
+    ReferenceScanner(Path configsDir) throws IOException {
+        final Set<String> names = new LinkedHashSet<>(Arrays.asList(DEFAULT_PATTERNS));
+        if (configsDir != null && Files.isDirectory(configsDir)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(configsDir, "*.properties")) {
+                for (Path file : stream) {
+                    final Properties props = new Properties();
+                    try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                        props.load(reader);
+                    }
+                    for (String key : props.stringPropertyNames()) {
+                        if (!key.isEmpty()) {
+                            names.add(key);
+                            names.add(key.replace('.', '/'));
+                        }
+                    }
+                }
+            }
+        }
+        patterns = new byte[names.size()][];
+        int max = 0;
+        int i = 0;
+        for (String name : names) {
+            patterns[i] = name.getBytes(StandardCharsets.UTF_8);
+            max = Math.max(max, patterns[i].length);
+            ++i;
+        }
+        maxLength = max;
+    }
+
+    /**
+     * @return false if the transformation is known to leave the artifact unchanged
+     */
+    boolean mayTransform(Path src) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(src))) {
+            return StreamingTransformer.isArchive(src.getFileName().toString()) ? scanArchive(in) : scanEntry(src.getFileName().toString(), in);
+        } catch (ZipException e) {
+            // let the transformer deal with it
+            return true;
+        }
+    }
+
+    private boolean scanArchive(InputStream in) throws IOException {
+        // the nested streams are not closed, closing them would close the enclosing archive
+        final ZipInputStream zipIn = new ZipInputStream(in);
+        ZipEntry entry;
+        while ((entry = zipIn.getNextEntry()) != null) {
+            final byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+            if (contains(name, name.length)) {
+                return true;
+            }
+            if (entry.isDirectory()) {
+                continue;
+            }
+            if (StreamingTransformer.isArchive(entry.getName()) ? scanArchive(zipIn) : scanEntry(entry.getName(), zipIn)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean scanEntry(String name, InputStream in) throws IOException {
+        if (!name.endsWith(".class")) {
+            return scanStream(in);
+        }
+        // the start of the class file is replayed if it can't be parsed
+        final PushbackInputStream classIn = new PushbackInputStream(in, 8);
+        final byte[] header = new byte[8];
+        int length = 0;
+        int read;
+        while (length < header.length && (read = classIn.read(header, length, header.length - length)) != -1) {
+            length += read;
+        }
+        if (length < header.length || readInt(header, 0) != CLASS_MAGIC) {
+            classIn.unread(header, 0, length);
+            return scanStream(classIn);
+        }
+        return scanConstantPool(new DataInputStream(classIn));
+    }
+
+    /**
+     * Searches the UTF-8 constants of the constant pool of a class file, read past its header.
+     */
+    private boolean scanConstantPool(DataInputStream in) throws IOException {
+        final int count = in.readUnsignedShort();
+        byte[] utf8 = new byte[256];
+        for (int i = 1; i < count; i++) {
+            final int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    final int length = in.readUnsignedShort();
+                    if (length > utf8.length) {
+                        utf8 = new byte[length];
+                    }
+                    in.readFully(utf8, 0, length);
+                    if (contains(utf8, length)) {
+                        return true;
+                    }
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    skip(in, 8);
+                    // takes two entries
+                    ++i;
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    skip(in, 4);
+                    break;
+                case 15: // MethodHandle
+                    skip(in, 3);
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    skip(in, 2);
+                    break;
+                default:
+                    // an unknown constant, let the transformer deal with it
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private static void skip(DataInputStream in, int length) throws IOException {
+        if (in.skipBytes(length) != length) {
+            throw new EOFException();
+        }
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16 | (data[offset + 2] & 0xFF) << 8 | (data[offset + 3] & 0xFF);
+    }
+
+    private boolean scanStream(InputStream in) throws IOException {
+        // the end of the previous buffer is kept so that names split across reads are found
+        final byte[] buffer = new byte[BUFFER_SIZE + maxLength];
+        int length = 0;
+        int read;
+        while ((read = in.read(buffer, length, BUFFER_SIZE)) != -1) {
+            length += read;
+            if (contains(buffer, length)) {
+                return true;
+            }
+            final int carry = Math.min(maxLength - 1, length);
+            System.arraycopy(buffer, length - carry, buffer, 0, carry);
+            length = carry;
+        }
+        return false;
+    }
+
+    private boolean contains(byte[] data, int length) {
+        for (byte[] pattern : patterns) {
+            final byte first = pattern[0];
+            final int last = length - pattern.length;
+            next:
+            for (int i = 0; i <= last; i++) {
+                if (data[i] != first) {
+                    continue;
+                }
+                for (int j = 1; j < pattern.length; j++) {
+                    if (data[i + j] != pattern[j]) {
+                        continue next;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+}
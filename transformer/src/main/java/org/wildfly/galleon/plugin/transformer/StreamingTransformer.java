@@ -0,0 +1,419 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin.transformer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.wildfly.extras.transformer.ArchiveTransformer;
+import org.wildfly.extras.transformer.Resource;
+import org.wildfly.galleon.plugin.transformer.JakartaTransformer.LogHandler;
+
+/**
+ * Transforms a zip archive read from a stream and writes the transformed archive to a stream. Entries are
+ * transformed one at a time, only the entry being transformed is held in memory. Nested archives are
+ * transformed while they are streamed, except the nested archives stored without compression, which are
+ * spooled to compute their size and checksum.
+ *
+ * When a signed archive is transformed, its signature files and the digests of its manifest are removed.
+ * Whether a signed archive is transformed is only known at its end, so the entries that follow its manifest
+ * are spooled until then. The manifest and the signature files are then written first, in their original
+ * order, so that readers such as {@link java.util.jar.JarInputStream} still find them at the start of the
+ * archive, followed by the spooled entries. The entries of an archive that is not signed are written in place.
+ *
+ * Spooled content is held in memory up to a threshold, then in a temporary file.
+ */
+class StreamingTransformer {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int SPOOL_THRESHOLD = 8 * 1024 * 1024;
+
+    private final ArchiveTransformer transformer;
+    private final EntryCache cache;
+    private final LogHandler log;
+    private final int spoolThreshold;
+
+    StreamingTransformer(ArchiveTransformer transformer, EntryCache cache, LogHandler log) {
+        this(transformer, cache, log, SPOOL_THRESHOLD);
+    }
+
+    StreamingTransformer(ArchiveTransformer transformer, EntryCache cache, LogHandler log, int spoolThreshold) {
+        this.transformer = transformer;
+        this.cache = cache;
+        this.log = log;
+        this.spoolThreshold = spoolThreshold;
+    }
+
+    static boolean isArchive(String name) {
+        final String lower = name.toLowerCase(Locale.ENGLISH);
+        return lower.endsWith(".jar") || lower.endsWith(".war") || lower.endsWith(".ear") || lower.endsWith(".rar");
+    }
+
+    /**
+     * Transforms a resource that is not an archive.
+     *
+     * @return the transformed content or null if the content is not transformed
+     */
+    byte[] transformResource(String name, byte[] data) {
+        final Resource resource = cache.transform(transformer, name, data);
+        return resource == null ? null : resource.getData();
+    }
+
+    /**
+     * Transforms the archive read from in and writes the result to out. The streams are not closed.
+     *
+     * @param name  name of the archive
+     * @return true if some content of the archive has been transformed
+     */
+    boolean transformArchive(String name, InputStream in, OutputStream out) throws IOException {
+        // the entries that follow the manifest of a signed archive
+        try (Spool held = new Spool(spoolThreshold)) {
+            return transformArchive(name, in, out, held);
+        }
+    }
+
+    private boolean transformArchive(String name, InputStream in, OutputStream out, Spool held) throws IOException {
+        final ZipInputStream zipIn = new ZipInputStream(new NonClosingInputStream(in));
+        final ZipOutputStream zipOut = new ZipOutputStream(new NonClosingOutputStream(out));
+        boolean transformed = false;
+        boolean manifestRead = false;
+        boolean signed = false;
+        // manifest and signature files of a signed archive
+        final List<HeldEntry> metaEntries = new ArrayList<>();
+        // the entries whose content is spooled in held
+        final List<SpooledEntry> heldEntries = new ArrayList<>();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        ZipEntry entry;
+        while ((entry = zipIn.getNextEntry()) != null) {
+            final String entryName = entry.getName();
+            // the entries are held once the archive is known to be signed, or may be
+            final boolean hold = signed || !metaEntries.isEmpty();
+            if (entry.isDirectory()) {
+                if (hold) {
+                    heldEntries.add(new SpooledEntry(entry, entryName, -1, 0));
+                } else {
+                    zipOut.putNextEntry(newEntry(entry, entryName));
+                    zipOut.closeEntry();
+                }
+            } else if (isArchive(entryName)) {
+                if (!hold && entry.getMethod() != ZipEntry.STORED) {
+                    zipOut.putNextEntry(newEntry(entry, entryName));
+                    if (transformArchive(entryName, zipIn, zipOut)) {
+                        transformed = true;
+                    }
+                    zipOut.closeEntry();
+                } else if (hold) {
+                    final long start = held.size();
+                    final CheckedOutputStream nested = new CheckedOutputStream(new NonClosingOutputStream(held), new CRC32());
+                    if (transformArchive(entryName, zipIn, nested)) {
+                        transformed = true;
+                    }
+                    nested.flush();
+                    heldEntries.add(new SpooledEntry(entry, entryName, held.size() - start, nested.getChecksum().getValue()));
+                } else {
+                    try (Spool spool = new Spool(spoolThreshold)) {
+                        final CheckedOutputStream nested = new CheckedOutputStream(new NonClosingOutputStream(spool), new CRC32());
+                        if (transformArchive(entryName, zipIn, nested)) {
+                            transformed = true;
+                        }
+                        nested.flush();
+                        try (InputStream nestedIn = spool.openInputStream()) {
+                            writeEntry(zipOut, new SpooledEntry(entry, entryName, spool.size(), nested.getChecksum().getValue()),
+                                    nestedIn, buffer);
+                        }
+                    }
+                }
+            } else {
+                byte[] data = readEntry(zipIn, buffer);
+                String targetName = entryName;
+                final Resource resource = cache.transform(transformer, entryName, data);
+                if (resource != null) {
+                    transformed = true;
+                    targetName = resource.getName();
+                    data = resource.getData();
+                }
+                if (!manifestRead && isManifest(entryName)) {
+                    manifestRead = true;
+                    signed = hasDigests(new Manifest(new ByteArrayInputStream(data)));
+                    metaEntries.add(0, new HeldEntry(entry, targetName, data));
+                    if (!signed) {
+                        // signature files read before the manifest of an archive that is not signed
+                        writeMetaEntries(zipOut, metaEntries, false);
+                    }
+                } else if (JarUnsigner.isSignatureFile(entryName) && (signed || !manifestRead)) {
+                    metaEntries.add(new HeldEntry(entry, targetName, data));
+                } else if (hold) {
+                    final CRC32 crc = new CRC32();
+                    crc.update(data);
+                    held.write(data);
+                    heldEntries.add(new SpooledEntry(entry, targetName, data.length, crc.getValue()));
+                } else {
+                    writeEntry(zipOut, entry, targetName, data);
+                }
+            }
+        }
+        final boolean unsign = signed && transformed;
+        if (unsign) {
+            log.print("WARNING: EE9: unsigning transformed %s", name);
+        }
+        writeMetaEntries(zipOut, metaEntries, unsign);
+        if (!heldEntries.isEmpty()) {
+            // the held entries are read back in the order they were spooled
+            try (InputStream heldIn = held.openInputStream()) {
+                for (SpooledEntry spooled : heldEntries) {
+                    if (spooled.size < 0) {
+                        zipOut.putNextEntry(newEntry(spooled.entry, spooled.name));
+                        zipOut.closeEntry();
+                    } else {
+                        writeEntry(zipOut, spooled, heldIn, buffer);
+                    }
+                }
+            }
+        }
+        zipOut.finish();
+        return transformed;
+    }
+
+    /**
+     * Writes the held manifest and signature files, or only the manifest without its digests if the archive
+     * is unsigned, and clears them.
+     */
+    private static void writeMetaEntries(ZipOutputStream zipOut, List<HeldEntry> metaEntries, boolean unsign) throws IOException {
+        for (HeldEntry meta : metaEntries) {
+            if (!unsign) {
+                writeEntry(zipOut, meta.entry, meta.name, meta.data);
+            } else if (isManifest(meta.entry.getName())) {
+                final ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+                JarUnsigner.removeDigests(new Manifest(new ByteArrayInputStream(meta.data))).write(manifest);
+                writeEntry(zipOut, meta.entry, meta.name, manifest.toByteArray());
+            }
+        }
+        metaEntries.clear();
+    }
+
+    private static ZipEntry newEntry(ZipEntry entry, String name) {
+        final ZipEntry result = new ZipEntry(name);
+        if (entry.getTime() != -1) {
+            result.setTime(entry.getTime());
+        }
+        if (entry.getComment() != null) {
+            result.setComment(entry.getComment());
+        }
+        return result;
+    }
+
+    private static void writeEntry(ZipOutputStream zipOut, ZipEntry entry, String name, byte[] data) throws IOException {
+        final ZipEntry result = newEntry(entry, name);
+        if (entry.getMethod() == ZipEntry.STORED) {
+            final CRC32 crc = new CRC32();
+            crc.update(data);
+            result.setMethod(ZipEntry.STORED);
+            result.setSize(data.length);
+            result.setCompressedSize(data.length);
+            result.setCrc(crc.getValue());
+        }
+        zipOut.putNextEntry(result);
+        zipOut.write(data);
+        zipOut.closeEntry();
+    }
+
+    /**
+     * Writes an entry whose content is the next size bytes of in.
+     */
+    private static void writeEntry(ZipOutputStream zipOut, SpooledEntry spooled, InputStream in, byte[] buffer) throws IOException {
+        final ZipEntry result = newEntry(spooled.entry, spooled.name);
+        if (spooled.entry.getMethod() == ZipEntry.STORED) {
+            result.setMethod(ZipEntry.STORED);
+            result.setSize(spooled.size);
+            result.setCompressedSize(spooled.size);
+            result.setCrc(spooled.crc);
+        }
+        zipOut.putNextEntry(result);
+        long remaining = spooled.size;
+        while (remaining > 0) {
+            final int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read == -1) {
+                throw new EOFException("Spooled content of " + spooled.name + " is truncated");
+            }
+            zipOut.write(buffer, 0, read);
+            remaining -= read;
+        }
+        zipOut.closeEntry();
+    }
+
+    private static byte[] readEntry(InputStream in, byte[] buffer) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static boolean isManifest(String name) {
+        return JarFile.MANIFEST_NAME.equalsIgnoreCase(name);
+    }
+
+    private static boolean hasDigests(Manifest manifest) {
+        for (Map.Entry<String, Attributes> entry : manifest.getEntries().entrySet()) {
+            if (JarUnsigner.hasDigest(entry.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class HeldEntry {
+
+        final ZipEntry entry;
+        final String name;
+        final byte[] data;
+
+        HeldEntry(ZipEntry entry, String name, byte[] data) {
+            this.entry = entry;
+            this.name = name;
+            this.data = data;
+        }
+    }
+
+    private static class SpooledEntry {
+
+        final ZipEntry entry;
+        final String name;
+        // -1 for a directory
+        final long size;
+        final long crc;
+
+        SpooledEntry(ZipEntry entry, String name, long size, long crc) {
+            this.entry = entry;
+            this.name = name;
+            this.size = size;
+            this.crc = crc;
+        }
+    }
+
+    /**
+     * Holds the written content in memory up to a threshold, then in a temporary file deleted on close.
+     */
+    private static class Spool extends OutputStream {
+
+        private final int threshold;
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private Path file;
+        private OutputStream fileOut;
+        private long size;
+
+        Spool(int threshold) {
+            this.threshold = threshold;
+        }
+
+        long size() {
+            return size;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (fileOut == null && size + len > threshold) {
+                file = Files.createTempFile("jakarta-transform", ".spool");
+                fileOut = new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE);
+                memory.writeTo(fileOut);
+                memory = null;
+            }
+            if (fileOut == null) {
+                memory.write(b, off, len);
+            } else {
+                fileOut.write(b, off, len);
+            }
+            size += len;
+        }
+
+        InputStream openInputStream() throws IOException {
+            if (fileOut == null) {
+                return new ByteArrayInputStream(memory.toByteArray());
+            }
+            fileOut.flush();
+            return new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            memory = null;
+            if (file != null) {
+                try {
+                    fileOut.close();
+                } finally {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static class NonClosingInputStream extends FilterInputStream {
+
+        NonClosingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class NonClosingOutputStream extends FilterOutputStream {
+
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -27,13 +27,19 @@ public class TransformedArtifact {
     private final boolean transformed;
     private final boolean srcSigned;
     private final boolean unsigned;
+    private final String sha256;
 
-    TransformedArtifact(Path src, Path target, boolean transformed, boolean srcSigned, boolean unsigned) {
+    public TransformedArtifact(Path src, Path target, boolean transformed, boolean srcSigned, boolean unsigned) {
+        this(src, target, transformed, srcSigned, unsigned, null);
+    }
+
+    public TransformedArtifact(Path src, Path target, boolean transformed, boolean srcSigned, boolean unsigned, String sha256) {
         this.src = src;
         this.target = target;
         this.transformed = transformed;
         this.srcSigned = srcSigned;
         this.unsigned = unsigned;
+        this.sha256 = sha256;
     }
 
     /**
@@ -71,4 +77,11 @@ public class TransformedArtifact {
         return srcSigned;
     }
 
+    /**
+     * @return the SHA-256 of the target computed while it was written, null if not computed
+     */
+    public String getSha256() {
+        return sha256;
+    }
+
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin.transformer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchTransformerTestCase {
+
+    private static final String SUFFIX = "-ee9";
+
+    private Path dir;
+    private Path sourceRepo;
+    private Path targetRepo;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("batch-transformer");
+        sourceRepo = dir.resolve("source");
+        targetRepo = dir.resolve("target");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> stream = Files.walk(dir)) {
+            stream.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testEveryJarWrittenWithSuffix() throws Exception {
+        final Path transformed = new TestArchives()
+                .add(TestArchives.SERVICE, TestArchives.SERVICE_CONTENT)
+                .write(artifact("org/acme/servlet", "1.0", ".jar"));
+        pom("org/acme/servlet", "1.0");
+        final Path unchanged = new TestArchives()
+                .add("org/acme/readme.txt", "nothing to transform")
+                .write(artifact("org/acme/plain", "2.0", ".jar"));
+        pom("org/acme/plain", "2.0");
+        final Path classifier = new TestArchives()
+                .add("org/acme/readme.txt", "tests")
+                .write(artifact("org/acme/plain", "2.0", "-tests.jar"));
+        new TestArchives()
+                .add("org/acme/Sources.java", "")
+                .write(artifact("org/acme/plain", "2.0", "-sources.jar"));
+
+        final Map<String, String> summary = new BatchTransformer(sourceRepo, targetRepo, SUFFIX, null, false, 2,
+                (format, args) -> { }).transform();
+
+        final Map<String, String> expected = new TreeMap<>();
+        expected.put("org.acme:servlet:1.0", BatchTransformer.TRANSFORMED);
+        expected.put("org.acme:plain:2.0", BatchTransformer.UNCHANGED);
+        expected.put("org.acme:plain:2.0:tests", BatchTransformer.UNCHANGED);
+        Assert.assertEquals(expected, summary);
+
+        final Path transformedTarget = targetRepo.resolve("org/acme/servlet/1.0-ee9/servlet-1.0-ee9.jar");
+        Assert.assertTrue(TestArchives.read(transformedTarget).containsKey(TestArchives.TRANSFORMED_SERVICE));
+        Assert.assertTrue(Files.exists(targetRepo.resolve("org/acme/servlet/1.0-ee9/servlet-1.0-ee9.pom")));
+
+        final Path plainDir = targetRepo.resolve("org/acme/plain/2.0-ee9");
+        Assert.assertArrayEquals(Files.readAllBytes(unchanged), Files.readAllBytes(plainDir.resolve("plain-2.0-ee9.jar")));
+        Assert.assertArrayEquals(Files.readAllBytes(classifier), Files.readAllBytes(plainDir.resolve("plain-2.0-ee9-tests.jar")));
+        Assert.assertTrue(Files.exists(plainDir.resolve("plain-2.0-ee9.pom")));
+        Assert.assertFalse(Files.exists(plainDir.resolve("plain-2.0-ee9-sources.jar")));
+        try (Stream<Path> stream = Files.list(plainDir)) {
+            Assert.assertEquals(3, stream.count());
+        }
+
+        Assert.assertEquals(Arrays.asList(
+                "unchanged org.acme:plain:2.0",
+                "unchanged org.acme:plain:2.0:tests",
+                "transformed org.acme:servlet:1.0"),
+                Files.readAllLines(targetRepo.resolve(BatchTransformer.SUMMARY), StandardCharsets.UTF_8));
+        // the source repository is left as is
+        Assert.assertTrue(TestArchives.read(transformed).containsKey(TestArchives.SERVICE));
+    }
+
+    @Test
+    public void testSkippedJarWritten() throws Exception {
+        final Path configsDir = Files.createDirectory(dir.resolve("configs"));
+        Files.write(configsDir.resolve("jakarta-renames.properties"),
+                "org.acme.legacy=org.acme.modern\n".getBytes(StandardCharsets.UTF_8));
+        final Path unrelated = new TestArchives()
+                .add("org/acme/Client.class", "Lorg/acme/other/Service;")
+                .write(artifact("org/acme/client", "1.0", ".jar"));
+        Assert.assertFalse(JakartaTransformer.isTransformable(configsDir, unrelated));
+
+        final Map<String, String> summary = new BatchTransformer(sourceRepo, targetRepo, SUFFIX, configsDir, false, 1,
+                (format, args) -> { }).transform();
+
+        Assert.assertEquals(BatchTransformer.UNCHANGED, summary.get("org.acme:client:1.0"));
+        Assert.assertArrayEquals(Files.readAllBytes(unrelated),
+                Files.readAllBytes(targetRepo.resolve("org/acme/client/1.0-ee9/client-1.0-ee9.jar")));
+    }
+
+    private Path artifact(String groupAndArtifact, String version, String classifierAndExtension) throws IOException {
+        final Path versionDir = Files.createDirectories(sourceRepo.resolve(groupAndArtifact).resolve(version));
+        final String artifactId = versionDir.getParent().getFileName().toString();
+        return versionDir.resolve(artifactId + '-' + version + classifierAndExtension);
+    }
+
+    private void pom(String groupAndArtifact, String version) throws IOException {
+        Files.write(artifact(groupAndArtifact, version, ".pom"), "<project/>".getBytes(StandardCharsets.UTF_8));
+    }
+}
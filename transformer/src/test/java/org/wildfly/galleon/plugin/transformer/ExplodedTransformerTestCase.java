@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin.transformer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExplodedTransformerTestCase {
+
+    private Path dir;
+    private Path exploded;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("exploded-transformer");
+        exploded = Files.createDirectory(dir.resolve("acme.war"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> stream = Files.walk(dir)) {
+            stream.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testRenamesApplied() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            write("WEB-INF/classes/javax/" + i + ".txt", "javax " + i);
+        }
+        // renamed over by the transformation of its javax counterpart
+        write("WEB-INF/classes/jakarta/0.txt", "jakarta 0");
+        write("WEB-INF/web.xml", "<web-app/>");
+
+        final TransformedArtifact artifact = JakartaTransformer.transform(null, exploded, exploded, false, null);
+        Assert.assertTrue(artifact.isTransformed());
+
+        final Map<String, String> expected = new TreeMap<>();
+        for (int i = 0; i < 50; i++) {
+            expected.put("WEB-INF/classes/jakarta/" + i + ".txt", "jakarta " + i);
+        }
+        expected.put("WEB-INF/web.xml", "<web-app/>");
+        Assert.assertEquals(expected, read());
+        // nothing is left next to the exploded artifact
+        Assert.assertEquals(Arrays.asList("acme.war"), list(dir));
+    }
+
+    @Test
+    public void testFailureReverted() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            write("WEB-INF/classes/javax/" + i + ".txt", "javax " + i);
+        }
+        write("WEB-INF/classes/jakarta/0.txt", "jakarta 0");
+        write("WEB-INF/classes/javax/failing.txt", "javax FAIL");
+        final Map<String, String> original = read();
+
+        try {
+            JakartaTransformer.transform(null, exploded, exploded, false, null);
+            Assert.fail("the transformation did not fail");
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertEquals(original, read());
+        Assert.assertEquals(Arrays.asList("acme.war"), list(dir));
+    }
+
+    private void write(String name, String content) throws IOException {
+        final Path file = exploded.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Map<String, String> read() throws IOException {
+        final Map<String, String> content = new TreeMap<>();
+        try (Stream<Path> stream = Files.walk(exploded)) {
+            for (Path file : stream.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                content.put(exploded.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/"),
+                        new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            }
+        }
+        return content;
+    }
+
+    private static List<String> list(Path dir) throws IOException {
+        try (Stream<Path> stream = Files.list(dir)) {
+            return stream.map(p -> p.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin.transformer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarInputStream;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.wildfly.extras.transformer.ArchiveTransformer;
+
+public class RawArchiveTransformerTestCase {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("raw-archive");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> stream = Files.walk(dir)) {
+            stream.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testTransformedRoundTrip() throws Exception {
+        final byte[] stored = "stored, left as is".getBytes(StandardCharsets.UTF_8);
+        final Path src = new TestArchives()
+                .dir("META-INF/")
+                .add("META-INF/MANIFEST.MF", TestArchives.MANIFEST)
+                .addStored("org/acme/stored.txt", stored)
+                .add("org/acme/deflated.txt", "deflated, with a data descriptor")
+                .add(TestArchives.SERVICE, TestArchives.SERVICE_CONTENT)
+                .write(dir.resolve("src.jar"));
+        final Path target = dir.resolve("target.jar");
+        final Map<String, byte[]> listened = new LinkedHashMap<>();
+        final TransformedArtifact artifact = transform(src, target, listened);
+
+        Assert.assertTrue(artifact.isTransformed());
+        Assert.assertFalse(artifact.isSrcSigned());
+        Assert.assertFalse(artifact.isUnsigned());
+        Assert.assertEquals(sha256(target), artifact.getSha256());
+        final Map<String, byte[]> entries = TestArchives.read(target);
+        Assert.assertEquals(Arrays.asList("META-INF/MANIFEST.MF", "org/acme/stored.txt", "org/acme/deflated.txt",
+                TestArchives.TRANSFORMED_SERVICE), new ArrayList<>(entries.keySet()));
+        Assert.assertArrayEquals(stored, entries.get("org/acme/stored.txt"));
+        Assert.assertEquals("deflated, with a data descriptor", TestArchives.string(entries.get("org/acme/deflated.txt")));
+        Assert.assertEquals(entries.keySet(), listened.keySet());
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            Assert.assertArrayEquals(entry.getKey(), entry.getValue(), listened.get(entry.getKey()));
+        }
+        try (ZipFile zip = new ZipFile(target.toFile())) {
+            Assert.assertEquals(ZipEntry.STORED, zip.getEntry("org/acme/stored.txt").getMethod());
+            Assert.assertEquals(ZipEntry.DEFLATED, zip.getEntry(TestArchives.TRANSFORMED_SERVICE).getMethod());
+        }
+    }
+
+    @Test
+    public void testNotTransformedRoundTrip() throws Exception {
+        final Path src = new TestArchives()
+                .add("META-INF/MANIFEST.MF", TestArchives.MANIFEST)
+                .addStored("org/acme/stored.txt", "stored".getBytes(StandardCharsets.UTF_8))
+                .add("org/acme/deflated.txt", "deflated")
+                .write(dir.resolve("src.jar"));
+        final Path target = dir.resolve("target.jar");
+        final TransformedArtifact artifact = transform(src, target, null);
+
+        Assert.assertFalse(artifact.isTransformed());
+        Assert.assertArrayEquals(Files.readAllBytes(src), Files.readAllBytes(target));
+        Assert.assertEquals(sha256(target), artifact.getSha256());
+    }
+
+    @Test
+    public void testSignedTransformed() throws Exception {
+        final Path src = new TestArchives()
+                .dir("META-INF/")
+                .add("META-INF/MANIFEST.MF", TestArchives.SIGNED_MANIFEST)
+                .add(TestArchives.SIGNATURE, "signature")
+                .add("org/acme/readme.txt", "")
+                .add(TestArchives.SERVICE, TestArchives.SERVICE_CONTENT)
+                .write(dir.resolve("src.jar"));
+        final Path target = dir.resolve("target.jar");
+        final TransformedArtifact artifact = transform(src, target, null);
+
+        Assert.assertTrue(artifact.isTransformed());
+        Assert.assertTrue(artifact.isSrcSigned());
+        Assert.assertTrue(artifact.isUnsigned());
+        Assert.assertEquals(sha256(target), artifact.getSha256());
+        Assert.assertFalse(JarUtils.isSignedJar(target));
+        try (JarInputStream jarIn = new JarInputStream(Files.newInputStream(target))) {
+            Assert.assertNotNull("manifest not found by JarInputStream", jarIn.getManifest());
+            Assert.assertTrue(jarIn.getManifest().getEntries().isEmpty());
+        }
+        Assert.assertEquals(Arrays.asList("META-INF/MANIFEST.MF", "org/acme/readme.txt", TestArchives.TRANSFORMED_SERVICE),
+                new ArrayList<>(TestArchives.read(target).keySet()));
+    }
+
+    @Test
+    public void testSignedNotTransformed() throws Exception {
+        final Path src = new TestArchives()
+                .dir("META-INF/")
+                .add("META-INF/MANIFEST.MF", TestArchives.SIGNED_MANIFEST)
+                .add(TestArchives.SIGNATURE, "signature")
+                .add("org/acme/readme.txt", "")
+                .write(dir.resolve("src.jar"));
+        final Path target = dir.resolve("target.jar");
+        final TransformedArtifact artifact = transform(src, target, null);
+
+        Assert.assertFalse(artifact.isTransformed());
+        Assert.assertTrue(artifact.isSrcSigned());
+        Assert.assertFalse(artifact.isUnsigned());
+        Assert.assertArrayEquals(Files.readAllBytes(src), Files.readAllBytes(target));
+        Assert.assertEquals(sha256(target), artifact.getSha256());
+    }
+
+    @Test
+    public void testExistingTargetKept() throws Exception {
+        final Path src = new TestArchives()
+                .add(TestArchives.SERVICE, TestArchives.SERVICE_CONTENT)
+                .write(dir.resolve("src.jar"));
+        final Path target = dir.resolve("target.jar");
+        Files.write(target, "existing".getBytes(StandardCharsets.UTF_8));
+        try {
+            transform(src, target);
+            Assert.fail("the existing target was overwritten");
+        } catch (FileAlreadyExistsException e) {
+            // expected
+        }
+        Assert.assertEquals("existing", TestArchives.string(Files.readAllBytes(target)));
+    }
+
+    @Test
+    public void testUnsupportedTargetRemoved() throws Exception {
+        final Path src = dir.resolve("src.jar");
+        Files.write(src, "not an archive".getBytes(StandardCharsets.UTF_8));
+        final Path target = dir.resolve("target.jar");
+        try {
+            transform(src, target);
+            Assert.fail("the archive was not rejected");
+        } catch (RawZip.Unsupported e) {
+            // transformed by Batavia, which expects no target
+        }
+        Assert.assertFalse(Files.exists(target));
+    }
+
+    private static TransformedArtifact transform(Path src, Path target) throws IOException {
+        return transform(src, target, null);
+    }
+
+    private static TransformedArtifact transform(Path src, Path target, Map<String, byte[]> listened) throws IOException {
+        final ArchiveTransformer transformer = BataviaTransformer.acquire(null, false);
+        final TransformedArtifact artifact = RawArchiveTransformer.transform(transformer, EntryCache.get(null, false),
+                src, target, listened == null ? null : listened::put, (format, args) -> { });
+        BataviaTransformer.release(null, false, transformer);
+        return artifact;
+    }
+
+    private static String sha256(Path file) throws Exception {
+        final StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file))) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
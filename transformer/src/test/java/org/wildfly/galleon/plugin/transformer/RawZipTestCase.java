@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin.transformer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarInputStream;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RawZipTestCase {
+
+    private static final byte[] BINARY = new byte[4096];
+
+    static {
+        for (int i = 0; i < BINARY.length; i++) {
+            BINARY[i] = (byte) (i * 31);
+        }
+    }
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("raw-zip");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> stream = Files.walk(dir)) {
+            stream.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testCopyIsIdentical() throws Exception {
+        // the deflated entries written by ZipOutputStream are followed by a data descriptor
+        final Path src = new TestArchives()
+                .dir("META-INF/")
+                .add("META-INF/MANIFEST.MF", TestArchives.MANIFEST)
+                .addStored("org/acme/stored.bin", BINARY)
+                .add("org/acme/deflated.bin", BINARY)
+                .add("org/acme/\u00e9t\u00e9.txt", "summer")
+                .addStored("org/acme/empty.txt", new byte[0])
+                .write(dir.resolve("src.jar"));
+        final Path target = dir.resolve("target.jar");
+        try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            final RawZip.Archive archive = RawZip.read(in);
+            final RawZip.Writer writer = new RawZip.Writer(out);
+            for (RawZip.Entry entry : archive.entries) {
+                writer.copy(in, entry);
+            }
+            writer.finish(archive);
+        }
+        Assert.assertArrayEquals(Files.readAllBytes(src), Files.readAllBytes(target));
+    }
+
+    @Test
+    public void testReadData() throws Exception {
+        final Path src = new TestArchives()
+                .dir("org/")
+                .addStored("org/stored.bin", BINARY)
+                .add("org/deflated.bin", BINARY)
+                .write(dir.resolve("src.jar"));
+        try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ)) {
+            final RawZip.Archive archive = RawZip.read(in);
+            final List<String> names = new ArrayList<>();
+            for (RawZip.Entry entry : archive.entries) {
+                names.add(entry.getName());
+            }
+            Assert.assertEquals(Arrays.asList("org/", "org/stored.bin", "org/deflated.bin"), names);
+            Assert.assertTrue(archive.entries.get(0).isDirectory());
+            Assert.assertEquals(ZipEntry.STORED, archive.entries.get(1).getMethod());
+            Assert.assertEquals(ZipEntry.DEFLATED, archive.entries.get(2).getMethod());
+            Assert.assertArrayEquals(BINARY, RawZip.readData(in, archive.entries.get(1)));
+            Assert.assertArrayEquals(BINARY, RawZip.readData(in, archive.entries.get(2)));
+        }
+    }
+
+    @Test
+    public void testWriteKeepsMethod() throws Exception {
+        final Path src = new TestArchives()
+                .addStored("stored.txt", "stored".getBytes(StandardCharsets.UTF_8))
+                .add("deflated.txt", "deflated")
+                .add("copied.txt", "copied")
+                .write(dir.resolve("src.jar"));
+        final Path target = dir.resolve("target.jar");
+        try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            final RawZip.Archive archive = RawZip.read(in);
+            final RawZip.Writer writer = new RawZip.Writer(out);
+            writer.write(archive.entries.get(0), "renamed-stored.txt", "new stored".getBytes(StandardCharsets.UTF_8));
+            writer.write(archive.entries.get(1), "renamed-deflated.txt", "new deflated".getBytes(StandardCharsets.UTF_8));
+            writer.copy(in, archive.entries.get(2));
+            writer.finish(archive);
+        }
+        try (ZipFile zip = new ZipFile(target.toFile())) {
+            Assert.assertEquals(3, zip.size());
+            Assert.assertEquals(ZipEntry.STORED, zip.getEntry("renamed-stored.txt").getMethod());
+            Assert.assertEquals(ZipEntry.DEFLATED, zip.getEntry("renamed-deflated.txt").getMethod());
+        }
+        final Map<String, byte[]> entries = TestArchives.read(target);
+        Assert.assertEquals(Arrays.asList("renamed-stored.txt", "renamed-deflated.txt", "copied.txt"), new ArrayList<>(entries.keySet()));
+        Assert.assertEquals("new stored", TestArchives.string(entries.get("renamed-stored.txt")));
+        Assert.assertEquals("new deflated", TestArchives.string(entries.get("renamed-deflated.txt")));
+        Assert.assertEquals("copied", TestArchives.string(entries.get("copied.txt")));
+    }
+
+    @Test
+    public void testDataBeforeFirstEntryUnsupported() throws Exception {
+        final byte[] archive = new TestArchives().add("a.txt", "a").build();
+        final byte[] prefixed = new byte[archive.length + 4];
+        System.arraycopy(archive, 0, prefixed, 4, archive.length);
+        final Path src = dir.resolve("prefixed.jar");
+        Files.write(src, prefixed);
+        try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ)) {
+            RawZip.read(in);
+            Assert.fail("the archive was read");
+        } catch (RawZip.Unsupported e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testUnsign() throws Exception {
+        final Path jar = new TestArchives()
+                .dir("META-INF/")
+                .add("META-INF/MANIFEST.MF", TestArchives.SIGNED_MANIFEST)
+                .add(TestArchives.SIGNATURE, "signature")
+                .add("META-INF/ACME.RSA", "block")
+                .addStored("org/acme/stored.bin", BINARY)
+                .add("org/acme/readme.txt", "")
+                .write(dir.resolve("signed.jar"));
+        JarUnsigner.unsign(jar);
+
+        Assert.assertFalse(JarUtils.isSignedJar(jar));
+        try (JarInputStream jarIn = new JarInputStream(Files.newInputStream(jar))) {
+            Assert.assertNotNull(jarIn.getManifest());
+            Assert.assertTrue(jarIn.getManifest().getEntries().isEmpty());
+        }
+        final Map<String, byte[]> entries = TestArchives.read(jar);
+        Assert.assertEquals(Arrays.asList("META-INF/MANIFEST.MF", "org/acme/stored.bin", "org/acme/readme.txt"),
+                new ArrayList<>(entries.keySet()));
+        Assert.assertArrayEquals(BINARY, entries.get("org/acme/stored.bin"));
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            Assert.assertEquals(ZipEntry.STORED, zip.getEntry("org/acme/stored.bin").getMethod());
+        }
+    }
+}
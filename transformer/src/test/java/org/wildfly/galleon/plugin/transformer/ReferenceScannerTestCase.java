@@ -0,0 +1,165 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin.transformer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReferenceScannerTestCase {
+
+    private static final String WEB_XML = "<web-app xmlns=\"http://xmlns.jcp.org/xml/ns/javaee\" version=\"4.0\"/>";
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("reference-scanner");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> stream = Files.walk(dir)) {
+            stream.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testDefaultRulesNotSkipped() throws Exception {
+        final Path jar = dir.resolve("services.jar");
+        new TestArchives()
+                .add(TestArchives.SERVICE, TestArchives.SERVICE_CONTENT)
+                .write(jar);
+        final TransformedArtifact artifact = JakartaTransformer.transform(null, jar, dir.resolve("services-ee9.jar"), false, null);
+        Assert.assertTrue(artifact.isTransformed());
+        Assert.assertTrue(JakartaTransformer.isTransformable(null, jar));
+    }
+
+    @Test
+    public void testDefaultRulesWithoutJavax() throws Exception {
+        // the default rules also rewrite XML namespaces, the artifact must not be skipped without a transformation
+        final Path jar = dir.resolve("web.jar");
+        new TestArchives()
+                .add("WEB-INF/web.xml", WEB_XML)
+                .write(jar);
+        Assert.assertTrue(JakartaTransformer.isTransformable(null, jar));
+    }
+
+    @Test
+    public void testDefaultRulesSkipped() throws Exception {
+        final Path jar = dir.resolve("unrelated.jar");
+        new TestArchives()
+                .add("org/acme/Client.class", "Lorg/acme/other/Service;")
+                .add("WEB-INF/web.xml", "<web-app/>")
+                .write(jar);
+        Assert.assertFalse(JakartaTransformer.isTransformable(null, jar));
+    }
+
+    @Test
+    public void testClassConstantPool() throws Exception {
+        final Path referencing = dir.resolve("referencing.jar");
+        new TestArchives()
+                .add("org/acme/Client.class", classFile(new String[] {"org/acme/Client", "Ljavax/annotation/Resource;"}, "code"))
+                .write(referencing);
+        Assert.assertTrue(JakartaTransformer.isTransformable(null, referencing));
+
+        // the bytes that follow the constant pool are not names
+        final Path unrelated = dir.resolve("unrelated.jar");
+        new TestArchives()
+                .add("org/acme/Client.class", classFile(new String[] {"org/acme/Client", "java/lang/Object"}, "javax"))
+                .write(unrelated);
+        Assert.assertFalse(JakartaTransformer.isTransformable(null, unrelated));
+    }
+
+    @Test
+    public void testConfigsDirRules() throws Exception {
+        final Path configsDir = Files.createDirectory(dir.resolve("configs"));
+        Files.write(configsDir.resolve("jakarta-renames.properties"),
+                "org.acme.legacy=org.acme.modern\n".getBytes(StandardCharsets.UTF_8));
+
+        final Path referencing = dir.resolve("referencing.jar");
+        new TestArchives()
+                .add("org/acme/Client.class", "Lorg/acme/legacy/Service;")
+                .write(referencing);
+        Assert.assertTrue(JakartaTransformer.isTransformable(configsDir, referencing));
+
+        final Path javax = dir.resolve("javax.jar");
+        new TestArchives()
+                .add("org/acme/Client.class", "Ljavax/annotation/Resource;")
+                .write(javax);
+        Assert.assertTrue(JakartaTransformer.isTransformable(configsDir, javax));
+
+        final Path unrelated = dir.resolve("unrelated.jar");
+        new TestArchives()
+                .add("org/acme/Client.class", "Lorg/acme/other/Service;")
+                .write(unrelated);
+        Assert.assertFalse(JakartaTransformer.isTransformable(configsDir, unrelated));
+    }
+
+    @Test
+    public void testSkippedSignedJar() throws Exception {
+        final Path configsDir = Files.createDirectory(dir.resolve("configs"));
+        Files.write(configsDir.resolve("jakarta-renames.properties"),
+                "org.acme.legacy=org.acme.modern\n".getBytes(StandardCharsets.UTF_8));
+        final Path jar = dir.resolve("signed.jar");
+        new TestArchives()
+                .dir("META-INF/")
+                .add("META-INF/MANIFEST.MF", TestArchives.SIGNED_MANIFEST)
+                .add(TestArchives.SIGNATURE, "signature")
+                .add("org/acme/readme.txt", "")
+                .write(jar);
+        Assert.assertFalse(JakartaTransformer.isTransformable(configsDir, jar));
+        Assert.assertTrue(JakartaTransformer.isSignedArchive(jar));
+
+        final TransformedArtifact artifact = JakartaTransformer.transform(configsDir, jar, dir.resolve("signed-ee9.jar"), false, null);
+        Assert.assertFalse(artifact.isTransformed());
+        Assert.assertTrue(artifact.isSrcSigned());
+        Assert.assertFalse(artifact.isUnsigned());
+    }
+
+    /**
+     * @return a class file header with a constant pool of UTF-8 constants and a long, followed by trailing bytes
+     */
+    private static byte[] classFile(String[] constants, String trailing) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(52);
+        out.writeShort(constants.length + 3);
+        // a long takes two entries
+        out.writeByte(5);
+        out.writeLong(42);
+        for (String constant : constants) {
+            out.writeByte(1);
+            out.writeUTF(constant);
+        }
+        out.write(trailing.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin.transformer;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.extras.transformer.ArchiveTransformer;
+
+public class SessionTestCase {
+
+    @Test
+    public void testNothingRetainedOutsideOfSession() {
+        Assert.assertFalse(JakartaTransformer.isSessionOpen());
+        final ArchiveTransformer transformer = BataviaTransformer.acquire(null, false);
+        BataviaTransformer.release(null, false, transformer);
+        Assert.assertNotSame(transformer, BataviaTransformer.acquire(null, false));
+        // the disabled cache
+        Assert.assertSame(EntryCache.get(null, true), EntryCache.get(null, false));
+    }
+
+    @Test
+    public void testRetainedUntilLastSessionClosed() {
+        final ArchiveTransformer transformer;
+        final EntryCache cache;
+        try (JakartaTransformer.Session session = JakartaTransformer.openSession()) {
+            transformer = BataviaTransformer.acquire(null, false);
+            BataviaTransformer.release(null, false, transformer);
+            cache = EntryCache.get(null, false);
+            Assert.assertNotSame(EntryCache.get(null, true), cache);
+            try (JakartaTransformer.Session nested = JakartaTransformer.openSession()) {
+                Assert.assertSame(cache, EntryCache.get(null, false));
+            }
+            Assert.assertTrue(JakartaTransformer.isSessionOpen());
+            Assert.assertSame(cache, EntryCache.get(null, false));
+            final ArchiveTransformer reused = BataviaTransformer.acquire(null, false);
+            Assert.assertSame(transformer, reused);
+            BataviaTransformer.release(null, false, reused);
+            // closed again when leaving the block, without effect
+            session.close();
+            Assert.assertFalse(JakartaTransformer.isSessionOpen());
+        }
+        Assert.assertFalse(JakartaTransformer.isSessionOpen());
+        try (JakartaTransformer.Session session = JakartaTransformer.openSession()) {
+            Assert.assertNotSame(transformer, BataviaTransformer.acquire(null, false));
+            Assert.assertNotSame(cache, EntryCache.get(null, false));
+        }
+    }
+
+    @Test
+    public void testTransformerReusedAcrossArtifacts() throws Exception {
+        final Path dir = Files.createTempDirectory("session");
+        try {
+            final Path first = new TestArchives().add(TestArchives.SERVICE, TestArchives.SERVICE_CONTENT).write(dir.resolve("first.jar"));
+            final Path second = new TestArchives().add(TestArchives.SERVICE, TestArchives.SERVICE_CONTENT).write(dir.resolve("second.jar"));
+            try (JakartaTransformer.Session session = JakartaTransformer.openSession()) {
+                Assert.assertTrue(JakartaTransformer.transform(null, first, dir.resolve("first-ee9.jar"), false, null).isTransformed());
+                final ArchiveTransformer transformer = BataviaTransformer.acquire(null, false);
+                BataviaTransformer.release(null, false, transformer);
+                Assert.assertTrue(JakartaTransformer.transform(null, second, dir.resolve("second-ee9.jar"), false, null).isTransformed());
+                Assert.assertSame(transformer, BataviaTransformer.acquire(null, false));
+            }
+        } finally {
+            try (Stream<Path> stream = Files.walk(dir)) {
+                stream.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void testPoolBound() {
+        final int poolSize = Runtime.getRuntime().availableProcessors();
+        try (JakartaTransformer.Session session = JakartaTransformer.openSession()) {
+            final List<ArchiveTransformer> released = new ArrayList<>();
+            for (int i = 0; i <= poolSize; i++) {
+                released.add(BataviaTransformer.acquire(null, false));
+            }
+            for (ArchiveTransformer transformer : released) {
+                BataviaTransformer.release(null, false, transformer);
+            }
+            final Set<ArchiveTransformer> pooled = Collections.newSetFromMap(new IdentityHashMap<>());
+            pooled.addAll(released);
+            int reused = 0;
+            for (int i = 0; i <= poolSize; i++) {
+                if (pooled.contains(BataviaTransformer.acquire(null, false))) {
+                    ++reused;
+                }
+            }
+            Assert.assertEquals(poolSize, reused);
+        }
+    }
+}
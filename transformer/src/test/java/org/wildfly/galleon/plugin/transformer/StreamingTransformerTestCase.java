@@ -0,0 +1,213 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin.transformer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.extras.transformer.ArchiveTransformer;
+
+public class StreamingTransformerTestCase {
+
+    @Test
+    public void testSignedArchiveTransformed() throws Exception {
+        final byte[] archive = new TestArchives()
+                .dir("META-INF/")
+                .add("META-INF/MANIFEST.MF", TestArchives.SIGNED_MANIFEST)
+                .add(TestArchives.SIGNATURE, "signature")
+                .add("org/acme/readme.txt", "hello")
+                .add(TestArchives.SERVICE, TestArchives.SERVICE_CONTENT)
+                .build();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertTrue(transform(archive, out));
+
+        try (JarInputStream jarIn = new JarInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            final Manifest manifest = jarIn.getManifest();
+            Assert.assertNotNull("manifest not found by JarInputStream", manifest);
+            Assert.assertTrue(manifest.getEntries().isEmpty());
+            Assert.assertEquals("test", manifest.getMainAttributes().getValue("Created-By"));
+        }
+        Assert.assertEquals(Arrays.asList("META-INF/MANIFEST.MF", "org/acme/readme.txt", TestArchives.TRANSFORMED_SERVICE),
+                new ArrayList<>(TestArchives.read(out.toByteArray()).keySet()));
+    }
+
+    @Test
+    public void testSignedArchiveNotTransformed() throws Exception {
+        final byte[] archive = new TestArchives()
+                .dir("META-INF/")
+                .add("META-INF/MANIFEST.MF", TestArchives.SIGNED_MANIFEST)
+                .add(TestArchives.SIGNATURE, "signature")
+                .add("org/acme/readme.txt", "hello")
+                .build();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertFalse(transform(archive, out));
+
+        try (JarInputStream jarIn = new JarInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            final Manifest manifest = jarIn.getManifest();
+            Assert.assertNotNull("manifest not found by JarInputStream", manifest);
+            Assert.assertEquals(1, manifest.getEntries().size());
+        }
+        Assert.assertEquals(Arrays.asList("META-INF/MANIFEST.MF", TestArchives.SIGNATURE, "org/acme/readme.txt"),
+                new ArrayList<>(TestArchives.read(out.toByteArray()).keySet()));
+    }
+
+    @Test
+    public void testStoredNestedArchive() throws Exception {
+        final byte[] nested = new TestArchives()
+                .add(TestArchives.SERVICE, TestArchives.SERVICE_CONTENT)
+                .build();
+        final byte[] archive = new TestArchives()
+                .add("META-INF/MANIFEST.MF", TestArchives.MANIFEST)
+                .addStored("lib/nested.jar", nested)
+                .add("lib/deflated.jar", nested)
+                .build();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertTrue(transform(archive, out));
+
+        final List<String> names = new ArrayList<>();
+        // ZipInputStream checks the size and CRC of the stored entries
+        final ZipInputStream zipIn = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()));
+        ZipEntry entry;
+        while ((entry = zipIn.getNextEntry()) != null) {
+            names.add(entry.getName());
+            if (entry.getName().startsWith("lib/")) {
+                Assert.assertEquals(entry.getName(), entry.getName().equals("lib/nested.jar") ? ZipEntry.STORED : ZipEntry.DEFLATED,
+                        entry.getMethod());
+                Assert.assertEquals(Arrays.asList(TestArchives.TRANSFORMED_SERVICE),
+                        new ArrayList<>(TestArchives.read(TestArchives.readAll(zipIn)).keySet()));
+            }
+        }
+        Assert.assertEquals(Arrays.asList("META-INF/MANIFEST.MF", "lib/nested.jar", "lib/deflated.jar"), names);
+    }
+
+    @Test
+    public void testSpooledToFile() throws Exception {
+        final byte[] nested = new TestArchives()
+                .add(TestArchives.SERVICE, TestArchives.SERVICE_CONTENT)
+                .build();
+        final byte[] archive = new TestArchives()
+                .dir("META-INF/")
+                .add("META-INF/MANIFEST.MF", TestArchives.SIGNED_MANIFEST)
+                .add(TestArchives.SIGNATURE, "signature")
+                .dir("lib/")
+                .addStored("lib/held.jar", nested)
+                .add("org/acme/readme.txt", "hello")
+                .build();
+        final byte[] unsigned = new TestArchives()
+                .add("META-INF/MANIFEST.MF", TestArchives.MANIFEST)
+                .addStored("lib/nested.jar", nested)
+                .build();
+        final List<String> spools = spools();
+        for (byte[] bytes : new byte[][] {archive, unsigned}) {
+            final ByteArrayOutputStream inMemory = new ByteArrayOutputStream();
+            Assert.assertTrue(transform(bytes, inMemory, Integer.MAX_VALUE));
+            final ByteArrayOutputStream spooled = new ByteArrayOutputStream();
+            // all the held entries and stored nested archives exceed the threshold
+            Assert.assertTrue(transform(bytes, spooled, 1));
+            Assert.assertArrayEquals(inMemory.toByteArray(), spooled.toByteArray());
+        }
+        Assert.assertEquals(spools, spools());
+
+        final ZipInputStream zipIn = new ZipInputStream(new ByteArrayInputStream(transform(archive)));
+        final List<String> names = new ArrayList<>();
+        ZipEntry entry;
+        while ((entry = zipIn.getNextEntry()) != null) {
+            names.add(entry.getName());
+            if (entry.getName().equals("lib/held.jar")) {
+                Assert.assertEquals(ZipEntry.STORED, entry.getMethod());
+                Assert.assertEquals(Arrays.asList(TestArchives.TRANSFORMED_SERVICE),
+                        new ArrayList<>(TestArchives.read(TestArchives.readAll(zipIn)).keySet()));
+            }
+        }
+        Assert.assertEquals(Arrays.asList("META-INF/", "META-INF/MANIFEST.MF", "lib/", "lib/held.jar", "org/acme/readme.txt"), names);
+    }
+
+    @Test
+    public void testPipedTransformationOnExecutor() throws Exception {
+        final byte[] archive = new TestArchives()
+                .add(TestArchives.SERVICE, TestArchives.SERVICE_CONTENT)
+                .build();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            try (InputStream in = JakartaTransformer.transform(null, new ByteArrayInputStream(archive), "test.jar", false,
+                    (format, args) -> { }, executor)) {
+                Assert.assertEquals(Arrays.asList(TestArchives.TRANSFORMED_SERVICE),
+                        new ArrayList<>(TestArchives.read(TestArchives.readAll(in)).keySet()));
+            }
+
+            final IOException failure = new IOException("source failure");
+            final InputStream failing = new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    throw failure;
+                }
+            };
+            try (InputStream in = JakartaTransformer.transform(null, failing, "test.jar", false, (format, args) -> { }, executor)) {
+                TestArchives.readAll(in);
+                Assert.fail("the failure of the transformation is not reported");
+            } catch (IOException e) {
+                Assert.assertSame(failure, e);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static byte[] transform(byte[] archive) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        transform(archive, out, 1);
+        return out.toByteArray();
+    }
+
+    private static boolean transform(byte[] archive, ByteArrayOutputStream out) throws IOException {
+        return transform(archive, out, Integer.MAX_VALUE);
+    }
+
+    private static boolean transform(byte[] archive, ByteArrayOutputStream out, int spoolThreshold) throws IOException {
+        final ArchiveTransformer transformer = BataviaTransformer.acquire(null, false);
+        final StreamingTransformer streaming = new StreamingTransformer(transformer, EntryCache.get(null, false),
+                (format, args) -> { }, spoolThreshold);
+        return streaming.transformArchive("test.jar", new ByteArrayInputStream(archive), out);
+    }
+
+    private static List<String> spools() throws IOException {
+        try (Stream<Path> stream = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+            return stream.map(p -> p.getFileName().toString())
+                    .filter(n -> n.startsWith("jakarta-transform") && n.endsWith(".spool"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
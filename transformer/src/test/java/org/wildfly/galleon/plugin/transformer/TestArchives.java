@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016-2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.galleon.plugin.transformer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Builds and reads the archives used by the tests.
+ */
+class TestArchives {
+
+    // a service file renamed by the default rules
+    static final String SERVICE = "META-INF/services/javax.servlet.ServletContainerInitializer";
+    static final String TRANSFORMED_SERVICE = "META-INF/services/jakarta.servlet.ServletContainerInitializer";
+    static final String SERVICE_CONTENT = "org.acme.Initializer\n";
+    static final String SIGNATURE = "META-INF/ACME.SF";
+    static final String SIGNED_MANIFEST = "Manifest-Version: 1.0\r\nCreated-By: test\r\n\r\n"
+            + "Name: org/acme/readme.txt\r\nSHA-256-Digest: 2jmj7l5rSw0yVb/vlWAYkK/YBwk=\r\n\r\n";
+    static final String MANIFEST = "Manifest-Version: 1.0\r\nCreated-By: test\r\n\r\n";
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final ZipOutputStream out = new ZipOutputStream(bytes);
+
+    TestArchives dir(String name) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.closeEntry();
+        return this;
+    }
+
+    TestArchives add(String name, String content) throws IOException {
+        return add(name, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    TestArchives add(String name, byte[] data) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(data);
+        out.closeEntry();
+        return this;
+    }
+
+    TestArchives addStored(String name, byte[] data) throws IOException {
+        final ZipEntry entry = new ZipEntry(name);
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        entry.setCompressedSize(data.length);
+        entry.setCrc(crc.getValue());
+        out.putNextEntry(entry);
+        out.write(data);
+        out.closeEntry();
+        return this;
+    }
+
+    byte[] build() throws IOException {
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    Path write(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, build());
+        return file;
+    }
+
+    /**
+     * @return the content of the entries per name, in the order of the archive, directories excluded
+     */
+    static Map<String, byte[]> read(byte[] archive) throws IOException {
+        return read(new ByteArrayInputStream(archive));
+    }
+
+    static Map<String, byte[]> read(Path archive) throws IOException {
+        try (InputStream in = Files.newInputStream(archive)) {
+            return read(in);
+        }
+    }
+
+    private static Map<String, byte[]> read(InputStream in) throws IOException {
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        final ZipInputStream zipIn = new ZipInputStream(in);
+        ZipEntry entry;
+        while ((entry = zipIn.getNextEntry()) != null) {
+            if (!entry.isDirectory()) {
+                entries.put(entry.getName(), readAll(zipIn));
+            }
+        }
+        return entries;
+    }
+
+    static byte[] readAll(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    static String string(byte[] data) {
+        return new String(data, StandardCharsets.UTF_8);
+    }
+}